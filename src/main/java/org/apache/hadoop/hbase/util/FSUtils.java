@@ -68,6 +68,9 @@ import org.apache.hadoop.util.StringUtils;
  *
  * <p>The new behavior is similar to later versions of hbase and allows us to redirect this
  * harmless error message.</p>
+ *
+ * <p>It also short-circuits the DFS-only operations (safe mode checks and lease recovery) when
+ * the cluster keeps its root directory on the local filesystem.</p>
  */
 public abstract class FSUtils {
   private static final Log LOG = LogFactory.getLog(FSUtils.class);
@@ -86,8 +89,11 @@ public abstract class FSUtils {
           fs.getUri() + ", default to hdfs");
       scheme = "hdfs";
     }
+    // hbase-maven-plugin: there are no leases to recover on the local filesystem.
+    Class<?> defaultClass = "file".equalsIgnoreCase(scheme)
+        ? LocalFSUtils.class : FSHDFSUtils.class;
     Class<?> fsUtilsClass = conf.getClass("hbase.fsutil." +
-        scheme + ".impl", FSHDFSUtils.class); // Default to HDFS impl
+        scheme + ".impl", defaultClass); // Default to HDFS impl
     FSUtils fsUtils = (FSUtils)ReflectionUtils.newInstance(fsUtilsClass, conf);
     return fsUtils;
   }
@@ -266,6 +272,9 @@ public abstract class FSUtils {
    */
   public static void checkDfsSafeMode(final Configuration conf)
   throws IOException {
+    if (isLocal(conf)) {
+      return;
+    }
     boolean isInSafeMode = false;
     FileSystem fs = FileSystem.get(conf);
     if (fs instanceof DistributedFileSystem) {
@@ -634,6 +643,9 @@ public abstract class FSUtils {
   public static void waitOnSafeMode(final Configuration conf,
     final long wait)
   throws IOException {
+    if (isLocal(conf)) {
+      return;
+    }
     FileSystem fs = FileSystem.get(conf);
     if (!(fs instanceof DistributedFileSystem)) return;
     DistributedFileSystem dfs = (DistributedFileSystem)fs;
@@ -1025,11 +1037,35 @@ public abstract class FSUtils {
    * @throws IOException
    */
   public static boolean isHDFS(final Configuration conf) throws IOException {
+    if (isLocal(conf)) {
+      return false;
+    }
     FileSystem fs = FileSystem.get(conf);
     String scheme = fs.getUri().getScheme();
     return scheme.equalsIgnoreCase("hdfs");
   }
 
+  /**
+   * hbase-maven-plugin: Checks whether the default filesystem is the local one, without
+   * looking up a FileSystem.
+   * @param conf
+   * @return True if the default filesystem has the 'file' scheme.
+   */
+  private static boolean isLocal(final Configuration conf) {
+    return "file".equalsIgnoreCase(FileSystem.getDefaultUri(conf).getScheme());
+  }
+
+  /**
+   * hbase-maven-plugin: FSUtils for the local filesystem, which has no leases to recover.
+   */
+  public static class LocalFSUtils extends FSUtils {
+    @Override
+    public void recoverFileLease(final FileSystem fs, final Path p,
+        Configuration conf, CancelableProgressable reporter) throws IOException {
+      // Nothing to recover.
+    }
+  }
+
   /**
    * Recover file lease. Used when a file might be suspect
    * to be had been left open by another process.
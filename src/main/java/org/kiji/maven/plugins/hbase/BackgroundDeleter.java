@@ -0,0 +1,332 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Deletes directories in the background, so that deleting a large directory doesn't hold up the
+ * build.
+ *
+ * <p>A directory is first renamed aside, to a trash directory next to it, which is atomic and
+ * frees its name for a new directory right away.  A low priority thread then deletes the trash
+ * directory with a parallel tree walker.  Afterwards it sweeps up the trash directories next to
+ * it that earlier builds left behind, because they were killed or exited before their deletion
+ * finished.</p>
+ */
+public class BackgroundDeleter extends MavenLogged {
+  /** Separates the name of a renamed directory from the time it was renamed. */
+  static final String TRASH_MARKER = ".hbase-maven-plugin-trash-";
+
+  /** The trash directories being deleted by this process. */
+  private static final Set<File> IN_PROGRESS = new HashSet<File>();
+
+  /** The number of threads that delete a tree. */
+  private final int mThreads;
+
+  /**
+   * Creates a new <code>BackgroundDeleter</code> instance.
+   *
+   * @param log The maven log.
+   */
+  public BackgroundDeleter(Log log) {
+    this(log, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Creates a new <code>BackgroundDeleter</code> instance.
+   *
+   * @param log The maven log.
+   * @param threads The number of threads that delete a tree.
+   */
+  BackgroundDeleter(Log log, int threads) {
+    super(log);
+    mThreads = Math.max(1, threads);
+  }
+
+  /**
+   * Renames a directory aside and starts deleting it in the background.
+   *
+   * @param dir The directory to delete.  It must exist.
+   * @return The thread deleting the directory, which the caller need not wait for.
+   * @throws IOException If the directory cannot be renamed.
+   */
+  public Thread deleteInBackground(File dir) throws IOException {
+    File absoluteDir = dir.getAbsoluteFile();
+    final File trash = new File(absoluteDir.getParentFile(),
+        absoluteDir.getName() + TRASH_MARKER + System.currentTimeMillis());
+    synchronized (IN_PROGRESS) {
+      if (trash.exists() || !absoluteDir.renameTo(trash)) {
+        throw new IOException("Unable to rename " + absoluteDir.getPath() + " aside.");
+      }
+      IN_PROGRESS.add(trash);
+    }
+    getLog().info("Moved " + absoluteDir.getPath() + " to " + trash.getName()
+        + ", deleting it in the background.");
+
+    return start(new Runnable() {
+      @Override
+      public void run() {
+        delete(trash);
+        sweep(trash.getParentFile());
+      }
+    });
+  }
+
+  /**
+   * Starts deleting the trash directories that earlier builds left behind in a directory.
+   *
+   * @param parent The directory to sweep.
+   * @return The thread sweeping the directory, which the caller need not wait for.
+   */
+  public Thread sweepInBackground(final File parent) {
+    return start(new Runnable() {
+      @Override
+      public void run() {
+        sweep(parent);
+      }
+    });
+  }
+
+  /**
+   * Starts a low priority daemon thread.
+   *
+   * @param work What the thread does.
+   * @return The started thread.
+   */
+  private static Thread start(Runnable work) {
+    Thread thread = new Thread(work, "hbase-maven-plugin-delete");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Deletes the trash directories in a directory that no thread of this process is deleting.
+   * They were left behind by builds that did not finish deleting them.
+   *
+   * @param parent The directory to sweep.
+   */
+  void sweep(File parent) {
+    File[] children = parent.listFiles();
+    if (null == children) {
+      return;
+    }
+    for (File child : children) {
+      if (!child.getName().contains(TRASH_MARKER)) {
+        continue;
+      }
+      synchronized (IN_PROGRESS) {
+        if (!IN_PROGRESS.add(child)) {
+          continue;
+        }
+      }
+      getLog().debug("Sweeping up " + child.getPath());
+      delete(child);
+    }
+  }
+
+  /**
+   * Deletes a trash directory and logs how long that took.
+   *
+   * @param trash The trash directory.
+   */
+  private void delete(File trash) {
+    try {
+      long startTime = System.currentTimeMillis();
+      int failures = deleteTree(trash, mThreads);
+      if (failures > 0) {
+        getLog().warn("Unable to delete " + failures + " file(s) in " + trash.getPath());
+      } else {
+        getLog().debug(String.format("Deleted %s in %.1f s.", trash.getPath(),
+            (System.currentTimeMillis() - startTime) / 1000.0));
+      }
+    } catch (InterruptedException e) {
+      getLog().debug("Interrupted while deleting " + trash.getPath());
+    } finally {
+      synchronized (IN_PROGRESS) {
+        IN_PROGRESS.remove(trash);
+      }
+    }
+  }
+
+  /**
+   * Deletes a file or directory tree, walking the directories concurrently.  Symbolic links are
+   * deleted, not followed, and files that disappear while the tree is deleted are ignored.
+   *
+   * @param root The file or directory to delete.
+   * @param threads The number of threads to walk the tree with.
+   * @return The number of files and directories that could not be deleted.
+   * @throws InterruptedException If interrupted while waiting for the walk to finish.
+   */
+  static int deleteTree(File root, int threads) throws InterruptedException {
+    if (!root.isDirectory()) {
+      return deleteFile(root) ? 0 : 1;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "hbase-maven-plugin-delete-worker");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+    try {
+      TreeWalk walk = new TreeWalk(executor);
+      walk.submit(new DirectoryNode(root, null));
+      walk.mFinished.await();
+      return walk.mFailures.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Deletes a file or symbolic link.
+   *
+   * @param file The file.
+   * @return Whether the file is gone.
+   */
+  private static boolean deleteFile(File file) {
+    return file.delete() || !file.exists();
+  }
+
+  /** A directory being deleted by a tree walk. */
+  private static final class DirectoryNode {
+    /** The directory. */
+    private final File mDir;
+
+    /** The directory's parent in the walk, or null for the root. */
+    private final DirectoryNode mParent;
+
+    /** The number of subdirectories still being deleted, plus one while listing the directory. */
+    private final AtomicInteger mRemaining = new AtomicInteger(1);
+
+    /**
+     * Creates a new <code>DirectoryNode</code> instance.
+     *
+     * @param dir The directory.
+     * @param parent The directory's parent in the walk, or null for the root.
+     */
+    private DirectoryNode(File dir, DirectoryNode parent) {
+      mDir = dir;
+      mParent = parent;
+    }
+  }
+
+  /**
+   * Deletes a directory tree on an executor.  Each directory is listed by its own task, which
+   * deletes its files and submits a task for each subdirectory.  A directory is deleted once its
+   * last subdirectory is.
+   */
+  private static final class TreeWalk {
+    /** Runs the directory tasks. */
+    private final ExecutorService mExecutor;
+
+    /** The number of files and directories that could not be deleted. */
+    private final AtomicInteger mFailures = new AtomicInteger();
+
+    /** Released once the root directory has been deleted or given up on. */
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    /**
+     * Creates a new <code>TreeWalk</code> instance.
+     *
+     * @param executor Runs the directory tasks.
+     */
+    private TreeWalk(ExecutorService executor) {
+      mExecutor = executor;
+    }
+
+    /**
+     * Submits the task that deletes the contents of a directory.
+     *
+     * @param node The directory.
+     */
+    private void submit(final DirectoryNode node) {
+      mExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            File[] children = node.mDir.listFiles();
+            if (null != children) {
+              for (File child : children) {
+                if (child.isDirectory() && !isSymlink(child)) {
+                  node.mRemaining.incrementAndGet();
+                  submit(new DirectoryNode(child, node));
+                } else if (!deleteFile(child)) {
+                  mFailures.incrementAndGet();
+                }
+              }
+            }
+          } finally {
+            finish(node);
+          }
+        }
+      });
+    }
+
+    /**
+     * Records that one of the parts of a directory is done, and deletes the directory once all
+     * of them are.
+     *
+     * @param node The directory.
+     */
+    private void finish(DirectoryNode node) {
+      if (node.mRemaining.decrementAndGet() > 0) {
+        return;
+      }
+      if (!deleteFile(node.mDir)) {
+        mFailures.incrementAndGet();
+      }
+      if (null == node.mParent) {
+        mFinished.countDown();
+      } else {
+        finish(node.mParent);
+      }
+    }
+
+    /**
+     * Determines whether a file is a symbolic link.
+     *
+     * @param file The file.
+     * @return Whether the file is a symbolic link, or true if that cannot be determined.
+     */
+    private static boolean isSymlink(File file) {
+      try {
+        return FileUtils.isSymlink(file);
+      } catch (IOException e) {
+        return true;
+      }
+    }
+  }
+}
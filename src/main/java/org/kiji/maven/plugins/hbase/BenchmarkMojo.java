@@ -0,0 +1,221 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * A maven goal that measures how long mini clusters of different configurations take to start
+ * and stop on this machine, to choose the fastest configuration for it.
+ *
+ * <p>Each variant is started and stopped several times in this JVM.  The results are logged as
+ * a table and written as JSON.  See {@link BenchmarkVariant} for how to configure variants.
+ * Without variants, the default and fast profiles, durable and non-durable writes, DFS and local
+ * storage, three regionservers and MapReduce are compared.  The write throughput of each running
+ * variant is measured too.</p>
+ *
+ * @goal benchmark
+ * @requiresDependencyResolution test
+ */
+public class BenchmarkMojo extends AbstractMojo {
+  /**
+   * If true, this goal should be a no-op.
+   *
+   * @parameter property="skip" default-value="false"
+   */
+  private boolean mSkip;
+
+  /**
+   * The cluster configurations to measure.
+   *
+   * @parameter property="variants"
+   */
+  private List<BenchmarkVariant> mVariants;
+
+  /**
+   * How many times to start and stop each variant.
+   *
+   * @parameter property="iterations" expression="${hbase.benchmark.iterations}" default-value="3"
+   */
+  private int mIterations;
+
+  /**
+   * The number of rows to write to each running variant to measure its write throughput, or 0
+   * to skip the write probe.
+   *
+   * @parameter property="writeRows" expression="${hbase.benchmark.write.rows}" default-value="20000"
+   */
+  private int mWriteRows;
+
+  /**
+   * The file to write the results to, as JSON.
+   *
+   * @parameter property="resultsFile" expression="${hbase.benchmark.results}" default-value="${project.build.directory}/hbase-benchmark.json"
+   */
+  private File mResultsFile;
+
+  /**
+   * The directory the variants keep their data in while they run.
+   *
+   * @parameter property="workDir" expression="${hbase.benchmark.work.dir}" default-value="${project.build.directory}/hbase-benchmark"
+   */
+  private File mWorkDir;
+
+  /**
+   * A list of this plugin's dependency artifacts.
+   *
+   * @parameter default-value="${plugin.artifacts}"
+   * @required
+   * @readonly
+   */
+  private List<Artifact> mPluginDependencyArtifacts;
+
+  /**
+   * The maven project this plugin is running within.
+   *
+   * @parameter default-value="${project}"
+   * @required
+   * @readonly
+   */
+  private MavenProject mMavenProject;
+
+  /**
+   * Sets whether this goal should be a no-op.
+   *
+   * @param skip If true, this goal should do nothing.
+   */
+  public void setSkip(boolean skip) {
+    mSkip = skip;
+  }
+
+  /**
+   * Sets the cluster configurations to measure.
+   *
+   * @param variants The variants.
+   */
+  public void setVariants(List<BenchmarkVariant> variants) {
+    mVariants = variants;
+  }
+
+  /**
+   * Sets how many times to start and stop each variant.
+   *
+   * @param iterations The number of iterations, at least 1.
+   */
+  public void setIterations(int iterations) {
+    mIterations = iterations;
+  }
+
+  /**
+   * Sets the number of rows to write to each running variant.
+   *
+   * @param writeRows The number of rows, or 0 to skip the write probe.
+   */
+  public void setWriteRows(int writeRows) {
+    mWriteRows = writeRows;
+  }
+
+  /**
+   * Sets the file to write the results to.
+   *
+   * @param resultsFile The JSON results file.
+   */
+  public void setResultsFile(File resultsFile) {
+    mResultsFile = resultsFile;
+  }
+
+  /**
+   * Sets the directory the variants keep their data in.
+   *
+   * @param workDir The work directory.
+   */
+  public void setWorkDir(File workDir) {
+    mWorkDir = workDir;
+  }
+
+  /**
+   * Measures the variants.
+   *
+   * <p>This method is called by the maven plugin framework to run the goal.</p>
+   *
+   * @throws MojoExecutionException If there is a fatal error during this goal's execution.
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not benchmarking HBase clusters because skip=true.");
+      return;
+    }
+    if (mIterations < 1) {
+      throw new MojoExecutionException("iterations must be at least 1.");
+    }
+    List<BenchmarkVariant> variants = mVariants;
+    if (null == variants || variants.isEmpty()) {
+      BenchmarkVariant fast = new BenchmarkVariant(null, false, 1, "dfs");
+      fast.setProfile(ClusterProfile.FAST.getName());
+      BenchmarkVariant nonDurable = new BenchmarkVariant(null, false, 1, "dfs");
+      nonDurable.setNonDurableWrites(true);
+      variants = Arrays.asList(
+          new BenchmarkVariant(null, false, 1, "dfs"),
+          fast,
+          nonDurable,
+          new BenchmarkVariant(null, false, 1, "local"),
+          new BenchmarkVariant(null, false, 3, "dfs"),
+          new BenchmarkVariant(null, true, 1, "dfs"));
+    }
+    for (BenchmarkVariant variant : variants) {
+      try {
+        ClusterProfile.parse(variant.getProfile());
+      } catch (IllegalArgumentException e) {
+        throw new MojoExecutionException(e.getMessage(), e);
+      }
+    }
+
+    // The MapReduce child JVMs need the classpath, like in the 'start' goal.
+    System.setProperty("java.class.path",
+        StartMojo.getClassPath(mMavenProject, mPluginDependencyArtifacts));
+
+    List<LifecycleBenchmark.Result> results;
+    try {
+      LifecycleBenchmark benchmark = new LifecycleBenchmark(getLog(), mWorkDir);
+      benchmark.setWriteRows(mWriteRows);
+      results = benchmark.run(variants, mIterations);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to benchmark HBase clusters.", e);
+    }
+    getLog().info("HBase cluster benchmark (" + mIterations + " iterations per variant):");
+    for (String line : LifecycleBenchmark.formatTable(results)) {
+      getLog().info(line);
+    }
+    try {
+      LifecycleBenchmark.writeResults(mResultsFile, results);
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Unable to write benchmark results to " + mResultsFile.getPath(), e);
+    }
+    getLog().info("Wrote " + mResultsFile.getPath() + ".");
+  }
+}
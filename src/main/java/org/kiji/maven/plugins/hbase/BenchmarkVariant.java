@@ -0,0 +1,242 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Properties;
+
+/**
+ * A cluster configuration the 'benchmark' goal measures, given in the plugin configuration as:
+ *
+ * <pre>
+ *   &lt;variants&gt;
+ *     &lt;variant&gt;
+ *       &lt;name&gt;local-3rs&lt;/name&gt;
+ *       &lt;storage&gt;local&lt;/storage&gt;
+ *       &lt;regionServers&gt;3&lt;/regionServers&gt;
+ *       &lt;profile&gt;fast&lt;/profile&gt;
+ *       &lt;hadoopConfiguration&gt;
+ *         &lt;property&gt;
+ *           &lt;name&gt;hbase.regionserver.handler.count&lt;/name&gt;
+ *           &lt;value&gt;5&lt;/value&gt;
+ *         &lt;/property&gt;
+ *       &lt;/hadoopConfiguration&gt;
+ *     &lt;/variant&gt;
+ *   &lt;/variants&gt;
+ * </pre>
+ */
+public class BenchmarkVariant {
+  /** The name of the variant in the results. */
+  private String mName;
+
+  /** Whether the variant also runs a mini MapReduce cluster. */
+  private boolean mMapReduce;
+
+  /** The number of regionservers. */
+  private int mRegionServers = 1;
+
+  /** Where the variant keeps the HBase root directory: "dfs" or "local". */
+  private String mStorage = "dfs";
+
+  /** The tuning profile of the variant, see {@link ClusterProfile}. */
+  private String mProfile = "default";
+
+  /** Whether the variant is configured for non-durable writes, see {@link WriteDurability}. */
+  private boolean mNonDurableWrites;
+
+  /** Hadoop configuration properties to start the variant with. */
+  private Properties mHadoopConfiguration = new Properties();
+
+  /**
+   * Creates a new <code>BenchmarkVariant</code> instance, for the plugin configuration.
+   */
+  public BenchmarkVariant() {
+  }
+
+  /**
+   * Creates a new <code>BenchmarkVariant</code> instance.
+   *
+   * @param name The name of the variant.
+   * @param mapReduce Whether to also run a mini MapReduce cluster.
+   * @param regionServers The number of regionservers.
+   * @param storage "dfs" or "local".
+   */
+  public BenchmarkVariant(String name, boolean mapReduce, int regionServers, String storage) {
+    mName = name;
+    mMapReduce = mapReduce;
+    mRegionServers = regionServers;
+    mStorage = storage;
+  }
+
+  /**
+   * Gets the name of the variant.  Unnamed variants are named after their settings.
+   *
+   * @return The name.
+   */
+  public String getName() {
+    if (null != mName && !mName.isEmpty()) {
+      return mName;
+    }
+    StringBuilder name = new StringBuilder()
+        .append(mStorage).append("-").append(mRegionServers).append("rs");
+    if (mMapReduce) {
+      name.append("-mr");
+    }
+    if (!"default".equalsIgnoreCase(mProfile)) {
+      name.append("-").append(mProfile);
+    }
+    if (mNonDurableWrites) {
+      name.append("-nondurable");
+    }
+    if (!mHadoopConfiguration.isEmpty()) {
+      name.append("-conf").append(mHadoopConfiguration.size());
+    }
+    return name.toString();
+  }
+
+  /**
+   * Sets the name of the variant.
+   *
+   * @param name The name.
+   */
+  public void setName(String name) {
+    mName = name;
+  }
+
+  /**
+   * Determines whether the variant also runs a mini MapReduce cluster.
+   *
+   * @return Whether MapReduce is enabled.
+   */
+  public boolean isMapReduce() {
+    return mMapReduce;
+  }
+
+  /**
+   * Sets whether the variant also runs a mini MapReduce cluster.
+   *
+   * @param mapReduce Whether to enable MapReduce.
+   */
+  public void setMapReduce(boolean mapReduce) {
+    mMapReduce = mapReduce;
+  }
+
+  /**
+   * Gets the number of regionservers.
+   *
+   * @return The number of regionservers.
+   */
+  public int getRegionServers() {
+    return mRegionServers;
+  }
+
+  /**
+   * Sets the number of regionservers.
+   *
+   * @param regionServers The number of regionservers.
+   */
+  public void setRegionServers(int regionServers) {
+    mRegionServers = regionServers;
+  }
+
+  /**
+   * Gets where the variant keeps the HBase root directory.
+   *
+   * @return "dfs" or "local".
+   */
+  public String getStorage() {
+    return mStorage;
+  }
+
+  /**
+   * Sets where the variant keeps the HBase root directory.
+   *
+   * @param storage "dfs" or "local".
+   */
+  public void setStorage(String storage) {
+    mStorage = storage;
+  }
+
+  /**
+   * Determines whether the variant keeps the HBase root directory on the local filesystem.
+   *
+   * @return Whether the storage is "local".
+   */
+  public boolean isLocalStorage() {
+    return "local".equalsIgnoreCase(mStorage);
+  }
+
+  /**
+   * Gets the tuning profile of the variant.
+   *
+   * @return "default", "fast" or "production-like".
+   */
+  public String getProfile() {
+    return mProfile;
+  }
+
+  /**
+   * Sets the tuning profile of the variant.
+   *
+   * @param profile "default", "fast" or "production-like".
+   */
+  public void setProfile(String profile) {
+    mProfile = profile;
+  }
+
+  /**
+   * Determines whether the variant is configured for non-durable writes.
+   *
+   * @return Whether writes are non-durable.
+   */
+  public boolean isNonDurableWrites() {
+    return mNonDurableWrites;
+  }
+
+  /**
+   * Sets whether the variant is configured for non-durable writes.
+   *
+   * @param nonDurableWrites Whether writes are non-durable.
+   */
+  public void setNonDurableWrites(boolean nonDurableWrites) {
+    mNonDurableWrites = nonDurableWrites;
+  }
+
+  /**
+   * Gets the Hadoop configuration properties to start the variant with.
+   *
+   * @return The properties.
+   */
+  public Properties getHadoopConfiguration() {
+    return mHadoopConfiguration;
+  }
+
+  /**
+   * Sets the Hadoop configuration properties to start the variant with.
+   *
+   * @param hadoopConfiguration The properties.
+   */
+  public void setHadoopConfiguration(Properties hadoopConfiguration) {
+    mHadoopConfiguration = hadoopConfiguration;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
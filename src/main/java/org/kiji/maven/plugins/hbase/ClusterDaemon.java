@@ -0,0 +1,268 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * A long-lived process that runs a mini HBase cluster outside of the maven JVM.
+ *
+ * <p>The daemon is forked by the 'start' goal (see {@link ClusterDaemonRegistry}) and keeps its
+ * state in a registry directory:</p>
+ *
+ * <ul>
+ *   <li><code>daemon-conf.xml</code> and <code>daemon.properties</code> - the configuration and
+ *       options the daemon is started with, written by the forking process.</li>
+ *   <li><code>daemon.lock</code> - locked by the daemon for as long as it is alive.</li>
+ *   <li><code>launch.lock</code> - locked by a build while it checks for, launches and waits for
+ *       the daemon.</li>
+ *   <li><code>cluster-site.xml</code> and <code>cluster.properties</code> - the configuration,
+ *       ports and process id of the running cluster, written once it is ready.</li>
+ *   <li><code>lease</code> - touched regularly by every build while it uses the cluster.  The
+ *       daemon shuts down once the lease has not been touched for the idle timeout.</li>
+ *   <li><code>stop</code> - created to ask the daemon to shut down.</li>
+ * </ul>
+ */
+public final class ClusterDaemon {
+  /** The configuration the daemon starts its cluster with. */
+  static final String DAEMON_CONF = "daemon-conf.xml";
+  /** The options the daemon is started with. */
+  static final String DAEMON_PROPERTIES = "daemon.properties";
+  /** The file the daemon holds a lock on while it is alive. */
+  static final String LOCK_FILE = "daemon.lock";
+  /** The file a build holds a lock on while it checks for and launches the daemon. */
+  static final String LAUNCH_LOCK_FILE = "launch.lock";
+  /** The configuration of the running cluster. */
+  static final String CLUSTER_SITE = "cluster-site.xml";
+  /** The ports and process id of the running cluster. */
+  static final String CLUSTER_PROPERTIES = "cluster.properties";
+  /** The file touched by every build that uses the cluster. */
+  static final String LEASE_FILE = "lease";
+  /** The file that asks the daemon to shut down. */
+  static final String STOP_FILE = "stop";
+  /** The file the daemon writes its output to. */
+  static final String LOG_FILE = "daemon.log";
+
+  /** Daemon option: whether to start a mini MapReduce cluster. */
+  static final String MAPREDUCE_ENABLED = "mapreduce.enabled";
+  /** Daemon option: the number of servers of each kind, see {@link ClusterSize#parse}. */
+  static final String CLUSTER_SIZE = "cluster.size";
+  /** Daemon option: how long the lease may go untouched before the daemon exits. */
+  static final String IDLE_TIMEOUT_MILLIS = "idle.timeout.millis";
+  /** Daemon option: the cluster image cache directory, if the image cache is used. */
+  static final String IMAGE_CACHE_DIR = "image.cache.dir";
+  /** Daemon option: the cluster image key, if the image cache is used. */
+  static final String IMAGE_KEY = "image.key";
+
+  /** How often the daemon checks whether it should shut down. */
+  private static final long CHECK_INTERVAL_MILLIS = 1000L;
+
+  /**
+   * How long a starting daemon retries its lock.  Builds checking whether a daemon is alive take
+   * the lock for a moment when it is free.
+   */
+  private static final long LOCK_RETRY_MILLIS = 5000L;
+
+  /** How often a starting daemon retries its lock. */
+  private static final long LOCK_RETRY_INTERVAL_MILLIS = 50L;
+
+  /** Disable the constructor; the daemon is only run through {@link #main(String[])}. */
+  private ClusterDaemon() {}
+
+  /**
+   * Runs the daemon.
+   *
+   * @param args A single argument: the registry directory of this daemon.
+   * @throws Exception If the cluster cannot be run.
+   */
+  public static void main(String[] args) throws Exception {
+    if (1 != args.length) {
+      System.err.println("Usage: ClusterDaemon <registry-dir>");
+      System.exit(1);
+    }
+    File dir = new File(args[0]);
+    PrintStream out = new PrintStream(new FileOutputStream(new File(dir, LOG_FILE), true), true);
+    System.setOut(out);
+    System.setErr(out);
+
+    RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+    FileLock lock = acquireLock(lockFile);
+    if (null == lock) {
+      System.err.println("Another daemon already owns " + dir.getPath());
+      System.exit(1);
+    }
+    try {
+      run(dir, new SystemStreamLog());
+    } finally {
+      new File(dir, CLUSTER_PROPERTIES).delete();
+      new File(dir, CLUSTER_SITE).delete();
+      lock.release();
+      lockFile.close();
+    }
+    System.exit(0);
+  }
+
+  /**
+   * Takes the lock of the daemon, retrying for a while if a build is probing it.
+   *
+   * @param lockFile The open lock file.
+   * @return The lock, or null if another daemon holds it.
+   * @throws IOException If the lock file cannot be locked.
+   * @throws InterruptedException If interrupted while waiting to retry.
+   */
+  private static FileLock acquireLock(RandomAccessFile lockFile)
+      throws IOException, InterruptedException {
+    long deadline = System.currentTimeMillis() + LOCK_RETRY_MILLIS;
+    while (true) {
+      FileLock lock = lockFile.getChannel().tryLock();
+      if (null != lock || System.currentTimeMillis() > deadline) {
+        return lock;
+      }
+      Thread.sleep(LOCK_RETRY_INTERVAL_MILLIS);
+    }
+  }
+
+  /**
+   * Starts the cluster, publishes its configuration, then blocks until the daemon is asked to
+   * stop or the lease expires.
+   *
+   * @param dir The registry directory of this daemon.
+   * @param log The log to write to.
+   * @throws Exception If there is an error.
+   */
+  private static void run(File dir, Log log) throws Exception {
+    Properties options = loadProperties(new File(dir, DAEMON_PROPERTIES));
+    Configuration conf = new Configuration(false);
+    conf.addResource(new Path(new File(dir, DAEMON_CONF).getAbsolutePath()));
+
+    boolean mapReduceEnabled = Boolean.parseBoolean(options.getProperty(MAPREDUCE_ENABLED));
+    final MiniHBaseCluster cluster = new MiniHBaseCluster(log, mapReduceEnabled, conf);
+    cluster.setClusterSize(ClusterSize.parse(options.getProperty(CLUSTER_SIZE)));
+    if (null != options.getProperty(IMAGE_CACHE_DIR)) {
+      cluster.setImageCache(new ClusterImageCache(log,
+          new File(options.getProperty(IMAGE_CACHE_DIR)), options.getProperty(IMAGE_KEY)));
+    }
+    cluster.startup();
+    Runtime.getRuntime().addShutdownHook(new Thread("hbase-daemon-shutdown") {
+      @Override
+      public void run() {
+        shutdownQuietly(cluster);
+      }
+    });
+
+    // Publish the cluster.  The registry writes are atomic so attaching builds never see a
+    // partially written file.
+    Configuration clusterConf = cluster.getConfiguration();
+    File siteTmp = new File(dir, CLUSTER_SITE + ".tmp");
+    FileOutputStream siteOut = new FileOutputStream(siteTmp);
+    try {
+      clusterConf.writeXml(siteOut);
+    } finally {
+      siteOut.close();
+    }
+    Properties clusterProperties = new Properties();
+    clusterProperties.setProperty("pid", ManagementFactory.getRuntimeMXBean().getName());
+    clusterProperties.setProperty(HConstants.ZOOKEEPER_QUORUM,
+        clusterConf.get(HConstants.ZOOKEEPER_QUORUM, ""));
+    clusterProperties.setProperty(HConstants.ZOOKEEPER_CLIENT_PORT,
+        clusterConf.get(HConstants.ZOOKEEPER_CLIENT_PORT, ""));
+    clusterProperties.setProperty(HConstants.MASTER_PORT,
+        clusterConf.get(HConstants.MASTER_PORT, ""));
+    clusterProperties.setProperty("fs.default.name", clusterConf.get("fs.default.name", ""));
+    clusterProperties.setProperty("mapred.job.tracker",
+        clusterConf.get("mapred.job.tracker", ""));
+    File propertiesTmp = new File(dir, CLUSTER_PROPERTIES + ".tmp");
+    FileOutputStream propertiesOut = new FileOutputStream(propertiesTmp);
+    try {
+      clusterProperties.store(propertiesOut, "hbase-maven-plugin cluster daemon");
+    } finally {
+      propertiesOut.close();
+    }
+    if (!siteTmp.renameTo(new File(dir, CLUSTER_SITE))
+        || !propertiesTmp.renameTo(new File(dir, CLUSTER_PROPERTIES))) {
+      throw new IOException("Unable to publish the cluster configuration in " + dir.getPath());
+    }
+    log.info("HBase cluster daemon is ready.");
+
+    // Wait until we are asked to stop or nobody has used the cluster for a while.
+    long idleTimeoutMillis = Long.parseLong(options.getProperty(IDLE_TIMEOUT_MILLIS));
+    File lease = new File(dir, LEASE_FILE);
+    File stop = new File(dir, STOP_FILE);
+    while (true) {
+      if (stop.exists()) {
+        log.info("Stop requested.");
+        break;
+      }
+      if (System.currentTimeMillis() - lease.lastModified() > idleTimeoutMillis) {
+        log.info("Lease expired after " + idleTimeoutMillis + " ms idle.");
+        break;
+      }
+      Thread.sleep(CHECK_INTERVAL_MILLIS);
+    }
+    stop.delete();
+    shutdownQuietly(cluster);
+  }
+
+  /**
+   * Shuts a cluster down if it is still running, logging any error.
+   *
+   * @param cluster The cluster to shut down.
+   */
+  private static synchronized void shutdownQuietly(MiniHBaseCluster cluster) {
+    if (!cluster.isRunning()) {
+      return;
+    }
+    try {
+      cluster.shutdown();
+    } catch (Exception e) {
+      cluster.getLog().error("Unable to stop the HBase cluster.", e);
+    }
+  }
+
+  /**
+   * Loads a properties file.
+   *
+   * @param file The file to load.
+   * @return The properties.
+   * @throws IOException If the file cannot be read.
+   */
+  static Properties loadProperties(File file) throws IOException {
+    Properties properties = new Properties();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,610 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Launches, finds and stops {@link ClusterDaemon} processes.
+ *
+ * <p>Each daemon has its own directory in the registry, named after a key derived from the
+ * configuration of its cluster.  A build that asks for a cluster with the same key attaches to
+ * the running daemon, after checking that its cluster is healthy, instead of starting a new
+ * one.</p>
+ *
+ * <p>Builds check for and launch a daemon while holding the daemon's launch lock, so a build that
+ * arrives while another one is starting the daemon waits for it instead of launching a second
+ * one.  While a build uses a daemon, a background thread keeps renewing its lease, so the daemon
+ * does not go idle under a long integration test phase.</p>
+ *
+ * <p>The 'start' goal records the key of the daemon a module uses in the module's build directory
+ * (see {@link #saveModuleKey(File, String)}), so the 'stop' goal releases or stops that daemon
+ * only, and leaves the daemons of other projects alone.</p>
+ */
+public class ClusterDaemonRegistry extends MavenLogged {
+  /** The file in a module's build directory that records the key of the daemon it uses. */
+  public static final String MODULE_KEY_FILE = "hbase-daemon.key";
+
+  /** How often to check whether a daemon has come up or gone away. */
+  private static final long POLL_INTERVAL_MILLIS = 200L;
+
+  /** The longest time between two renewals of the lease of a daemon in use. */
+  private static final long MAX_LEASE_RENEWAL_INTERVAL_MILLIS = 60L * 1000L;
+
+  /**
+   * The monitors that keep the threads of this process from taking the same launch lock at once.
+   * A launch lock file must only be opened by one thread of a process at a time, because closing
+   * any channel of a file drops every lock the process holds on it.
+   */
+  private static final Map<File, Object> LAUNCH_MONITORS = new HashMap<File, Object>();
+
+  /**
+   * The threads renewing the leases of the daemons this process uses, by daemon directory.  The
+   * modules of a parallel build that use the same daemon share its renewer.
+   */
+  private static final Map<File, LeaseRenewer> LEASE_RENEWERS = new HashMap<File, LeaseRenewer>();
+
+  /** The registry directory. */
+  private final File mRegistryDir;
+
+  /**
+   * Creates a new <code>ClusterDaemonRegistry</code> instance.
+   *
+   * @param log The maven log.
+   * @param registryDir The directory that holds the state of all daemons.
+   */
+  public ClusterDaemonRegistry(Log log, File registryDir) {
+    super(log);
+    mRegistryDir = registryDir;
+  }
+
+  /**
+   * Attaches to the running daemon for a key, or launches a new one.
+   *
+   * @param key The key of the daemon, derived from the cluster configuration.
+   * @param conf The configuration to start a new cluster with.
+   * @param mapReduceEnabled Whether a new cluster should also run MapReduce.
+   * @param size The number of servers of each kind in a new cluster.
+   * @param imageCache The cluster image cache a new daemon should use, or null.
+   * @param classPath The classpath of a new daemon process.
+   * @param idleTimeoutMillis How long a new daemon may go unused before it exits.
+   * @param startTimeoutMillis How long to wait for a new daemon to start, or 0 to wait forever.
+   * @return The configuration of the running cluster.
+   * @throws IOException If no cluster could be attached to or launched.
+   */
+  public Configuration attachOrLaunch(String key, Configuration conf, boolean mapReduceEnabled,
+      ClusterSize size, ClusterImageCache imageCache, String classPath, long idleTimeoutMillis,
+      long startTimeoutMillis) throws IOException {
+    File dir = new File(mRegistryDir, key).getAbsoluteFile();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Unable to create daemon registry dir " + dir.getPath());
+    }
+    long deadline = startTimeoutMillis > 0
+        ? System.currentTimeMillis() + startTimeoutMillis : Long.MAX_VALUE;
+    Configuration clusterConf;
+    synchronized (getLaunchMonitor(dir)) {
+      RandomAccessFile lockFile =
+          new RandomAccessFile(new File(dir, ClusterDaemon.LAUNCH_LOCK_FILE), "rw");
+      try {
+        FileLock lock = acquireLaunchLock(lockFile, deadline, startTimeoutMillis);
+        try {
+          clusterConf = attachOrLaunchLocked(dir, conf, mapReduceEnabled, size, imageCache,
+              classPath, idleTimeoutMillis, deadline, startTimeoutMillis);
+        } finally {
+          lock.release();
+        }
+      } finally {
+        lockFile.close();
+      }
+    }
+    keepLeaseAlive(dir, idleTimeoutMillis);
+    return clusterConf;
+  }
+
+  /**
+   * Attaches to the running daemon in a registry directory, or launches a new one.  The caller
+   * must hold the launch lock of the directory.
+   *
+   * @param dir The registry directory of the daemon.
+   * @param conf The configuration to start a new cluster with.
+   * @param mapReduceEnabled Whether a new cluster should also run MapReduce.
+   * @param size The number of servers of each kind in a new cluster.
+   * @param imageCache The cluster image cache a new daemon should use, or null.
+   * @param classPath The classpath of a new daemon process.
+   * @param idleTimeoutMillis How long a new daemon may go unused before it exits.
+   * @param deadline When to give up waiting for a daemon to start.
+   * @param startTimeoutMillis How long to wait for a daemon to start, or 0 to wait forever.
+   * @return The configuration of the running cluster.
+   * @throws IOException If no cluster could be attached to or launched.
+   */
+  private Configuration attachOrLaunchLocked(File dir, Configuration conf,
+      boolean mapReduceEnabled, ClusterSize size, ClusterImageCache imageCache, String classPath,
+      long idleTimeoutMillis, long deadline, long startTimeoutMillis) throws IOException {
+    if (isAlive(dir) && !isPublished(dir)) {
+      // The build that launched it gave up waiting, or died, before the daemon came up.
+      getLog().info("HBase cluster daemon in " + dir.getPath() + " is still starting, waiting...");
+      waitForPublication(dir, null, deadline, startTimeoutMillis);
+    }
+    if (isAlive(dir) && isPublished(dir)) {
+      Configuration clusterConf = loadClusterConfiguration(dir);
+      if (isHealthy(clusterConf)) {
+        FileUtils.touch(new File(dir, ClusterDaemon.LEASE_FILE));
+        getLog().info("Attached to running HBase cluster daemon "
+            + ClusterDaemon.loadProperties(new File(dir, ClusterDaemon.CLUSTER_PROPERTIES))
+                .getProperty("pid") + ".");
+        return clusterConf;
+      }
+      getLog().warn("HBase cluster daemon in " + dir.getPath() + " is unhealthy, replacing it.");
+      stop(dir, startTimeoutMillis);
+    }
+    return launch(dir, conf, mapReduceEnabled, size, imageCache, classPath, idleTimeoutMillis,
+        deadline, startTimeoutMillis);
+  }
+
+  /**
+   * Releases this process's use of the daemon for a key and renews its lease, restarting its
+   * idle timeout.  Once no module of this process uses the daemon any more, its lease is no
+   * longer renewed in the background, so it goes idle from now on.
+   *
+   * @param key The key of the daemon.
+   * @throws IOException If the lease cannot be renewed.
+   */
+  public void releaseLease(String key) throws IOException {
+    File dir = new File(mRegistryDir, key).getAbsoluteFile();
+    synchronized (LEASE_RENEWERS) {
+      LeaseRenewer renewer = LEASE_RENEWERS.get(dir);
+      if (null != renewer && renewer.removeUser()) {
+        renewer.finish();
+        LEASE_RENEWERS.remove(dir);
+      }
+    }
+    if (isAlive(dir)) {
+      FileUtils.touch(new File(dir, ClusterDaemon.LEASE_FILE));
+    }
+  }
+
+  /**
+   * Stops the daemon for a key, if it is running, and waits for it to exit.
+   *
+   * @param key The key of the daemon.
+   * @param timeoutMillis How long to wait for the daemon, or 0 to wait forever.
+   * @return Whether a running daemon was stopped.
+   * @throws IOException If the daemon does not stop in time.
+   */
+  public boolean stopDaemon(String key, long timeoutMillis) throws IOException {
+    File dir = new File(mRegistryDir, key).getAbsoluteFile();
+    synchronized (LEASE_RENEWERS) {
+      LeaseRenewer renewer = LEASE_RENEWERS.remove(dir);
+      if (null != renewer) {
+        renewer.finish();
+      }
+    }
+    if (!isAlive(dir)) {
+      return false;
+    }
+    stop(dir, timeoutMillis);
+    return true;
+  }
+
+  /**
+   * Records the key of the daemon a module uses in the module's build directory.
+   *
+   * @param buildDir The build directory of the module.
+   * @param key The key of the daemon.
+   * @throws IOException If the key cannot be written.
+   */
+  public static void saveModuleKey(File buildDir, String key) throws IOException {
+    FileUtils.writeStringToFile(new File(buildDir, MODULE_KEY_FILE), key, Charsets.UTF_8.name());
+  }
+
+  /**
+   * Reads the key of the daemon a module used, as recorded by
+   * {@link #saveModuleKey(File, String)}.
+   *
+   * @param buildDir The build directory of the module.
+   * @return The key of the daemon, or null if the module has not used one.
+   * @throws IOException If the key cannot be read.
+   */
+  public static String loadModuleKey(File buildDir) throws IOException {
+    File keyFile = new File(buildDir, MODULE_KEY_FILE);
+    if (!keyFile.exists()) {
+      return null;
+    }
+    return FileUtils.readFileToString(keyFile, Charsets.UTF_8.name()).trim();
+  }
+
+  /**
+   * Forks a new daemon and waits for its cluster to be ready.  The caller must hold the launch
+   * lock of the directory, and no daemon may be alive in it.
+   *
+   * @param dir The registry directory of the new daemon.
+   * @param conf The configuration to start the cluster with.
+   * @param mapReduceEnabled Whether the cluster should also run MapReduce.
+   * @param size The number of servers of each kind in the cluster.
+   * @param imageCache The cluster image cache the daemon should use, or null.
+   * @param classPath The classpath of the daemon process.
+   * @param idleTimeoutMillis How long the daemon may go unused before it exits.
+   * @param deadline When to give up waiting for the daemon to start.
+   * @param startTimeoutMillis How long to wait for the daemon to start, or 0 to wait forever.
+   * @return The configuration of the running cluster.
+   * @throws IOException If the daemon does not start.
+   */
+  private Configuration launch(File dir, Configuration conf, boolean mapReduceEnabled,
+      ClusterSize size, ClusterImageCache imageCache, String classPath, long idleTimeoutMillis,
+      long deadline, long startTimeoutMillis) throws IOException {
+    for (String stale : Arrays.asList(ClusterDaemon.CLUSTER_PROPERTIES,
+        ClusterDaemon.CLUSTER_SITE, ClusterDaemon.STOP_FILE, ClusterDaemon.LOG_FILE)) {
+      FileUtils.deleteQuietly(new File(dir, stale));
+    }
+
+    // Hand the configuration and options to the daemon.
+    FileOutputStream confOut = new FileOutputStream(new File(dir, ClusterDaemon.DAEMON_CONF));
+    try {
+      conf.writeXml(confOut);
+    } finally {
+      confOut.close();
+    }
+    Properties options = new Properties();
+    options.setProperty(ClusterDaemon.MAPREDUCE_ENABLED, Boolean.toString(mapReduceEnabled));
+    options.setProperty(ClusterDaemon.CLUSTER_SIZE, size.toString());
+    options.setProperty(ClusterDaemon.IDLE_TIMEOUT_MILLIS, Long.toString(idleTimeoutMillis));
+    if (null != imageCache) {
+      options.setProperty(ClusterDaemon.IMAGE_CACHE_DIR, imageCache.getCacheDir().getPath());
+      options.setProperty(ClusterDaemon.IMAGE_KEY, imageCache.getKey());
+    }
+    FileOutputStream optionsOut =
+        new FileOutputStream(new File(dir, ClusterDaemon.DAEMON_PROPERTIES));
+    try {
+      options.store(optionsOut, "hbase-maven-plugin cluster daemon options");
+    } finally {
+      optionsOut.close();
+    }
+    FileUtils.touch(new File(dir, ClusterDaemon.LEASE_FILE));
+
+    // Fork the daemon.  It redirects its own output to its log file.
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    ProcessBuilder processBuilder = new ProcessBuilder(
+        java, "-cp", classPath, ClusterDaemon.class.getName(), dir.getAbsolutePath());
+    processBuilder.directory(dir);
+    processBuilder.redirectErrorStream(true);
+    getLog().info("Launching HBase cluster daemon in " + dir.getPath() + "...");
+    Process process = processBuilder.start();
+    process.getOutputStream().close();
+
+    if (!waitForPublication(dir, process, deadline, startTimeoutMillis)) {
+      throw new IOException("HBase cluster daemon exited with status " + process.exitValue()
+          + ", see " + new File(dir, ClusterDaemon.LOG_FILE).getPath());
+    }
+    getLog().info("HBase cluster daemon started.");
+    return loadClusterConfiguration(dir);
+  }
+
+  /**
+   * Waits for a starting daemon to publish its cluster.
+   *
+   * @param dir The registry directory of the daemon.
+   * @param process The daemon process if this build forked it, or null.
+   * @param deadline When to give up waiting.
+   * @param startTimeoutMillis How long to wait in total, or 0 to wait forever, for messages.
+   * @return Whether the cluster was published, or false if the daemon exited before.
+   * @throws IOException If the daemon does not start before the deadline.
+   */
+  private boolean waitForPublication(File dir, Process process, long deadline,
+      long startTimeoutMillis) throws IOException {
+    while (!isPublished(dir)) {
+      if (null == process ? !isAlive(dir) : hasExited(process)) {
+        return false;
+      }
+      if (System.currentTimeMillis() > deadline) {
+        if (null != process) {
+          process.destroy();
+        }
+        throw new IOException("HBase cluster daemon in " + dir.getPath()
+            + " did not start within " + startTimeoutMillis + " milliseconds.");
+      }
+      sleep();
+    }
+    return true;
+  }
+
+  /**
+   * Takes the launch lock of a daemon directory, waiting while another build holds it.
+   *
+   * @param lockFile The open launch lock file.
+   * @param deadline When to give up waiting.
+   * @param startTimeoutMillis How long to wait in total, or 0 to wait forever, for messages.
+   * @return The lock.
+   * @throws IOException If the lock is not free before the deadline.
+   */
+  private FileLock acquireLaunchLock(RandomAccessFile lockFile, long deadline,
+      long startTimeoutMillis) throws IOException {
+    boolean isWaiting = false;
+    while (true) {
+      FileLock lock = lockFile.getChannel().tryLock();
+      if (null != lock) {
+        return lock;
+      }
+      if (!isWaiting) {
+        getLog().info("Another build is starting this HBase cluster daemon, waiting for it...");
+        isWaiting = true;
+      }
+      if (System.currentTimeMillis() > deadline) {
+        throw new IOException("Another build did not finish starting the HBase cluster daemon"
+            + " within " + startTimeoutMillis + " milliseconds.");
+      }
+      sleep();
+    }
+  }
+
+  /**
+   * Gets the monitor that keeps the threads of this process from taking the launch lock of a
+   * daemon directory at once.
+   *
+   * @param dir The absolute registry directory of the daemon.
+   * @return The monitor of the directory.
+   */
+  private static Object getLaunchMonitor(File dir) {
+    synchronized (LAUNCH_MONITORS) {
+      Object monitor = LAUNCH_MONITORS.get(dir);
+      if (null == monitor) {
+        monitor = new Object();
+        LAUNCH_MONITORS.put(dir, monitor);
+      }
+      return monitor;
+    }
+  }
+
+  /**
+   * Keeps renewing the lease of a daemon in the background until every use of it is released
+   * with {@link #releaseLease(String)}, it is stopped with {@link #stopDaemon(String, long)}, or
+   * this process exits.
+   *
+   * @param dir The registry directory of the daemon.
+   * @param idleTimeoutMillis How long the daemon may go unused before it exits.
+   */
+  private void keepLeaseAlive(File dir, long idleTimeoutMillis) {
+    synchronized (LEASE_RENEWERS) {
+      LeaseRenewer existing = LEASE_RENEWERS.get(dir);
+      if (null != existing) {
+        existing.addUser();
+        return;
+      }
+      long intervalMillis = Math.max(POLL_INTERVAL_MILLIS,
+          Math.min(MAX_LEASE_RENEWAL_INTERVAL_MILLIS, idleTimeoutMillis / 4));
+      LeaseRenewer renewer = new LeaseRenewer(new File(dir, ClusterDaemon.LEASE_FILE),
+          intervalMillis);
+      renewer.start();
+      LEASE_RENEWERS.put(dir, renewer);
+    }
+  }
+
+  /**
+   * Touches the lease of a daemon at a fixed interval while this process uses the daemon.
+   */
+  private final class LeaseRenewer extends Thread {
+    /** The lease file. */
+    private final File mLease;
+
+    /** How often to touch the lease. */
+    private final long mIntervalMillis;
+
+    /** Set once the lease should no longer be renewed. */
+    private volatile boolean mIsFinished;
+
+    /** The number of uses of the daemon in this process, guarded by LEASE_RENEWERS. */
+    private int mUsers = 1;
+
+    /**
+     * Creates a new <code>LeaseRenewer</code> instance.
+     *
+     * @param lease The lease file.
+     * @param intervalMillis How often to touch the lease.
+     */
+    private LeaseRenewer(File lease, long intervalMillis) {
+      super("hbase-daemon-lease-renewer");
+      setDaemon(true);
+      mLease = lease;
+      mIntervalMillis = intervalMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+      while (!mIsFinished) {
+        try {
+          Thread.sleep(mIntervalMillis);
+          if (!mIsFinished) {
+            FileUtils.touch(mLease);
+          }
+        } catch (InterruptedException e) {
+          return;
+        } catch (IOException e) {
+          getLog().warn("Unable to renew the HBase cluster daemon lease " + mLease.getPath());
+        }
+      }
+    }
+
+    /**
+     * Records another use of the daemon.
+     */
+    private void addUser() {
+      mUsers++;
+    }
+
+    /**
+     * Records that a use of the daemon has ended.
+     *
+     * @return Whether the daemon is no longer used.
+     */
+    private boolean removeUser() {
+      mUsers--;
+      return mUsers <= 0;
+    }
+
+    /**
+     * Stops renewing the lease.
+     */
+    private void finish() {
+      mIsFinished = true;
+      interrupt();
+    }
+  }
+
+  /**
+   * Asks a daemon to stop and waits for it to exit.
+   *
+   * @param dir The registry directory of the daemon.
+   * @param timeoutMillis How long to wait, or 0 to wait forever.
+   * @throws IOException If the daemon does not stop in time.
+   */
+  private void stop(File dir, long timeoutMillis) throws IOException {
+    getLog().info("Stopping HBase cluster daemon in " + dir.getPath() + "...");
+    FileUtils.touch(new File(dir, ClusterDaemon.STOP_FILE));
+    long deadline = timeoutMillis > 0
+        ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+    while (isAlive(dir)) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new IOException("HBase cluster daemon in " + dir.getPath()
+            + " did not stop within " + timeoutMillis + " milliseconds.");
+      }
+      sleep();
+    }
+    getLog().info("HBase cluster daemon stopped.");
+  }
+
+  /**
+   * Checks whether the cluster of a running daemon answers requests.
+   *
+   * @param clusterConf The configuration of the cluster.
+   * @return Whether the cluster is healthy.
+   */
+  private boolean isHealthy(Configuration clusterConf) {
+    // Fail fast rather than retrying against a dead cluster.
+    Configuration checkConf = new Configuration(clusterConf);
+    checkConf.setInt("hbase.client.retries.number", 1);
+    checkConf.setInt("zookeeper.recovery.retry", 0);
+    try {
+      HBaseAdmin.checkHBaseAvailable(checkConf);
+      return true;
+    } catch (Exception e) {
+      getLog().debug("HBase cluster health check failed: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Determines whether a daemon has published its cluster.
+   *
+   * @param dir The registry directory of the daemon.
+   * @return Whether the cluster configuration is published.
+   */
+  private static boolean isPublished(File dir) {
+    return new File(dir, ClusterDaemon.CLUSTER_PROPERTIES).exists();
+  }
+
+  /**
+   * Loads the published configuration of a running daemon's cluster.
+   *
+   * @param dir The registry directory of the daemon.
+   * @return The cluster configuration.
+   */
+  private static Configuration loadClusterConfiguration(File dir) {
+    Configuration clusterConf = new Configuration(false);
+    clusterConf.addResource(
+        new Path(new File(dir, ClusterDaemon.CLUSTER_SITE).getAbsolutePath()));
+    // Force the resource to be loaded now, while we know the file exists.
+    clusterConf.size();
+    return clusterConf;
+  }
+
+  /**
+   * Determines whether a daemon is alive, that is, whether it holds its lock file.  The probe
+   * takes the lock for a moment if it is free, so a daemon that is just starting retries its lock
+   * for a while rather than giving up (see {@link ClusterDaemon}).  The probes of this process
+   * are serialized, since they would otherwise take the lock over each other.
+   *
+   * @param dir The registry directory of the daemon.
+   * @return Whether the daemon is alive.
+   * @throws IOException If the lock file cannot be accessed.
+   */
+  static synchronized boolean isAlive(File dir) throws IOException {
+    File lockFile = new File(dir, ClusterDaemon.LOCK_FILE);
+    if (!lockFile.exists()) {
+      return false;
+    }
+    RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+    try {
+      FileLock lock = file.getChannel().tryLock();
+      if (null == lock) {
+        return true;
+      }
+      lock.release();
+      return false;
+    } catch (OverlappingFileLockException e) {
+      // The lock is held by this JVM.
+      return true;
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Determines whether a process has exited.
+   *
+   * @param process The process.
+   * @return Whether it has exited.
+   */
+  private static boolean hasExited(Process process) {
+    try {
+      process.exitValue();
+      return true;
+    } catch (IllegalThreadStateException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Sleeps for one poll interval.
+   *
+   * @throws IOException If the sleep is interrupted.
+   */
+  private static void sleep() throws IOException {
+    try {
+      Thread.sleep(POLL_INTERVAL_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the HBase cluster daemon.");
+    }
+  }
+}
@@ -0,0 +1,336 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.HardLink;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A cache of pristine, freshly bootstrapped mini cluster storage images.
+ *
+ * <p>Starting a mini cluster from scratch formats a new NameNode and bootstraps the -ROOT- and
+ * .META. tables, which is most of the startup cost.  The cache keeps a copy of the DFS storage
+ * directories (NameNode metadata and DataNode block storage, which holds the HBase root
+ * directory) taken right after the first clean bootstrap.  Later clusters with the same key
+ * restore the copy and start with formatting disabled.</p>
+ *
+ * <p>Images are keyed by the HBase and Hadoop versions and a digest of the effective cluster
+ * configuration, so any change to those produces a new image.  The directories and ports of an
+ * individual cluster are left out of the digest, so every module and build with the same
+ * configuration shares one image.  Images that have not been used
+ * for {@link #MAX_IDLE_MILLIS} are evicted whenever a new image is stored.</p>
+ *
+ * <p>Finalized DataNode block files are restored with hard links when the filesystem allows it.
+ * HDFS never modifies a finalized block in place (an append first detaches the replica), so the
+ * cached copy stays pristine.  Everything else, including NameNode metadata, is copied.</p>
+ */
+public class ClusterImageCache extends MavenLogged {
+  /** Images unused for this long are evicted when a new image is stored. */
+  public static final long MAX_IDLE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+  /**
+   * The properties that differ between clusters of the same configuration without changing what
+   * their storage image looks like, so they are left out of the image key.
+   */
+  private static final Set<String> PER_CLUSTER_PROPERTIES = ImmutableSet.of(
+      "hadoop.tmp.dir",
+      HConstants.ZOOKEEPER_CLIENT_PORT,
+      "test.hbase.zookeeper.property.clientPort");
+
+  /** Name of the file that marks an image as complete and records its metadata. */
+  private static final String IMAGE_PROPERTIES = "image.properties";
+
+  /** Name of the file touched every time an image is restored. */
+  private static final String LAST_USED = "last-used";
+
+  /** Image property holding how long the cold start that built the image took. */
+  private static final String COLD_START_MILLIS = "cold.start.millis";
+
+  /** The directory that holds all cached images. */
+  private final File mCacheDir;
+
+  /** The key of the image used by this cache instance. */
+  private final String mKey;
+
+  /**
+   * Creates a new <code>ClusterImageCache</code> instance.
+   *
+   * @param log The maven log.
+   * @param cacheDir The directory that holds all cached images.
+   * @param key The key of the image to use, see {@link #computeKey(Configuration, String...)}.
+   */
+  public ClusterImageCache(Log log, File cacheDir, String key) {
+    super(log);
+    mCacheDir = cacheDir;
+    mKey = key;
+  }
+
+  /**
+   * Computes the image key for a cluster configuration.  The per-cluster directories and ports
+   * in the configuration don't affect the key.
+   *
+   * @param conf The configuration the cluster will be started with.
+   * @param clusterShape Extra strings describing the cluster shape that affect the image.
+   * @return The image key.
+   */
+  public static String computeKey(Configuration conf, String... clusterShape) {
+    String[] extras = new String[clusterShape.length + 2];
+    extras[0] = "hbase-" + org.apache.hadoop.hbase.util.VersionInfo.getVersion();
+    extras[1] = "hadoop-" + org.apache.hadoop.util.VersionInfo.getVersion();
+    System.arraycopy(clusterShape, 0, extras, 2, clusterShape.length);
+    Configuration keyConf = new Configuration(false);
+    for (Map.Entry<String, String> entry : conf) {
+      if (!PER_CLUSTER_PROPERTIES.contains(entry.getKey())) {
+        keyConf.set(entry.getKey(), entry.getValue());
+      }
+    }
+    return ConfigurationDigest.digest(keyConf, extras);
+  }
+
+  /**
+   * Gets the directory that holds all cached images.
+   *
+   * @return The cache directory.
+   */
+  public File getCacheDir() {
+    return mCacheDir;
+  }
+
+  /**
+   * Gets the key of the image used by this cache instance.
+   *
+   * @return The image key.
+   */
+  public String getKey() {
+    return mKey;
+  }
+
+  /**
+   * Determines whether a complete image exists for this key.
+   *
+   * @return Whether the image can be restored.
+   */
+  public boolean hasImage() {
+    return new File(getImageDir(), IMAGE_PROPERTIES).isFile();
+  }
+
+  /**
+   * Gets how long the cold start that produced the cached image took.
+   *
+   * @return The cold start time in milliseconds, or -1 if it is unknown.
+   */
+  public long getColdStartMillis() {
+    Properties properties = readImageProperties();
+    try {
+      return Long.parseLong(properties.getProperty(COLD_START_MILLIS, "-1"));
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Restores the cached image into a DFS base directory.
+   *
+   * @param dfsBaseDir The directory MiniDFSCluster will use as its base directory.  Must not
+   *     exist yet.
+   * @throws IOException If the image cannot be restored.
+   */
+  public void restore(File dfsBaseDir) throws IOException {
+    if (!hasImage()) {
+      throw new IOException("No cluster image exists for key " + mKey);
+    }
+    getLog().info("Restoring cluster image " + mKey + " into " + dfsBaseDir.getPath());
+    int linked = cloneTree(new File(getImageDir(), "dfs"), dfsBaseDir, true);
+    getLog().debug("Hard-linked " + linked + " block files from the cluster image.");
+    FileUtils.touch(new File(getImageDir(), LAST_USED));
+  }
+
+  /**
+   * Stores a DFS base directory as the cached image for this key.
+   *
+   * <p>The DFS cluster must be shut down cleanly before the image is stored.  The image is
+   * assembled in a temporary directory and renamed into place, so a concurrent or interrupted
+   * store never leaves a partial image behind.</p>
+   *
+   * @param dfsBaseDir The DFS base directory of a freshly bootstrapped, stopped cluster.
+   * @param coldStartMillis How long the cold start of that cluster took.
+   * @throws IOException If the image cannot be stored.
+   */
+  public void store(File dfsBaseDir, long coldStartMillis) throws IOException {
+    if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+      throw new IOException("Unable to create cluster image cache dir " + mCacheDir.getPath());
+    }
+    evictStaleImages();
+
+    File tmpDir = new File(mCacheDir, mKey + ".tmp-" + System.nanoTime());
+    getLog().info("Storing cluster image " + mKey + " in " + mCacheDir.getPath());
+    try {
+      cloneTree(dfsBaseDir, new File(tmpDir, "dfs"), false);
+
+      Properties properties = new Properties();
+      properties.setProperty(COLD_START_MILLIS, Long.toString(coldStartMillis));
+      properties.setProperty("hbase.version",
+          org.apache.hadoop.hbase.util.VersionInfo.getVersion());
+      properties.setProperty("hadoop.version", org.apache.hadoop.util.VersionInfo.getVersion());
+      FileOutputStream out = new FileOutputStream(new File(tmpDir, IMAGE_PROPERTIES));
+      try {
+        properties.store(out, "hbase-maven-plugin cluster image");
+      } finally {
+        out.close();
+      }
+      FileUtils.touch(new File(tmpDir, LAST_USED));
+
+      if (!tmpDir.renameTo(getImageDir())) {
+        if (hasImage()) {
+          getLog().info("Another build stored cluster image " + mKey + " first.");
+        } else {
+          throw new IOException("Unable to move cluster image into " + getImageDir().getPath());
+        }
+      }
+    } finally {
+      if (tmpDir.exists()) {
+        FileUtils.deleteQuietly(tmpDir);
+      }
+    }
+  }
+
+  /**
+   * Deletes images of other keys that have not been used recently, and leftovers of image
+   * stores that were interrupted.
+   */
+  private void evictStaleImages() {
+    File[] images = mCacheDir.listFiles();
+    if (null == images) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (File image : images) {
+      if (!image.isDirectory() || image.getName().equals(mKey)) {
+        continue;
+      }
+      File lastUsed = new File(image, LAST_USED);
+      long lastUsedMillis = lastUsed.exists() ? lastUsed.lastModified() : image.lastModified();
+      if (now - lastUsedMillis > MAX_IDLE_MILLIS) {
+        getLog().info("Evicting stale cluster image " + image.getName());
+        FileUtils.deleteQuietly(image);
+      }
+    }
+  }
+
+  /**
+   * Gets the directory of the image for this key.
+   *
+   * @return The image directory.
+   */
+  private File getImageDir() {
+    return new File(mCacheDir, mKey);
+  }
+
+  /**
+   * Reads the metadata of the cached image.
+   *
+   * @return The image properties, empty if they cannot be read.
+   */
+  private Properties readImageProperties() {
+    Properties properties = new Properties();
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(new File(getImageDir(), IMAGE_PROPERTIES));
+      properties.load(in);
+    } catch (IOException e) {
+      getLog().debug("Unable to read cluster image properties: " + e.getMessage());
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    return properties;
+  }
+
+  /**
+   * Recursively copies a DFS storage tree.
+   *
+   * @param src The tree to copy.
+   * @param dst The destination.
+   * @param linkBlocks Whether finalized block files should be hard-linked instead of copied.
+   * @return The number of files that were hard-linked.
+   * @throws IOException If there is an error.
+   */
+  private static int cloneTree(File src, File dst, boolean linkBlocks) throws IOException {
+    if (!dst.isDirectory() && !dst.mkdirs()) {
+      throw new IOException("Unable to create directory " + dst.getPath());
+    }
+    File[] children = src.listFiles();
+    if (null == children) {
+      throw new IOException("Unable to list directory " + src.getPath());
+    }
+    int linked = 0;
+    for (File child : children) {
+      File target = new File(dst, child.getName());
+      if (child.isDirectory()) {
+        linked += cloneTree(child, target, linkBlocks);
+      } else if ("in_use.lock".equals(child.getName())) {
+        // Storage locks belong to the process that created them.
+        continue;
+      } else if (linkBlocks && isFinalizedBlockFile(child) && tryHardLink(child, target)) {
+        linked++;
+      } else {
+        FileUtils.copyFile(child, target);
+      }
+    }
+    return linked;
+  }
+
+  /**
+   * Determines whether a file is a finalized DataNode block or block metadata file.
+   *
+   * @param file The file to check.
+   * @return Whether the file is immutable block data.
+   */
+  private static boolean isFinalizedBlockFile(File file) {
+    return file.getName().startsWith("blk_")
+        && file.getPath().contains(File.separator + "finalized" + File.separator);
+  }
+
+  /**
+   * Attempts to hard-link a file.
+   *
+   * @param src The existing file.
+   * @param link The link to create.
+   * @return Whether the link was created.
+   */
+  private static boolean tryHardLink(File src, File link) {
+    try {
+      HardLink.createHardLink(src, link);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A named set of configuration overrides for the mini cluster.
+ *
+ * <p>The defaults of Hadoop and HBase are meant for long-running clusters of many hosts.  The
+ * "fast" profile tunes a short-lived cluster on a single host: fewer handler threads, faster
+ * heartbeats and ZooKeeper ticks, no replication, and no background chores like the balancer
+ * and the catalog janitor during a test run.  The "production-like" profile pins the production
+ * defaults, so tests run against the timing a real cluster has.  The "default" profile changes
+ * nothing.</p>
+ *
+ * <p>Profile values are applied before the 'hadoopConfiguration' of the plugin, which can still
+ * override any of them.</p>
+ */
+public enum ClusterProfile {
+  /** No overrides. */
+  DEFAULT(ImmutableMap.<String, String>of()),
+
+  /** Overrides for short-lived single-host clusters. */
+  FAST(ImmutableMap.<String, String>builder()
+      // ZooKeeper: a shorter tick makes session expiry faster.  The server caps sessions at 20
+      // ticks, so the tick must stay at least a twentieth of the session timeout.
+      .put(ClusterProfile.ZOOKEEPER_TICK_TIME_PROPERTY, "1000")
+      .put("zookeeper.session.timeout", "20000")
+      // HBase: a few handlers are plenty for one test client.
+      .put("hbase.regionserver.handler.count", "5")
+      .put("hbase.regionserver.metahandler.count", "2")
+      .put("hbase.master.handler.count", "5")
+      // HBase: report to the master and wake up chores more often, so regions open sooner.
+      .put("hbase.regionserver.msginterval", "1000")
+      .put("hbase.server.thread.wakefrequency", "1000")
+      // HBase: smaller memstores, since every regionserver shares one heap.
+      .put("hbase.hregion.memstore.flush.size", "16777216")
+      // HBase: no balancing or catalog cleanup while tests run.
+      .put("hbase.balancer.period", "3600000")
+      .put("hbase.catalogjanitor.interval", "3600000")
+      // HDFS: one replica, fewer handlers and faster heartbeats and safe mode exit.
+      .put("dfs.replication", "1")
+      .put("dfs.namenode.handler.count", "5")
+      .put("dfs.datanode.handler.count", "3")
+      .put("dfs.heartbeat.interval", "1")
+      .put("dfs.namenode.safemode.extension", "0")
+      .build()),
+
+  /** The production defaults, pinned. */
+  PRODUCTION_LIKE(ImmutableMap.<String, String>builder()
+      .put(ClusterProfile.ZOOKEEPER_TICK_TIME_PROPERTY, "2000")
+      .put("zookeeper.session.timeout", "180000")
+      .put("hbase.regionserver.handler.count", "10")
+      .put("hbase.regionserver.metahandler.count", "10")
+      .put("hbase.master.handler.count", "25")
+      .put("hbase.regionserver.msginterval", "3000")
+      .put("hbase.server.thread.wakefrequency", "10000")
+      .put("hbase.hregion.memstore.flush.size", "134217728")
+      .put("hbase.balancer.period", "300000")
+      .put("hbase.catalogjanitor.interval", "300000")
+      .put("dfs.namenode.handler.count", "10")
+      .put("dfs.datanode.handler.count", "10")
+      .put("dfs.heartbeat.interval", "3")
+      .put("dfs.namenode.safemode.extension", "30000")
+      .build());
+
+  /**
+   * The tick of the mini ZooKeeper server in milliseconds.  The mini ZooKeeper cluster does not
+   * read it on its own; {@link MiniHBaseCluster} passes it to the server.
+   */
+  public static final String ZOOKEEPER_TICK_TIME_PROPERTY = "hbase.zookeeper.property.tickTime";
+
+  /** The property the profile name is recorded in, so clients can tell how the cluster runs. */
+  public static final String PROFILE_PROPERTY = "hbase.maven.plugin.profile";
+
+  /** The configuration overrides of the profile, by property name. */
+  private final Map<String, String> mOverrides;
+
+  /**
+   * Creates a new <code>ClusterProfile</code> instance.
+   *
+   * @param overrides The configuration overrides of the profile.
+   */
+  private ClusterProfile(Map<String, String> overrides) {
+    mOverrides = overrides;
+  }
+
+  /**
+   * Gets the profile of a name, as given in the plugin configuration.
+   *
+   * @param name "fast", "default" or "production-like".
+   * @return The profile.
+   * @throws IllegalArgumentException If there is no such profile.
+   */
+  public static ClusterProfile parse(String name) {
+    for (ClusterProfile profile : values()) {
+      if (profile.getName().equalsIgnoreCase(name.trim())) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException(
+        "profile must be 'fast', 'default' or 'production-like', not '" + name + "'.");
+  }
+
+  /**
+   * Gets the name of the profile, as given in the plugin configuration.
+   *
+   * @return The name.
+   */
+  public String getName() {
+    return name().toLowerCase().replace('_', '-');
+  }
+
+  /**
+   * Gets the configuration overrides of the profile.
+   *
+   * @return The property values, by name.
+   */
+  public Map<String, String> getOverrides() {
+    return mOverrides;
+  }
+
+  /**
+   * Applies the overrides of the profile to a configuration, and records the profile name in
+   * it.  The default profile leaves the configuration untouched.
+   *
+   * @param conf The configuration.
+   */
+  public void apply(Configuration conf) {
+    if (DEFAULT == this) {
+      return;
+    }
+    for (Map.Entry<String, String> override : mOverrides.entrySet()) {
+      conf.set(override.getKey(), override.getValue());
+    }
+    conf.set(PROFILE_PROPERTY, getName());
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+/**
+ * The number of servers of each kind in a mini cluster.
+ *
+ * <p>Each count is given as a number or as "auto".  Automatic counts are sized from the number of
+ * available processors and the maximum heap, because every server of the mini cluster runs in
+ * the same JVM.</p>
+ */
+public final class ClusterSize {
+  /** The count that sizes a server kind automatically. */
+  public static final String AUTO = "auto";
+
+  /** The smallest possible cluster: one server of each kind. */
+  public static final ClusterSize SINGLE = new ClusterSize(1, 1, 1, 1);
+
+  /** The heap one regionserver, datanode or task tracker is assumed to need. */
+  private static final long HEAP_PER_SERVER_BYTES = 128L * 1024L * 1024L;
+
+  /** The largest number of servers of one kind "auto" chooses. */
+  private static final int MAX_AUTO_SERVERS = 8;
+
+  /** The number of datanodes "auto" needs for the default replication factor. */
+  private static final int AUTO_DATANODES = 3;
+
+  /** The number of HBase masters. */
+  private final int mMasters;
+
+  /** The number of HBase regionservers. */
+  private final int mRegionServers;
+
+  /** The number of DFS datanodes. */
+  private final int mDataNodes;
+
+  /** The number of MapReduce task trackers. */
+  private final int mTaskTrackers;
+
+  /**
+   * Creates a new <code>ClusterSize</code> instance.
+   *
+   * @param masters The number of HBase masters.
+   * @param regionServers The number of HBase regionservers.
+   * @param dataNodes The number of DFS datanodes.
+   * @param taskTrackers The number of MapReduce task trackers.
+   */
+  public ClusterSize(int masters, int regionServers, int dataNodes, int taskTrackers) {
+    if (masters < 1 || regionServers < 1 || dataNodes < 1 || taskTrackers < 1) {
+      throw new IllegalArgumentException("A cluster needs at least one server of each kind.");
+    }
+    mMasters = masters;
+    mRegionServers = regionServers;
+    mDataNodes = dataNodes;
+    mTaskTrackers = taskTrackers;
+  }
+
+  /**
+   * Resolves server counts given as numbers or "auto" for this JVM.
+   *
+   * @param masters The number of HBase masters, or "auto".
+   * @param regionServers The number of HBase regionservers, or "auto".
+   * @param dataNodes The number of DFS datanodes, or "auto".
+   * @param taskTrackers The number of MapReduce task trackers, or "auto".
+   * @return The cluster size.
+   */
+  public static ClusterSize resolve(
+      String masters, String regionServers, String dataNodes, String taskTrackers) {
+    Runtime runtime = Runtime.getRuntime();
+    return resolve(masters, regionServers, dataNodes, taskTrackers,
+        runtime.availableProcessors(), runtime.maxMemory());
+  }
+
+  /**
+   * Resolves server counts given as numbers or "auto".
+   *
+   * <p>Automatic counts use one regionserver per two processors, capped by the heap available
+   * for servers, three datanodes (fewer if there are fewer regionservers) and one task tracker
+   * per four processors.  A single master is enough, since backup masters don't take any
+   * load.</p>
+   *
+   * @param masters The number of HBase masters, or "auto".
+   * @param regionServers The number of HBase regionservers, or "auto".
+   * @param dataNodes The number of DFS datanodes, or "auto".
+   * @param taskTrackers The number of MapReduce task trackers, or "auto".
+   * @param processors The number of available processors.
+   * @param maxHeapBytes The maximum heap of the JVM.
+   * @return The cluster size.
+   */
+  static ClusterSize resolve(String masters, String regionServers, String dataNodes,
+      String taskTrackers, int processors, long maxHeapBytes) {
+    // Leave half of the heap to the masters, the NameNode, ZooKeeper and the clients.
+    int heapLimit = (int) Math.max(1L, maxHeapBytes / 2L / HEAP_PER_SERVER_BYTES);
+    int autoRegionServers = Math.min(Math.min(Math.max(1, processors / 2), heapLimit),
+        MAX_AUTO_SERVERS);
+    int resolvedRegionServers = parseCount("regionServers", regionServers, autoRegionServers);
+    return new ClusterSize(
+        parseCount("masters", masters, 1),
+        resolvedRegionServers,
+        parseCount("dataNodes", dataNodes, Math.min(AUTO_DATANODES, resolvedRegionServers)),
+        parseCount("taskTrackers", taskTrackers,
+            Math.min(Math.max(1, processors / 4), heapLimit)));
+  }
+
+  /**
+   * Parses a server count.
+   *
+   * @param name The name of the count, for error messages.
+   * @param value The count, "auto", or null for one server.
+   * @param autoCount The count to use for "auto".
+   * @return The count.
+   */
+  private static int parseCount(String name, String value, int autoCount) {
+    if (null == value) {
+      return 1;
+    }
+    if (AUTO.equalsIgnoreCase(value.trim())) {
+      return autoCount;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          name + " must be a number or '" + AUTO + "', not '" + value + "'.");
+    }
+  }
+
+  /**
+   * Parses a cluster size written by {@link #toString()}.
+   *
+   * @param size The cluster size string.
+   * @return The cluster size.
+   */
+  public static ClusterSize parse(String size) {
+    String[] counts = size.split(",");
+    if (4 != counts.length) {
+      throw new IllegalArgumentException("Invalid cluster size: " + size);
+    }
+    int[] values = new int[counts.length];
+    for (int i = 0; i < counts.length; i++) {
+      values[i] = Integer.parseInt(counts[i].substring(counts[i].indexOf('=') + 1));
+    }
+    return new ClusterSize(values[0], values[1], values[2], values[3]);
+  }
+
+  /**
+   * Gets the number of HBase masters.
+   *
+   * @return The number of masters.
+   */
+  public int getMasters() {
+    return mMasters;
+  }
+
+  /**
+   * Gets the number of HBase regionservers.
+   *
+   * @return The number of regionservers.
+   */
+  public int getRegionServers() {
+    return mRegionServers;
+  }
+
+  /**
+   * Gets the number of DFS datanodes.
+   *
+   * @return The number of datanodes.
+   */
+  public int getDataNodes() {
+    return mDataNodes;
+  }
+
+  /**
+   * Gets the number of MapReduce task trackers.
+   *
+   * @return The number of task trackers.
+   */
+  public int getTaskTrackers() {
+    return mTaskTrackers;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ClusterSize)) {
+      return false;
+    }
+    return toString().equals(other.toString());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "masters=" + mMasters + ",regionServers=" + mRegionServers
+        + ",dataNodes=" + mDataNodes + ",taskTrackers=" + mTaskTrackers;
+  }
+}
@@ -0,0 +1,433 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs the lifecycle actions of cluster components concurrently, respecting the dependencies
+ * between them.
+ *
+ * <p>Each component is an action plus the names of the components it depends on.  A component
+ * runs as soon as all of its dependencies have finished, so independent components (for example
+ * DFS and ZooKeeper) run at the same time.  The time each component takes is logged.  If any
+ * component fails, no further components are scheduled and the first failure is rethrown once
+ * the running components have finished.</p>
+ *
+ * <p>Deadlines may be set for each component and for all of them together.  When a component
+ * overruns, the stacks of all threads are logged, the component is interrupted and forcibly
+ * halted by its halt action, if it has one, and treated as failed.  The orchestrator does not
+ * wait for it any longer, and waits only briefly for its halt action, which runs on a thread of
+ * its own.  Once the overall deadline has passed, components that have not begun
+ * are skipped.</p>
+ */
+public class ComponentOrchestrator extends MavenLogged {
+  /** The default maximum time to wait for the halt actions of overrun components. */
+  private static final long DEFAULT_HALT_TIMEOUT_MILLIS = 10L * 1000L;
+
+  /** A description of what the components are doing, used in log messages and thread names. */
+  private final String mPhase;
+
+  /** The actions of the components, by name, in the order they were added. */
+  private final Map<String, Callable<Void>> mActions;
+
+  /** The names of the components each component depends on. */
+  private final Map<String, List<String>> mDependencies;
+
+  /** How long each component took, in milliseconds, by name. */
+  private final Map<String, Long> mElapsedMillis;
+
+  /** The actions that forcibly halt components that overrun their deadline, by name. */
+  private final Map<String, Runnable> mHaltActions;
+
+  /** The maximum time each component may take in milliseconds, or 0 for no limit. */
+  private long mComponentTimeoutMillis;
+
+  /** The maximum time all components may take together in milliseconds, or 0 for no limit. */
+  private long mOverallTimeoutMillis;
+
+  /** Whether components are still scheduled after a component has failed. */
+  private boolean mContinueAfterFailure;
+
+  /** The maximum time to wait for the halt actions of overrun components, in milliseconds. */
+  private long mHaltTimeoutMillis = DEFAULT_HALT_TIMEOUT_MILLIS;
+
+  /**
+   * Creates a new <code>ComponentOrchestrator</code> instance.
+   *
+   * @param log The maven log.
+   * @param phase What the components are doing, for example "startup".
+   */
+  public ComponentOrchestrator(Log log, String phase) {
+    super(log);
+    mPhase = phase;
+    mActions = new LinkedHashMap<String, Callable<Void>>();
+    mDependencies = new HashMap<String, List<String>>();
+    mElapsedMillis = new LinkedHashMap<String, Long>();
+    mHaltActions = new HashMap<String, Runnable>();
+  }
+
+  /**
+   * Adds a component.
+   *
+   * @param name The name of the component.
+   * @param action The action to run for the component.
+   * @param dependencies The names of previously added components that must finish first.
+   */
+  public void add(String name, Callable<Void> action, String... dependencies) {
+    if (mActions.containsKey(name)) {
+      throw new IllegalArgumentException("Component " + name + " was already added.");
+    }
+    for (String dependency : dependencies) {
+      if (!mActions.containsKey(dependency)) {
+        throw new IllegalArgumentException(
+            "Component " + name + " depends on unknown component " + dependency);
+      }
+    }
+    mActions.put(name, action);
+    mDependencies.put(name, Arrays.asList(dependencies));
+  }
+
+  /**
+   * Sets the action that forcibly halts a component that overruns its deadline.  It is run on a
+   * daemon thread of its own, and abandoned if it does not finish within the halt timeout.
+   *
+   * @param name The name of a previously added component.
+   * @param halt The halt action.
+   */
+  public void setHaltAction(String name, Runnable halt) {
+    if (!mActions.containsKey(name)) {
+      throw new IllegalArgumentException("Unknown component " + name);
+    }
+    mHaltActions.put(name, halt);
+  }
+
+  /**
+   * Sets how long to wait for the halt actions of overrun components.
+   *
+   * @param haltTimeoutMillis The maximum time to wait for all halt actions of an overrun.
+   */
+  void setHaltTimeout(long haltTimeoutMillis) {
+    mHaltTimeoutMillis = haltTimeoutMillis;
+  }
+
+  /**
+   * Sets how long the components may take.
+   *
+   * @param componentTimeoutMillis The maximum time each component may take, or 0 for no limit.
+   * @param overallTimeoutMillis The maximum time all components may take together, or 0 for no
+   *     limit.
+   */
+  public void setDeadlines(long componentTimeoutMillis, long overallTimeoutMillis) {
+    mComponentTimeoutMillis = componentTimeoutMillis;
+    mOverallTimeoutMillis = overallTimeoutMillis;
+  }
+
+  /**
+   * Sets whether components are still scheduled after a component has failed or overrun its
+   * deadline.  A failed component counts as finished for the components that depend on it.  The
+   * first failure is still rethrown once all components have finished.
+   *
+   * @param continueAfterFailure Whether to keep scheduling components after a failure.
+   */
+  public void setContinueAfterFailure(boolean continueAfterFailure) {
+    mContinueAfterFailure = continueAfterFailure;
+  }
+
+  /**
+   * Gets how long each component took.
+   *
+   * @return The elapsed time of each finished component in milliseconds, by name.
+   */
+  public Map<String, Long> getElapsedMillis() {
+    synchronized (mElapsedMillis) {
+      return new LinkedHashMap<String, Long>(mElapsedMillis);
+    }
+  }
+
+  /**
+   * Runs all components and blocks until they have finished or overrun their deadlines.
+   *
+   * @throws Exception The first error thrown by a component, or a TimeoutException if a
+   *     component overran its deadline first.
+   */
+  public void run() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, mActions.size()), new ComponentThreadFactory(mPhase));
+    try {
+      runOn(executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs all components on an executor and blocks until they have finished or overrun their
+   * deadlines.
+   *
+   * @param executor The executor to run component actions on.
+   * @throws Exception The first error thrown by a component.
+   */
+  private void runOn(ExecutorService executor) throws Exception {
+    CompletionService<String> completion = new ExecutorCompletionService<String>(executor);
+    Set<String> pending = new HashSet<String>(mActions.keySet());
+    Set<String> finished = new HashSet<String>();
+    Map<Future<String>, String> running = new HashMap<Future<String>, String>();
+    Map<String, Long> deadlines = new HashMap<String, Long>();
+    long overallDeadline = mOverallTimeoutMillis > 0
+        ? System.currentTimeMillis() + mOverallTimeoutMillis : Long.MAX_VALUE;
+    Throwable failure = null;
+
+    while (!pending.isEmpty() || !running.isEmpty()) {
+      // Schedule every pending component whose dependencies are done.
+      if (System.currentTimeMillis() >= overallDeadline) {
+        if (!pending.isEmpty()) {
+          getLog().warn("Skipping the " + mPhase + " of " + pending
+              + " because the deadline has passed.");
+          pending.clear();
+        }
+      } else if (null == failure || mContinueAfterFailure) {
+        for (String name : mActions.keySet()) {
+          if (pending.contains(name) && finished.containsAll(mDependencies.get(name))) {
+            pending.remove(name);
+            running.put(completion.submit(new TimedAction(name, mActions.get(name))), name);
+            deadlines.put(name, mComponentTimeoutMillis > 0
+                ? System.currentTimeMillis() + mComponentTimeoutMillis : Long.MAX_VALUE);
+          }
+        }
+      } else {
+        pending.clear();
+      }
+      if (running.isEmpty()) {
+        break;
+      }
+
+      // Wait for any running component to finish, or for the next deadline.
+      long deadline = overallDeadline;
+      for (String name : running.values()) {
+        deadline = Math.min(deadline, deadlines.get(name));
+      }
+      Future<String> done = Long.MAX_VALUE == deadline
+          ? completion.take()
+          : completion.poll(Math.max(0L, deadline - System.currentTimeMillis()),
+              TimeUnit.MILLISECONDS);
+      if (null == done) {
+        TimeoutException timeout = haltOverdue(running, deadlines, overallDeadline, finished);
+        if (null == failure) {
+          failure = timeout;
+        }
+        continue;
+      }
+      String name = running.remove(done);
+      if (null == name) {
+        // A component that was halted has finished after all.
+        continue;
+      }
+      finished.add(name);
+      try {
+        done.get();
+      } catch (ExecutionException e) {
+        if (null == failure) {
+          failure = e.getCause();
+        } else {
+          getLog().debug("Additional " + mPhase + " failure: " + e.getCause());
+        }
+      }
+    }
+
+    if (failure instanceof Exception) {
+      throw (Exception) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (null != failure) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  /**
+   * Logs the stacks of all threads, then interrupts and halts the components that have overrun
+   * their deadline.  Halted components are no longer running, and count as finished.
+   *
+   * @param running The names of the running components, by future.
+   * @param deadlines When each component must have finished, in milliseconds since the epoch.
+   * @param overallDeadline When all components must have finished.
+   * @param finished The names of the finished components.
+   * @return The error describing the overrun, or null if no component has overrun yet.
+   */
+  private TimeoutException haltOverdue(Map<Future<String>, String> running,
+      Map<String, Long> deadlines, long overallDeadline, Set<String> finished) {
+    long now = System.currentTimeMillis();
+    Map<Future<String>, String> overdue = new LinkedHashMap<Future<String>, String>();
+    for (Map.Entry<Future<String>, String> component : running.entrySet()) {
+      if (now >= overallDeadline || now >= deadlines.get(component.getValue())) {
+        overdue.put(component.getKey(), component.getValue());
+      }
+    }
+    if (overdue.isEmpty()) {
+      return null;
+    }
+
+    String message = "The " + mPhase + " of " + overdue.values() + " did not finish in time.";
+    getLog().warn(message + "  Halting them.  Thread dump:\n" + formatThreadDump());
+    Map<String, Thread> halts = new LinkedHashMap<String, Thread>();
+    for (Map.Entry<Future<String>, String> component : overdue.entrySet()) {
+      component.getKey().cancel(true);
+      running.remove(component.getKey());
+      finished.add(component.getValue());
+      Runnable halt = mHaltActions.get(component.getValue());
+      if (null != halt) {
+        halts.put(component.getValue(), startHalt(component.getValue(), halt));
+      }
+    }
+
+    // A halt may block on the very component it halts, so it is only waited for briefly.
+    long haltDeadline = System.currentTimeMillis() + mHaltTimeoutMillis;
+    for (Map.Entry<String, Thread> halt : halts.entrySet()) {
+      try {
+        halt.getValue().join(Math.max(1L, haltDeadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (halt.getValue().isAlive()) {
+        getLog().warn("Halting " + halt.getKey() + " did not finish within " + mHaltTimeoutMillis
+            + " ms.  Abandoning it.");
+      }
+    }
+    return new TimeoutException(message);
+  }
+
+  /**
+   * Starts the halt action of a component on a daemon thread.
+   *
+   * @param name The name of the component.
+   * @param halt The halt action.
+   * @return The started thread.
+   */
+  private Thread startHalt(final String name, final Runnable halt) {
+    Thread thread = new Thread(mPhase + "-halt-" + name) {
+      @Override
+      public void run() {
+        try {
+          halt.run();
+        } catch (RuntimeException e) {
+          getLog().warn("Unable to halt " + name + ".", e);
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Formats the stacks of all live threads, like a thread dump of the JVM.
+   *
+   * @return The thread dump.
+   */
+  static String formatThreadDump() {
+    StringBuilder dump = new StringBuilder();
+    for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+      dump.append('"').append(thread.getKey().getName()).append("\" ")
+          .append(thread.getKey().getState()).append('\n');
+      for (StackTraceElement frame : thread.getValue()) {
+        dump.append("    at ").append(frame).append('\n');
+      }
+    }
+    return dump.toString();
+  }
+
+  /** Runs a component action and records how long it took. */
+  private final class TimedAction implements Callable<String> {
+    /** The name of the component. */
+    private final String mName;
+
+    /** The action to run. */
+    private final Callable<Void> mAction;
+
+    /**
+     * Creates a new <code>TimedAction</code> instance.
+     *
+     * @param name The name of the component.
+     * @param action The action to run.
+     */
+    private TimedAction(String name, Callable<Void> action) {
+      mName = name;
+      mAction = action;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String call() throws Exception {
+      getLog().info(mName + " " + mPhase + " began.");
+      long startTime = System.currentTimeMillis();
+      mAction.call();
+      long elapsedMillis = System.currentTimeMillis() - startTime;
+      synchronized (mElapsedMillis) {
+        mElapsedMillis.put(mName, elapsedMillis);
+      }
+      getLog().info(String.format("%s %s finished in %.1f s.",
+          mName, mPhase, elapsedMillis / 1000.0));
+      return mName;
+    }
+  }
+
+  /** Creates named daemon threads for component actions. */
+  private static final class ComponentThreadFactory implements ThreadFactory {
+    /** The prefix of thread names. */
+    private final String mPrefix;
+
+    /** The number of threads created so far. */
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    /**
+     * Creates a new <code>ComponentThreadFactory</code> instance.
+     *
+     * @param phase What the components are doing.
+     */
+    private ComponentThreadFactory(String phase) {
+      mPrefix = "hbase-maven-plugin-" + phase + "-";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, mPrefix + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
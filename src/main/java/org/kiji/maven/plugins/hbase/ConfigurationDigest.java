@@ -0,0 +1,105 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Computes stable digests of Hadoop configurations.
+ *
+ * <p>Iteration order of a {@link Configuration} is not defined, so the entries are sorted by key
+ * before they are hashed.  Two configurations with the same effective properties always produce
+ * the same digest.</p>
+ */
+public final class ConfigurationDigest {
+  /** Disable the constructor for this utility class. */
+  private ConfigurationDigest() {}
+
+  /**
+   * Computes a hex-encoded SHA-1 digest of a configuration and some extra strings.
+   *
+   * @param conf The configuration to digest.
+   * @param extras Extra strings (versions, cluster shape, ...) to mix into the digest.
+   * @return The hex-encoded digest.
+   */
+  public static String digest(Configuration conf, String... extras) {
+    SortedMap<String, String> sorted = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : conf) {
+      sorted.put(entry.getKey(), entry.getValue());
+    }
+
+    MessageDigest digest = newSha1();
+    for (String extra : extras) {
+      update(digest, extra);
+    }
+    for (Map.Entry<String, String> entry : sorted.entrySet()) {
+      update(digest, entry.getKey());
+      update(digest, entry.getValue());
+    }
+    return StringUtils.byteToHexString(digest.digest());
+  }
+
+  /**
+   * Computes a hex-encoded SHA-1 digest of a sequence of strings, in order.
+   *
+   * @param values The strings to digest.
+   * @return The hex-encoded digest.
+   */
+  public static String digest(Iterable<String> values) {
+    MessageDigest digest = newSha1();
+    for (String value : values) {
+      update(digest, value);
+    }
+    return StringUtils.byteToHexString(digest.digest());
+  }
+
+  /**
+   * Adds a string, followed by a separator, to a message digest.
+   *
+   * @param digest The digest to update.
+   * @param value The string to add.  May be null.
+   */
+  private static void update(MessageDigest digest, String value) {
+    if (null != value) {
+      digest.update(value.getBytes(Charsets.UTF_8));
+    }
+    digest.update((byte) 0);
+  }
+
+  /**
+   * Creates a new SHA-1 message digest.
+   *
+   * @return A new message digest.
+   */
+  private static MessageDigest newSha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-1.
+      throw new RuntimeException(e);
+    }
+  }
+}
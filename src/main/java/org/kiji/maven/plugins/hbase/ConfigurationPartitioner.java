@@ -0,0 +1,136 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Splits the properties of a configuration between an HBase site file and a core site file in
+ * a single pass over the configuration.
+ *
+ * <p>A property goes to the HBase site file if its name starts with an HBase prefix ("hbase" by
+ * default), to both files if it starts with a shared prefix, and to the core site file
+ * otherwise.  Shared prefixes win over HBase prefixes.</p>
+ */
+public class ConfigurationPartitioner {
+  /** The default prefix of the properties that go to the HBase site file. */
+  public static final String DEFAULT_HBASE_PREFIX = "hbase";
+
+  /** The name prefixes of the properties that go to the HBase site file. */
+  private final List<String> mHBasePrefixes;
+
+  /** The name prefixes of the properties that go to both site files. */
+  private final List<String> mSharedPrefixes;
+
+  /** The properties of a configuration, split between the two site files. */
+  public static final class Partition {
+    /** The properties of the HBase site file, by name. */
+    private final SortedMap<String, String> mHBaseProperties = new TreeMap<String, String>();
+
+    /** The properties of the core site file, by name. */
+    private final SortedMap<String, String> mCoreProperties = new TreeMap<String, String>();
+
+    /**
+     * Gets the properties of the HBase site file.
+     *
+     * @return The raw property values, by name.
+     */
+    public SortedMap<String, String> getHBaseProperties() {
+      return mHBaseProperties;
+    }
+
+    /**
+     * Gets the properties of the core site file.
+     *
+     * @return The raw property values, by name.
+     */
+    public SortedMap<String, String> getCoreProperties() {
+      return mCoreProperties;
+    }
+  }
+
+  /**
+   * Creates a new <code>ConfigurationPartitioner</code> instance with the default rules: only
+   * "hbase" properties go to the HBase site file, and nothing is shared.
+   */
+  public ConfigurationPartitioner() {
+    this(null, null);
+  }
+
+  /**
+   * Creates a new <code>ConfigurationPartitioner</code> instance.
+   *
+   * @param hbasePrefixes The name prefixes of the properties that go to the HBase site file, or
+   *     null or empty for just "hbase".
+   * @param sharedPrefixes The name prefixes of the properties that go to both site files, or
+   *     null for none.
+   */
+  public ConfigurationPartitioner(List<String> hbasePrefixes, List<String> sharedPrefixes) {
+    mHBasePrefixes = null == hbasePrefixes || hbasePrefixes.isEmpty()
+        ? Collections.singletonList(DEFAULT_HBASE_PREFIX)
+        : new ArrayList<String>(hbasePrefixes);
+    mSharedPrefixes = null == sharedPrefixes
+        ? Collections.<String>emptyList()
+        : new ArrayList<String>(sharedPrefixes);
+  }
+
+  /**
+   * Splits the properties of a configuration.
+   *
+   * @param conf The configuration.
+   * @return The properties of each site file.
+   */
+  public Partition partition(Configuration conf) {
+    Partition partition = new Partition();
+    for (Map.Entry<String, String> entry : conf) {
+      String name = entry.getKey();
+      if (startsWithAny(name, mSharedPrefixes)) {
+        partition.mHBaseProperties.put(name, entry.getValue());
+        partition.mCoreProperties.put(name, entry.getValue());
+      } else if (startsWithAny(name, mHBasePrefixes)) {
+        partition.mHBaseProperties.put(name, entry.getValue());
+      } else {
+        partition.mCoreProperties.put(name, entry.getValue());
+      }
+    }
+    return partition;
+  }
+
+  /**
+   * Determines whether a name starts with any of some prefixes.
+   *
+   * @param name The name.
+   * @param prefixes The prefixes.
+   * @return Whether the name has one of the prefixes.
+   */
+  private static boolean startsWithAny(String name, List<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A data file to bulk load into a table, given in the plugin configuration as:
+ *
+ * <pre>
+ *   &lt;fixtures&gt;
+ *     &lt;fixture&gt;
+ *       &lt;table&gt;users&lt;/table&gt;
+ *       &lt;file&gt;src/it/fixtures/users.tsv&lt;/file&gt;
+ *       &lt;columns&gt;&lt;column&gt;info:name&lt;/column&gt;&lt;/columns&gt;
+ *     &lt;/fixture&gt;
+ *   &lt;/fixtures&gt;
+ * </pre>
+ *
+ * <p>Each line of a "tsv" or "csv" file is a row: the first field is the row key, and the
+ * following fields are the values of the columns, in order.  Empty fields are skipped.  Fields
+ * are not quoted.  Row keys may contain \xNN escapes.  If the columns are not given, they are
+ * read from the first line of the file.</p>
+ *
+ * <p>The values of a "sequencefile" are KeyValues or Results, for example written by HBase's
+ * Export job.  Their keys are ignored.</p>
+ */
+public class Fixture {
+  /** The format of tab separated files. */
+  public static final String TSV = "tsv";
+
+  /** The format of comma separated files. */
+  public static final String CSV = "csv";
+
+  /** The format of Hadoop sequence files. */
+  public static final String SEQUENCE_FILE = "sequencefile";
+
+  /** The name of the table to load the file into. */
+  private String mTable;
+
+  /** The data file. */
+  private File mFile;
+
+  /** The format of the file, or null to choose one from its extension. */
+  private String mFormat;
+
+  /** The columns of the fields that follow the row key, as family:qualifier. */
+  private List<String> mColumns = new ArrayList<String>();
+
+  /**
+   * Gets the name of the table to load the file into.
+   *
+   * @return The table name.
+   */
+  public String getTable() {
+    return mTable;
+  }
+
+  /**
+   * Sets the name of the table to load the file into.
+   *
+   * @param table The table name.
+   */
+  public void setTable(String table) {
+    mTable = table;
+  }
+
+  /**
+   * Gets the data file.
+   *
+   * @return The data file.
+   */
+  public File getFile() {
+    return mFile;
+  }
+
+  /**
+   * Sets the data file.
+   *
+   * @param file The data file.
+   */
+  public void setFile(File file) {
+    mFile = file;
+  }
+
+  /**
+   * Gets the format of the file.  Unless set, it is chosen from the extension of the file:
+   * ".csv" files are comma separated, ".seq" files are sequence files, and all other files are
+   * tab separated.
+   *
+   * @return "tsv", "csv" or "sequencefile".
+   */
+  public String getFormat() {
+    if (null != mFormat) {
+      return mFormat.toLowerCase();
+    }
+    String name = mFile.getName().toLowerCase();
+    if (name.endsWith(".csv")) {
+      return CSV;
+    }
+    if (name.endsWith(".seq")) {
+      return SEQUENCE_FILE;
+    }
+    return TSV;
+  }
+
+  /**
+   * Sets the format of the file.
+   *
+   * @param format "tsv", "csv" or "sequencefile".
+   */
+  public void setFormat(String format) {
+    mFormat = format;
+  }
+
+  /**
+   * Gets the columns of the fields that follow the row key.
+   *
+   * @return The columns as family:qualifier, or an empty list to read them from the file.
+   */
+  public List<String> getColumns() {
+    return mColumns;
+  }
+
+  /**
+   * Sets the columns of the fields that follow the row key.
+   *
+   * @param columns The columns as family:qualifier.
+   */
+  public void setColumns(List<String> columns) {
+    mColumns = columns;
+  }
+}
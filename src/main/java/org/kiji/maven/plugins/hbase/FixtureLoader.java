@@ -0,0 +1,450 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Bulk loads fixture files into the tables of a running cluster.
+ *
+ * <p>The cells of a fixture are partitioned by the regions of its table, and the HFiles of the
+ * regions are written in parallel.  Since every HFile fits in one region, the bulk load only
+ * moves the files into place: the cells never go through the write-ahead log or a memstore.</p>
+ *
+ * <p>The cells of a fixture are held in memory while its HFiles are written, which is fine for
+ * the reference data sets of integration tests.</p>
+ */
+public class FixtureLoader extends MavenLogged {
+  /** The configuration used to connect to the cluster. */
+  private final Configuration mConf;
+
+  /** The number of rows loaded so far. */
+  private long mRows;
+
+  /** The number of HFile bytes loaded so far. */
+  private long mBytes;
+
+  /**
+   * Creates a new <code>FixtureLoader</code> instance.
+   *
+   * @param log The maven log.
+   * @param conf The configuration of the cluster to load the fixtures into.
+   */
+  public FixtureLoader(Log log, Configuration conf) {
+    super(log);
+    mConf = conf;
+  }
+
+  /**
+   * Gets the tables fixtures load into.
+   *
+   * @param fixtures The fixtures.
+   * @return The names of their tables, in the order they first appear.
+   */
+  public static Set<String> getTables(List<Fixture> fixtures) {
+    Set<String> tables = new LinkedHashSet<String>();
+    for (Fixture fixture : fixtures) {
+      if (null != fixture.getTable()) {
+        tables.add(fixture.getTable());
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Loads fixtures into their tables, which must exist.
+   *
+   * @param fixtures The fixtures to load.
+   * @throws IOException If a fixture cannot be loaded.
+   */
+  public void load(List<Fixture> fixtures) throws IOException {
+    long startTime = System.currentTimeMillis();
+    long rows = mRows;
+    long bytes = mBytes;
+    for (Fixture fixture : fixtures) {
+      load(fixture);
+    }
+    report("Loaded " + fixtures.size() + " fixtures", mRows - rows, mBytes - bytes,
+        System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Loads a fixture into its table.
+   *
+   * @param fixture The fixture to load.
+   * @throws IOException If the fixture cannot be loaded.
+   */
+  public void load(Fixture fixture) throws IOException {
+    if (null == fixture.getTable() || null == fixture.getFile()) {
+      throw new IOException("Every fixture needs a table and a file.");
+    }
+    long startTime = System.currentTimeMillis();
+    HTable table = new HTable(mConf, fixture.getTable());
+    try {
+      byte[][] startKeys = table.getStartKeys();
+      HTableDescriptor descriptor = table.getTableDescriptor();
+      List<List<KeyValue>> regions = new ArrayList<List<KeyValue>>();
+      for (int i = 0; i < startKeys.length; i++) {
+        regions.add(new ArrayList<KeyValue>());
+      }
+      long rows;
+      if (Fixture.SEQUENCE_FILE.equals(fixture.getFormat())) {
+        rows = readSequenceFile(fixture, descriptor, startKeys, regions);
+      } else {
+        rows = readTextFile(fixture, descriptor, startKeys, regions);
+      }
+
+      FileSystem fs = FileSystem.get(mConf);
+      Path stagingDir = fs.makeQualified(new Path(fs.getHomeDirectory(),
+          "hbase-maven-plugin-seed/" + fixture.getTable() + "-" + startTime));
+      try {
+        long bytes = writeHFiles(fs, stagingDir, descriptor, regions);
+        LoadIncrementalHFiles loader;
+        try {
+          loader = new LoadIncrementalHFiles(mConf);
+        } catch (Exception e) {
+          throw new IOException("Unable to create a bulk loader.", e);
+        }
+        loader.doBulkLoad(stagingDir, table);
+        mRows += rows;
+        mBytes += bytes;
+        report("Loaded " + fixture.getFile().getName() + " into " + fixture.getTable(),
+            rows, bytes, System.currentTimeMillis() - startTime);
+      } finally {
+        fs.delete(stagingDir, true);
+      }
+    } finally {
+      table.close();
+    }
+  }
+
+  /**
+   * Logs the throughput of a load.
+   *
+   * @param what What was loaded.
+   * @param rows The number of rows loaded.
+   * @param bytes The number of HFile bytes loaded.
+   * @param elapsedMillis The time the load took.
+   */
+  private void report(String what, long rows, long bytes, long elapsedMillis) {
+    long millis = Math.max(1L, elapsedMillis);
+    getLog().info(what + ": " + rows + " rows, " + bytes + " bytes in " + elapsedMillis + " ms ("
+        + (rows * 1000L / millis) + " rows/sec, " + (bytes * 1000L / millis / 1024L)
+        + " KB/sec).");
+  }
+
+  /**
+   * Reads the cells of a tab or comma separated fixture.
+   *
+   * @param fixture The fixture.
+   * @param descriptor The descriptor of the fixture's table.
+   * @param startKeys The start keys of the regions of the table.
+   * @param regions Receives the cells of each region.
+   * @return The number of rows read.
+   * @throws IOException If the fixture cannot be read.
+   */
+  private long readTextFile(Fixture fixture, HTableDescriptor descriptor, byte[][] startKeys,
+      List<List<KeyValue>> regions) throws IOException {
+    char separator = Fixture.CSV.equals(fixture.getFormat()) ? ',' : '\t';
+    long timestamp = System.currentTimeMillis();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(fixture.getFile()), Charsets.UTF_8));
+    try {
+      List<String> columns = fixture.getColumns();
+      String line = reader.readLine();
+      if (columns.isEmpty() && null != line) {
+        // The first line names the columns.
+        List<String> header = split(line, separator);
+        columns = header.subList(1, header.size());
+        line = reader.readLine();
+      }
+      byte[][] families = new byte[columns.size()][];
+      byte[][] qualifiers = new byte[columns.size()][];
+      for (int i = 0; i < columns.size(); i++) {
+        byte[][] column = KeyValue.parseColumn(Bytes.toBytes(columns.get(i)));
+        families[i] = column[0];
+        qualifiers[i] = 2 == column.length ? column[1] : new byte[0];
+        checkFamily(descriptor, families[i]);
+      }
+
+      long rows = 0;
+      for (; null != line; line = reader.readLine()) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        List<KeyValue> cells = parseLine(line, separator, families, qualifiers, timestamp);
+        if (!cells.isEmpty()) {
+          regions.get(getRegion(startKeys, cells.get(0).getRow())).addAll(cells);
+        }
+        rows++;
+      }
+      return rows;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the cells of a sequence file fixture.
+   *
+   * @param fixture The fixture.
+   * @param descriptor The descriptor of the fixture's table.
+   * @param startKeys The start keys of the regions of the table.
+   * @param regions Receives the cells of each region.
+   * @return The number of rows read.
+   * @throws IOException If the fixture cannot be read.
+   */
+  private long readSequenceFile(Fixture fixture, HTableDescriptor descriptor, byte[][] startKeys,
+      List<List<KeyValue>> regions) throws IOException {
+    SequenceFile.Reader reader = new SequenceFile.Reader(FileSystem.getLocal(mConf),
+        new Path(fixture.getFile().getAbsolutePath()), mConf);
+    try {
+      Writable key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), mConf);
+      Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), mConf);
+      long rows = 0;
+      byte[] lastRow = null;
+      while (reader.next(key, value)) {
+        List<KeyValue> cells;
+        if (value instanceof KeyValue) {
+          // The reader reuses the value, so keep a copy.
+          cells = Collections.singletonList(((KeyValue) value).clone());
+        } else if (value instanceof Result) {
+          cells = Arrays.asList(((Result) value).raw());
+        } else {
+          throw new IOException("The values of " + fixture.getFile()
+              + " must be KeyValues or Results, not " + reader.getValueClass().getName());
+        }
+        for (KeyValue cell : cells) {
+          checkFamily(descriptor, cell.getFamily());
+          if (null == lastRow || !Bytes.equals(lastRow, cell.getRow())) {
+            lastRow = cell.getRow();
+            rows++;
+          }
+          regions.get(getRegion(startKeys, cell.getRow())).add(cell);
+        }
+      }
+      return rows;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Checks that a table has a family.
+   *
+   * @param descriptor The descriptor of the table.
+   * @param family The name of the family.
+   * @throws IOException If the table has no such family.
+   */
+  private static void checkFamily(HTableDescriptor descriptor, byte[] family)
+      throws IOException {
+    if (!descriptor.hasFamily(family)) {
+      throw new IOException("Table " + descriptor.getNameAsString() + " has no family "
+          + Bytes.toString(family));
+    }
+  }
+
+  /**
+   * Writes the HFiles of the regions of a table in parallel, one per region and family.
+   *
+   * @param fs The filesystem to write the HFiles to.
+   * @param stagingDir The directory to write the HFiles to, in a subdirectory per family.
+   * @param descriptor The descriptor of the table.
+   * @param regions The cells of each region.
+   * @return The total size of the HFiles.
+   * @throws IOException If an HFile cannot be written.
+   */
+  private long writeHFiles(final FileSystem fs, final Path stagingDir,
+      final HTableDescriptor descriptor, List<List<KeyValue>> regions) throws IOException {
+    // Don't let the writers use the block cache of the regionservers in this JVM.
+    final Configuration conf = new Configuration(mConf);
+    conf.setFloat("hfile.block.cache.size", 0.0f);
+    int threads = Math.max(1,
+        Math.min(regions.size(), Runtime.getRuntime().availableProcessors()));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Long>> results = new ArrayList<Future<Long>>();
+      for (final List<KeyValue> cells : regions) {
+        if (cells.isEmpty()) {
+          continue;
+        }
+        results.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            return writeHFiles(conf, fs, stagingDir, descriptor, cells);
+          }
+        }));
+      }
+      long bytes = 0;
+      for (Future<Long> result : results) {
+        bytes += result.get();
+      }
+      return bytes;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted writing HFiles.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to write HFiles.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Writes the HFiles of one region, one per family.
+   *
+   * @param conf The configuration to write the HFiles with.
+   * @param fs The filesystem to write the HFiles to.
+   * @param stagingDir The directory to write the HFiles to, in a subdirectory per family.
+   * @param descriptor The descriptor of the table.
+   * @param cells The cells of the region.
+   * @return The total size of the HFiles.
+   * @throws IOException If an HFile cannot be written.
+   */
+  private static long writeHFiles(Configuration conf, FileSystem fs, Path stagingDir,
+      HTableDescriptor descriptor, List<KeyValue> cells) throws IOException {
+    Collections.sort(cells, KeyValue.COMPARATOR);
+    CacheConfig cacheConf = new CacheConfig(conf);
+    Map<String, StoreFile.Writer> writers = new HashMap<String, StoreFile.Writer>();
+    try {
+      for (KeyValue cell : cells) {
+        String familyName = Bytes.toString(cell.getFamily());
+        StoreFile.Writer writer = writers.get(familyName);
+        if (null == writer) {
+          HColumnDescriptor family = descriptor.getFamily(cell.getFamily());
+          writer = new StoreFile.WriterBuilder(conf, cacheConf, fs, family.getBlocksize())
+              .withOutputDir(new Path(stagingDir, familyName))
+              .withCompression(family.getCompression())
+              .withBloomType(family.getBloomFilterType())
+              .withComparator(KeyValue.COMPARATOR)
+              .build();
+          writers.put(familyName, writer);
+        }
+        writer.append(cell);
+      }
+    } finally {
+      for (StoreFile.Writer writer : writers.values()) {
+        writer.appendFileInfo(
+            StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+        writer.appendTrackedTimestampsToMetadata();
+        writer.close();
+      }
+    }
+    long bytes = 0;
+    for (StoreFile.Writer writer : writers.values()) {
+      bytes += fs.getFileStatus(writer.getPath()).getLen();
+    }
+    return bytes;
+  }
+
+  /**
+   * Parses a line of a tab or comma separated fixture.
+   *
+   * @param line The line.
+   * @param separator The field separator.
+   * @param families The families of the fields that follow the row key.
+   * @param qualifiers The qualifiers of the fields that follow the row key.
+   * @param timestamp The timestamp of the cells.
+   * @return The cells of the row, without cells for empty fields.
+   * @throws IOException If the line has more fields than there are columns.
+   */
+  static List<KeyValue> parseLine(String line, char separator, byte[][] families,
+      byte[][] qualifiers, long timestamp) throws IOException {
+    List<String> fields = split(line, separator);
+    if (fields.size() - 1 > families.length) {
+      throw new IOException("Line has " + (fields.size() - 1) + " values but there are only "
+          + families.length + " columns: " + line);
+    }
+    byte[] row = Bytes.toBytesBinary(fields.get(0));
+    List<KeyValue> cells = new ArrayList<KeyValue>(fields.size() - 1);
+    for (int i = 1; i < fields.size(); i++) {
+      if (!fields.get(i).isEmpty()) {
+        cells.add(new KeyValue(row, families[i - 1], qualifiers[i - 1], timestamp,
+            Bytes.toBytes(fields.get(i))));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Splits a line into fields.
+   *
+   * @param line The line.
+   * @param separator The field separator.
+   * @return The fields, including empty ones.
+   */
+  private static List<String> split(String line, char separator) {
+    List<String> fields = new ArrayList<String>();
+    int start = 0;
+    for (int end = line.indexOf(separator); end >= 0; end = line.indexOf(separator, start)) {
+      fields.add(line.substring(start, end));
+      start = end + 1;
+    }
+    fields.add(line.substring(start));
+    return fields;
+  }
+
+  /**
+   * Finds the region a row belongs to.
+   *
+   * @param startKeys The sorted start keys of the regions, the first of which is empty.
+   * @param row The row key.
+   * @return The index of the region.
+   */
+  static int getRegion(byte[][] startKeys, byte[] row) {
+    int index = Arrays.binarySearch(startKeys, row, Bytes.BYTES_COMPARATOR);
+    return index >= 0 ? index : -index - 2;
+  }
+}
@@ -0,0 +1,437 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Measures how long mini clusters of different configurations take to start and stop.
+ *
+ * <p>Each variant is started and stopped a number of times in a row.  The first start of a
+ * variant is its cold start; the median of the later ones is its warm start, once the JVM has
+ * loaded and compiled the code the variant uses.  The peak heap use and thread count of each
+ * variant are recorded as well.</p>
+ *
+ * <p>Optionally, a write probe measures the write throughput of each running variant, for
+ * example to compare durable and non-durable writes.</p>
+ */
+public class LifecycleBenchmark extends MavenLogged {
+  /** The table the write probe writes to. */
+  private static final String WRITE_PROBE_TABLE = "hbase_maven_plugin_write_probe";
+
+  /** The family the write probe writes to. */
+  private static final String WRITE_PROBE_FAMILY = "f";
+
+  /** The size of the values the write probe writes. */
+  private static final int WRITE_PROBE_VALUE_BYTES = 100;
+
+  /** The client write buffer of the write probe, small enough to send many batches. */
+  private static final long WRITE_PROBE_BUFFER_BYTES = 64L * 1024L;
+
+  /** The directory the variants keep their data in. */
+  private final File mWorkDir;
+
+  /** The number of rows the write probe writes, or 0 to skip it. */
+  private int mWriteRows;
+
+  /** The measurements of one variant. */
+  public static final class Result {
+    /** The name of the variant. */
+    private final String mVariant;
+
+    /** How long each start took, in milliseconds. */
+    private final List<Long> mStartMillis = new ArrayList<Long>();
+
+    /** How long each stop took, in milliseconds. */
+    private final List<Long> mStopMillis = new ArrayList<Long>();
+
+    /** The write throughput of each iteration, in rows per second. */
+    private final List<Long> mWriteRowsPerSecond = new ArrayList<Long>();
+
+    /** The most heap used by any iteration, in bytes. */
+    private long mPeakHeapBytes;
+
+    /** The most live threads of any iteration. */
+    private int mPeakThreads;
+
+    /** Why the variant could not be measured, or null. */
+    private String mError;
+
+    /**
+     * Creates a new <code>Result</code> instance.
+     *
+     * @param variant The name of the variant.
+     */
+    Result(String variant) {
+      mVariant = variant;
+    }
+
+    /**
+     * Adds the measurements of one start and stop.
+     *
+     * @param startMillis How long the start took.
+     * @param stopMillis How long the stop took.
+     * @param peakHeapBytes The most heap used while the cluster ran.
+     * @param peakThreads The most live threads while the cluster ran.
+     */
+    void addIteration(long startMillis, long stopMillis, long peakHeapBytes, int peakThreads) {
+      mStartMillis.add(startMillis);
+      mStopMillis.add(stopMillis);
+      mPeakHeapBytes = Math.max(mPeakHeapBytes, peakHeapBytes);
+      mPeakThreads = Math.max(mPeakThreads, peakThreads);
+    }
+
+    /**
+     * Adds the write throughput of one iteration.
+     *
+     * @param rowsPerSecond The write throughput in rows per second.
+     */
+    void addWriteRate(long rowsPerSecond) {
+      mWriteRowsPerSecond.add(rowsPerSecond);
+    }
+
+    /**
+     * Records why the variant could not be measured.
+     *
+     * @param error The error.
+     */
+    void setError(String error) {
+      mError = error;
+    }
+
+    /**
+     * Gets the name of the variant.
+     *
+     * @return The name.
+     */
+    public String getVariant() {
+      return mVariant;
+    }
+
+    /**
+     * Gets how long the first start took.
+     *
+     * @return The cold start time in milliseconds, or -1 if the variant never started.
+     */
+    public long getColdStartMillis() {
+      return mStartMillis.isEmpty() ? -1L : mStartMillis.get(0);
+    }
+
+    /**
+     * Gets the median time of the starts after the first.
+     *
+     * @return The warm start time in milliseconds, or -1 if the variant started at most once.
+     */
+    public long getWarmStartMillis() {
+      return median(mStartMillis.subList(Math.min(1, mStartMillis.size()), mStartMillis.size()));
+    }
+
+    /**
+     * Gets the median time of the stops.
+     *
+     * @return The stop time in milliseconds, or -1 if the variant never stopped.
+     */
+    public long getStopMillis() {
+      return median(mStopMillis);
+    }
+
+    /**
+     * Gets the median write throughput.
+     *
+     * @return The write throughput in rows per second, or -1 if it was not measured.
+     */
+    public long getWriteRowsPerSecond() {
+      return median(mWriteRowsPerSecond);
+    }
+
+    /**
+     * Gets the most heap used by any iteration.
+     *
+     * @return The peak heap use in bytes.
+     */
+    public long getPeakHeapBytes() {
+      return mPeakHeapBytes;
+    }
+
+    /**
+     * Gets the most live threads of any iteration.
+     *
+     * @return The peak thread count.
+     */
+    public int getPeakThreads() {
+      return mPeakThreads;
+    }
+
+    /**
+     * Gets why the variant could not be measured.
+     *
+     * @return The error, or null if every iteration succeeded.
+     */
+    public String getError() {
+      return mError;
+    }
+  }
+
+  /**
+   * Creates a new <code>LifecycleBenchmark</code> instance.
+   *
+   * @param log The maven log.
+   * @param workDir The directory the variants keep their data in.  It is cleared first.
+   */
+  public LifecycleBenchmark(Log log, File workDir) {
+    super(log);
+    mWorkDir = workDir.getAbsoluteFile();
+  }
+
+  /**
+   * Sets the number of rows the write probe writes to each running variant.
+   *
+   * @param writeRows The number of rows, or 0 to skip the write probe.
+   */
+  public void setWriteRows(int writeRows) {
+    mWriteRows = writeRows;
+  }
+
+  /**
+   * Starts and stops every variant a number of times.  A variant that fails to start or stop is
+   * reported in its result, and the remaining variants are still measured.
+   *
+   * @param variants The variants to measure.
+   * @param iterations How many times to start and stop each variant.
+   * @return The measurements of each variant, in order.
+   * @throws IOException If the work directory cannot be cleared.
+   */
+  public List<Result> run(List<BenchmarkVariant> variants, int iterations) throws IOException {
+    List<Result> results = new ArrayList<Result>();
+    for (BenchmarkVariant variant : variants) {
+      Result result = new Result(variant.getName());
+      File variantDir = new File(mWorkDir, StartMojo.getClusterDirName(variant.getName()));
+      FileUtils.deleteDirectory(variantDir);
+      for (int i = 0; i < iterations; i++) {
+        getLog().info("Benchmarking " + variant.getName() + ", iteration " + (i + 1)
+            + " of " + iterations + "...");
+        try {
+          measure(variant, new File(variantDir, Integer.toString(i)), result);
+        } catch (Exception e) {
+          getLog().warn("Benchmark variant " + variant.getName() + " failed.", e);
+          result.setError(e.toString());
+          break;
+        }
+      }
+      FileUtils.deleteQuietly(variantDir);
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Starts and stops a variant once.
+   *
+   * @param variant The variant.
+   * @param dataDir The directory to keep the cluster's data in.
+   * @param result The result to add the measurements to.
+   * @throws Exception If the cluster cannot be started or stopped.
+   */
+  private void measure(BenchmarkVariant variant, File dataDir, Result result) throws Exception {
+    Configuration conf = new Configuration();
+    ClusterProfile.parse(variant.getProfile()).apply(conf);
+    if (variant.isNonDurableWrites()) {
+      WriteDurability.disable(conf);
+    }
+    for (Map.Entry<Object, Object> property : variant.getHadoopConfiguration().entrySet()) {
+      conf.set(property.getKey().toString(), property.getValue().toString());
+    }
+    conf.set("hadoop.tmp.dir", new File(dataDir, "hadoop-tmp").getPath());
+    MiniHBaseCluster cluster = new MiniHBaseCluster(getLog(), variant.isMapReduce(), conf);
+    cluster.setClusterSize(new ClusterSize(1, variant.getRegionServers(), 1, 1));
+    if (variant.isLocalStorage()) {
+      cluster.setLocalStorage(new File(new File(dataDir, "local"), "hbase"));
+    }
+
+    // Start every iteration from the same heap and thread baseline.
+    System.gc();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (MemoryType.HEAP == pool.getType() && pool.isValid()) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+
+    long startTime = System.currentTimeMillis();
+    cluster.startup();
+    long startMillis = System.currentTimeMillis() - startTime;
+    if (mWriteRows > 0) {
+      try {
+        result.addWriteRate(probeWrites(cluster.getConfiguration()));
+      } catch (IOException e) {
+        cluster.shutdown();
+        throw e;
+      }
+    }
+    long stopTime = System.currentTimeMillis();
+    cluster.shutdown();
+    long stopMillis = System.currentTimeMillis() - stopTime;
+
+    // The pools peak at different times, so their sum is an upper bound of the peak heap use.
+    long peakHeapBytes = 0L;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeapBytes += pool.getPeakUsage().getUsed();
+    }
+    result.addIteration(startMillis, stopMillis, peakHeapBytes, threads.getPeakThreadCount());
+  }
+
+  /**
+   * Writes rows to a new table of a running cluster.
+   *
+   * @param conf The configuration of the cluster.
+   * @return The write throughput in rows per second.
+   * @throws IOException If the rows cannot be written.
+   */
+  private long probeWrites(Configuration conf) throws IOException {
+    Table table = new Table();
+    table.setName(WRITE_PROBE_TABLE);
+    table.setFamilies(Collections.singletonList(WRITE_PROBE_FAMILY));
+    new TableProvisioner(getLog(), conf).createTables(Collections.singletonList(table), 0L);
+
+    byte[] family = Bytes.toBytes(WRITE_PROBE_FAMILY);
+    byte[] qualifier = Bytes.toBytes("q");
+    byte[] value = new byte[WRITE_PROBE_VALUE_BYTES];
+    HTable htable = new HTable(conf, WRITE_PROBE_TABLE);
+    try {
+      htable.setAutoFlush(false);
+      htable.setWriteBufferSize(WRITE_PROBE_BUFFER_BYTES);
+      long startTime = System.currentTimeMillis();
+      for (int i = 0; i < mWriteRows; i++) {
+        Put put = new Put(Bytes.toBytes(String.format("row%010d", i)));
+        put.add(family, qualifier, value);
+        htable.put(put);
+      }
+      htable.flushCommits();
+      long rowsPerSecond =
+          mWriteRows * 1000L / Math.max(1L, System.currentTimeMillis() - startTime);
+      getLog().info("Wrote " + mWriteRows + " rows at " + rowsPerSecond + " rows/s.");
+      return rowsPerSecond;
+    } finally {
+      htable.close();
+    }
+  }
+
+  /**
+   * Formats results as a table for the log.
+   *
+   * @param results The results.
+   * @return The lines of the table.
+   */
+  static List<String> formatTable(List<Result> results) {
+    String format = "%-24s %11s %11s %9s %10s %8s %9s";
+    List<String> lines = new ArrayList<String>();
+    lines.add(String.format(format, "Variant", "Cold start", "Warm start", "Stop", "Peak heap",
+        "Threads", "Writes/s"));
+    for (Result result : results) {
+      long writeRate = result.getWriteRowsPerSecond();
+      lines.add(String.format(format, result.getVariant(),
+          formatSeconds(result.getColdStartMillis()), formatSeconds(result.getWarmStartMillis()),
+          formatSeconds(result.getStopMillis()),
+          result.getPeakHeapBytes() / (1024L * 1024L) + " MB", result.getPeakThreads(),
+          writeRate < 0 ? "-" : Long.toString(writeRate)));
+      if (null != result.getError()) {
+        lines.add("  " + result.getVariant() + " failed: " + result.getError());
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Writes results as JSON.
+   *
+   * @param resultsFile The file to write.
+   * @param results The results.
+   * @throws IOException If the file cannot be written.
+   */
+  static void writeResults(File resultsFile, List<Result> results) throws IOException {
+    StringBuilder json = new StringBuilder("{\n  \"variants\": [");
+    String separator = "\n";
+    for (Result result : results) {
+      json.append(separator)
+          .append("    {\"name\": \"").append(StartupTimer.escape(result.getVariant()))
+          .append("\", \"coldStartMillis\": ").append(result.getColdStartMillis())
+          .append(", \"warmStartMillis\": ").append(result.getWarmStartMillis())
+          .append(", \"stopMillis\": ").append(result.getStopMillis())
+          .append(", \"peakHeapBytes\": ").append(result.getPeakHeapBytes())
+          .append(", \"peakThreads\": ").append(result.getPeakThreads())
+          .append(", \"writeRowsPerSecond\": ").append(result.getWriteRowsPerSecond())
+          .append(", \"startMillisAll\": ").append(result.mStartMillis)
+          .append(", \"stopMillisAll\": ").append(result.mStopMillis)
+          .append(", \"error\": ");
+      if (null == result.getError()) {
+        json.append("null");
+      } else {
+        json.append('"').append(StartupTimer.escape(result.getError())).append('"');
+      }
+      json.append("}");
+      separator = ",\n";
+    }
+    json.append("\n  ]\n}\n");
+    FileUtils.writeStringToFile(resultsFile, json.toString(), Charsets.UTF_8.name());
+  }
+
+  /**
+   * Computes the median of some times.
+   *
+   * @param times The times.
+   * @return The median, or -1 if there are no times.
+   */
+  static long median(List<Long> times) {
+    if (times.isEmpty()) {
+      return -1L;
+    }
+    List<Long> sorted = new ArrayList<Long>(times);
+    Collections.sort(sorted);
+    return sorted.get((sorted.size() - 1) / 2);
+  }
+
+  /**
+   * Formats a time in seconds.
+   *
+   * @param millis The time in milliseconds, or -1.
+   * @return The time in seconds, or "-" if there is none.
+   */
+  private static String formatSeconds(long millis) {
+    return millis < 0 ? "-" : String.format("%.1f s", millis / 1000.0);
+  }
+}
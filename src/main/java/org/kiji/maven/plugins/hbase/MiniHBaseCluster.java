@@ -17,19 +17,61 @@
 
 package org.kiji.maven.plugins.hbase;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.master.HMaster;
+import org.apache.hadoop.hbase.master.ServerManager;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.JVMClusterUtil;
+import org.apache.hadoop.hbase.zookeeper.MiniZooKeeperCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * A in-process mini HBase cluster that may be started and stopped.
  */
 public class MiniHBaseCluster extends MavenLogged {
+  /**
+   * The system property MiniDFSCluster reads its base directory from.  It is process-wide, so
+   * reads and writes of it are guarded by {@link #SYSTEM_PROPERTIES_LOCK}.
+   */
+  private static final String DFS_BASE_DIR_PROPERTY = "test.build.data";
+
+  /** The system property HBaseTestingUtility reads the parent of its data test dir from. */
+  private static final String TEST_BASE_DIR_PROPERTY = "test.build.data.basedirectory";
+
+  /**
+   * Guards the process-wide system properties the mini clusters are configured with, like
+   * {@link #DFS_BASE_DIR_PROPERTY} and hadoop.log.dir, while clusters start concurrently.
+   */
+  private static final Object SYSTEM_PROPERTIES_LOCK = new Object();
+
+  /** How often the HBase startup monitor polls the master, in milliseconds. */
+  private static final long MONITOR_INTERVAL_MILLIS = 20L;
+
+  /** The default maximum time a component may take to shut down, in milliseconds. */
+  public static final long DEFAULT_COMPONENT_STOP_TIMEOUT_MILLIS = 60L * 1000L;
+
+  /** The default maximum time the whole cluster may take to shut down, in milliseconds. */
+  public static final long DEFAULT_STOP_TIMEOUT_MILLIS = 120L * 1000L;
 
   /** An HBase testing utility for starting/stopping the cluster. */
   private final HBaseTestingUtility mTestUtil;
@@ -40,6 +82,50 @@ public class MiniHBaseCluster extends MavenLogged {
   /** Whether the cluster is running. */
   private boolean mIsRunning;
 
+  /** A cache of bootstrapped cluster images to start from, or null to always start cold. */
+  private ClusterImageCache mImageCache;
+
+  /**
+   * The local directory to keep the HBase root directory in instead of DFS, or null to run a
+   * mini DFS cluster.
+   */
+  private File mLocalRootDir;
+
+  /**
+   * A RAM-backed directory to keep the cluster's data in, or null to use the default data test
+   * directory.
+   */
+  private File mRamDir;
+
+  /** How much of the RAM-backed directory the cluster is expected to use at most. */
+  private long mRamMaxBytes;
+
+  /** The first HBase instance, when it runs on local storage instead of DFS. */
+  private volatile org.apache.hadoop.hbase.MiniHBaseCluster mLocalInstance;
+
+  /** The number of servers of each kind. */
+  private ClusterSize mSize = ClusterSize.SINGLE;
+
+  /** The additional HBase instances sharing DFS and ZooKeeper, once started. */
+  private org.apache.hadoop.hbase.MiniHBaseCluster[] mExtraInstances =
+      new org.apache.hadoop.hbase.MiniHBaseCluster[0];
+
+  /** The configurations of the additional HBase instances, once started. */
+  private Configuration[] mExtraInstanceConfs = new Configuration[0];
+
+  /** Reserves the ports of the cluster's servers while the cluster runs. */
+  private final PortAllocator mPortAllocator =
+      new PortAllocator(PortAllocator.getDefaultRegistryDir());
+
+  /** How long each phase of the last start took. */
+  private StartupTimer mStartupTimer = new StartupTimer();
+
+  /** The maximum time a component may take to shut down in milliseconds, or 0 for no limit. */
+  private long mComponentStopTimeoutMillis = DEFAULT_COMPONENT_STOP_TIMEOUT_MILLIS;
+
+  /** The maximum time the cluster may take to shut down in milliseconds, or 0 for no limit. */
+  private long mStopTimeoutMillis = DEFAULT_STOP_TIMEOUT_MILLIS;
+
   /**
    * Creates a new <code>MiniHBaseCluster</code> instance.
    *
@@ -74,6 +160,120 @@ public class MiniHBaseCluster extends MavenLogged {
     return mTestUtil.getConfiguration();
   }
 
+  /**
+   * Sets a cache of bootstrapped cluster images.  When set, the cluster is started from the
+   * cached image instead of formatting a new NameNode and bootstrapping the catalog tables.  If
+   * no image exists yet, one is built first.
+   *
+   * @param imageCache The image cache to use, or null to always start a cluster from scratch.
+   */
+  public void setImageCache(ClusterImageCache imageCache) {
+    mImageCache = imageCache;
+  }
+
+  /**
+   * Sets the number of servers of each kind.  Additional HBase instances always run a single
+   * master and regionserver.
+   *
+   * @param size The cluster size.
+   */
+  public void setClusterSize(ClusterSize size) {
+    mSize = size;
+  }
+
+  /**
+   * Keeps the HBase root directory on the local filesystem instead of a mini DFS cluster.  No
+   * DFS is started, which saves the NameNode format, datanode registration and safe mode wait
+   * at the cost of HDFS semantics.  The directory is cleared when the cluster starts.
+   *
+   * @param rootDir The local HBase root directory, or null to run a mini DFS cluster.
+   */
+  public void setLocalStorage(File rootDir) {
+    mLocalRootDir = null == rootDir ? null : rootDir.getAbsoluteFile();
+  }
+
+  /**
+   * Keeps the cluster's data (DFS blocks, ZooKeeper and MapReduce data) in a RAM-backed
+   * directory, such as one in /dev/shm.  The amount of RAM used is reported when the cluster
+   * shuts down, and the directory is deleted to free it.
+   *
+   * @param ramDir The RAM-backed directory, or null to use the default data test directory.
+   * @param maxBytes How much RAM the cluster is expected to use at most.  Using more is
+   *     reported as a warning.
+   */
+  public void setRamStorage(File ramDir, long maxBytes) {
+    mRamDir = null == ramDir ? null : ramDir.getAbsoluteFile();
+    mRamMaxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the number of HBase instances to run.  The first instance is the usual HBase cluster.
+   * Every additional instance runs its own master and regionserver on the same DFS and
+   * ZooKeeper, with its own root directory and parent znode, which is much cheaper than a
+   * complete cluster.
+   *
+   * @param count The number of HBase instances, at least 1.
+   */
+  public void setHBaseInstances(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("At least one HBase instance is required.");
+    }
+    mExtraInstances = new org.apache.hadoop.hbase.MiniHBaseCluster[count - 1];
+    mExtraInstanceConfs = new Configuration[count - 1];
+  }
+
+  /**
+   * Provides access to the configurations of the additional HBase instances.
+   *
+   * @return The configurations of HBase instances 1 to N-1, in order.
+   */
+  public List<Configuration> getExtraInstanceConfigurations() {
+    return Arrays.asList(mExtraInstanceConfs);
+  }
+
+  /**
+   * Sets how long a graceful shutdown may take.  Components that take longer are forcibly halted
+   * and left behind.
+   *
+   * @param componentTimeoutMillis The maximum time each component may take, or 0 for no limit.
+   * @param overallTimeoutMillis The maximum time all components may take together, or 0 for no
+   *     limit.
+   */
+  public void setStopTimeouts(long componentTimeoutMillis, long overallTimeoutMillis) {
+    mComponentStopTimeoutMillis = componentTimeoutMillis;
+    mStopTimeoutMillis = overallTimeoutMillis;
+  }
+
+  /**
+   * Gets the RAM-backed directory the cluster keeps its data in.  It is deleted when the cluster
+   * stops.
+   *
+   * @return The directory, or null if the data is kept on disk.
+   */
+  public File getRamStorageDir() {
+    return mRamDir;
+  }
+
+  /**
+   * Gets how long a graceful shutdown may take.
+   *
+   * @return The maximum time all components may take to shut down in milliseconds, or 0 for no
+   *     limit.
+   */
+  public long getStopTimeoutMillis() {
+    return mStopTimeoutMillis;
+  }
+
+  /**
+   * Provides access to how long each phase of the last start of the cluster took.  Phases of
+   * components that start concurrently overlap.
+   *
+   * @return The startup timer of the last start.
+   */
+  public StartupTimer getStartupTimer() {
+    return mStartupTimer;
+  }
+
   /**
    * Determine whether the cluster is running.
    *
@@ -86,50 +286,706 @@ public class MiniHBaseCluster extends MavenLogged {
   /**
    * Starts the cluster.  Blocks until ready.
    *
+   * <p>DFS and ZooKeeper are started concurrently.  The HBase instances start once both are up,
+   * and the MapReduce cluster, which only needs DFS, starts alongside HBase.  With local storage
+   * there is no DFS to wait for.  If a component fails to start, the components that did start
+   * are shut down again before the error is rethrown.</p>
+   *
    * @throws Exception If there is an error.
    */
   public void startup() throws Exception {
     if (isRunning()) {
       throw new RuntimeException("Cluster already running.");
     }
-    mTestUtil.startMiniCluster();
+    mStartupTimer = new StartupTimer();
+    long portsStartTime = System.currentTimeMillis();
+    reservePorts();
+    mStartupTimer.recordSince("port reservation", portsStartTime);
+    try {
+      startComponents();
+    } catch (Exception e) {
+      getLog().warn("The HBase cluster failed to start, stopping the components that started.");
+      try {
+        stopComponents();
+      } catch (Exception stopError) {
+        getLog().warn("Unable to stop the components of the HBase cluster.", stopError);
+      } finally {
+        releaseResources();
+      }
+      throw e;
+    }
+    mIsRunning = true;
+  }
+
+  /**
+   * Reserves the ZooKeeper client port of the cluster and configures it.
+   *
+   * <p>It is the only fixed port: DFS, the datanodes, MapReduce and the HBase masters and
+   * regionservers bind to port 0, since the mini HBase cluster resets the master and regionserver
+   * ports to 0.  The ZooKeeper port is reserved in the host-wide port registry until the cluster
+   * stops, so concurrent builds don't race for it, and it lies below the ephemeral port range the
+   * operating system picks the other ports from.</p>
+   *
+   * @throws IOException If the port cannot be reserved.
+   */
+  private void reservePorts() throws IOException {
+    int zooKeeperPort = mPortAllocator.reserve(1)[0];
+    Configuration conf = getConfiguration();
+    conf.setInt(HConstants.ZOOKEEPER_CLIENT_PORT, zooKeeperPort);
+    conf.setInt("test.hbase.zookeeper.property.clientPort", zooKeeperPort);
+    getLog().info("Reserved ZooKeeper port " + zooKeeperPort);
+  }
+
+  /**
+   * Starts the components of the cluster.
+   *
+   * @throws Exception If there is an error.
+   */
+  private void startComponents() throws Exception {
+    // Pin the test directories before the components that share them start concurrently.
+    pinDataTestDir();
+    pinClusterTestDir();
+
+    boolean local = null != mLocalRootDir;
+    long prepareStartTime = System.currentTimeMillis();
+    if (local) {
+      prepareLocalStorage();
+      mStartupTimer.recordSince("local storage cleanup", prepareStartTime);
+    } else if (null != mImageCache && !mImageCache.hasImage()) {
+      buildImage();
+      mStartupTimer.recordSince("cluster image build", prepareStartTime);
+    }
+
+    long startTime = System.currentTimeMillis();
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(getLog(), "startup");
+    String[] storage = new String[0];
+    if (!local) {
+      orchestrator.add("DFS", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          startDfs();
+          return null;
+        }
+      });
+      storage = new String[] {"DFS"};
+    }
+    orchestrator.add("ZooKeeper", new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        startZooKeeper();
+        return null;
+      }
+    });
+    String[] storageAndZooKeeper = Arrays.copyOf(storage, storage.length + 1);
+    storageAndZooKeeper[storage.length] = "ZooKeeper";
+    orchestrator.add("HBase", new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        HBaseStartupMonitor monitor = new HBaseStartupMonitor();
+        monitor.start();
+        try {
+          if (null == mLocalRootDir) {
+            mTestUtil.startMiniHBaseCluster(mSize.getMasters(), mSize.getRegionServers());
+          } else {
+            mLocalInstance = createHBaseInstance(getConfiguration(),
+                new Path(mLocalRootDir.toURI()), mSize.getMasters(), mSize.getRegionServers());
+            waitForMeta(getConfiguration());
+          }
+        } finally {
+          monitor.finish();
+        }
+        return null;
+      }
+    }, storageAndZooKeeper);
+    for (int i = 1; i <= mExtraInstances.length; i++) {
+      final int index = i;
+      orchestrator.add("HBase-" + index, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          startExtraInstance(index);
+          return null;
+        }
+      }, storageAndZooKeeper);
+    }
     if (mIsMapReduceEnabled) {
-      getLog().info("Starting MapReduce cluster...");
+      orchestrator.add("MapReduce", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          startMapReduce();
+          return null;
+        }
+      }, storage);
+    }
+    try {
+      orchestrator.run();
+    } finally {
+      mStartupTimer.recordAll(orchestrator.getElapsedMillis());
+    }
 
-      // Work around a bug in HBaseTestingUtility that requires this conf var to be set.
-      getConfiguration().set("hadoop.log.dir", getConfiguration().get("hadoop.tmp.dir"));
+    if (null != mImageCache) {
+      logImageStartTime(System.currentTimeMillis() - startTime);
+    }
+  }
 
-      // Start a mini MapReduce cluster with one server.
-      mTestUtil.startMiniMapReduceCluster(1);
+  /**
+   * Starts the mini DFS cluster, from the cached cluster image if there is one.
+   *
+   * @throws Exception If there is an error.
+   */
+  private void startDfs() throws Exception {
+    if (null == mImageCache) {
+      synchronized (SYSTEM_PROPERTIES_LOCK) {
+        mTestUtil.startMiniDFSCluster(mSize.getDataNodes());
+      }
+      waitOnSafeMode();
+      return;
+    }
 
-      // Set the mapred.working.dir so stuff like partition files get written somewhere reasonable.
-      getConfiguration().set("mapred.working.dir",
-          mTestUtil.getDataTestDir("mapred-working").toString());
+    File clusterDir = new File(mTestUtil.getDataTestDir("image-cluster").toString())
+        .getAbsoluteFile();
+    mImageCache.restore(new File(clusterDir, "dfs"));
 
-      getLog().info("MapReduce cluster started.");
+    // Start DFS on the restored storage without formatting it.  The HBase root directory in it
+    // already holds -ROOT- and .META., so HBase skips the bootstrap.
+    MiniDFSCluster dfsCluster;
+    synchronized (SYSTEM_PROPERTIES_LOCK) {
+      System.setProperty(DFS_BASE_DIR_PROPERTY, clusterDir.getPath());
+      dfsCluster = new MiniDFSCluster(0, getConfiguration(), mSize.getDataNodes(),
+          false /* Don't format */, true, true, null, null, null, null);
     }
-    mIsRunning = true;
+    dfsCluster.waitClusterUp();
+    String fsUri = dfsCluster.getFileSystem().getUri().toString();
+    getConfiguration().set("fs.defaultFS", fsUri);
+    getConfiguration().set("fs.default.name", fsUri);
+    mTestUtil.setDFSCluster(dfsCluster);
+    waitOnSafeMode();
+  }
+
+  /**
+   * Waits for the NameNode to leave safe mode, and records how long that took.
+   *
+   * @throws IOException If the NameNode cannot be reached.
+   */
+  private void waitOnSafeMode() throws IOException {
+    long startTime = System.currentTimeMillis();
+    FSUtils.waitOnSafeMode(getConfiguration(), MONITOR_INTERVAL_MILLIS);
+    mStartupTimer.recordSince("DFS safe mode", startTime);
+  }
+
+  /**
+   * Starts the mini ZooKeeper cluster, with the tick time of the configuration if it sets one.
+   * The testing utility does not pass a tick time to the server, so the cluster is then started
+   * here, on the client port reserved by {@link #reservePorts()}, and handed to the utility.
+   *
+   * @throws Exception If there is an error.
+   */
+  private void startZooKeeper() throws Exception {
+    int tickTime = getConfiguration().getInt(ClusterProfile.ZOOKEEPER_TICK_TIME_PROPERTY, 0);
+    if (tickTime <= 0) {
+      mTestUtil.startMiniZKCluster();
+      return;
+    }
+    MiniZooKeeperCluster zkCluster = new MiniZooKeeperCluster(getConfiguration());
+    zkCluster.setTickTime(tickTime);
+    zkCluster.setDefaultClientPort(
+        getConfiguration().getInt("test.hbase.zookeeper.property.clientPort", 0));
+    int clientPort =
+        zkCluster.startup(new File(mTestUtil.getDataTestDir("zookeeper").toString()));
+    getConfiguration().setInt(HConstants.ZOOKEEPER_CLIENT_PORT, clientPort);
+    mTestUtil.setZkCluster(zkCluster);
+  }
+
+  /**
+   * Starts an additional HBase instance.  DFS and ZooKeeper must already be running.
+   *
+   * @param index The index of the instance, from 1.
+   * @throws Exception If there is an error.
+   */
+  private void startExtraInstance(int index) throws Exception {
+    Configuration conf = new Configuration(getConfiguration());
+    Path rootDir;
+    if (null == mLocalRootDir) {
+      rootDir = FileSystem.get(conf).makeQualified(new Path("/hbase-" + index));
+    } else {
+      rootDir = new Path(new File(mLocalRootDir.getParentFile(), "hbase-" + index).toURI());
+    }
+    conf.set(HConstants.ZOOKEEPER_ZNODE_PARENT, "/hbase-" + index);
+    mExtraInstanceConfs[index - 1] = conf;
+    mExtraInstances[index - 1] = createHBaseInstance(conf, rootDir, 1, 1);
+    waitForMeta(conf);
+  }
+
+  /**
+   * Starts an HBase instance outside of the testing utility.  ZooKeeper must already be running.
+   * The instance may not be ready yet when this returns.
+   *
+   * @param conf The configuration of the instance.  The root directory is set in it.
+   * @param rootDir The HBase root directory of the instance.
+   * @param masters The number of masters.
+   * @param regionServers The number of regionservers.
+   * @return The starting instance.
+   * @throws Exception If there is an error.
+   */
+  private static org.apache.hadoop.hbase.MiniHBaseCluster createHBaseInstance(
+      Configuration conf, Path rootDir, int masters, int regionServers) throws Exception {
+    rootDir.getFileSystem(conf).mkdirs(rootDir);
+    conf.set(HConstants.HBASE_DIR, rootDir.toString());
+    return new org.apache.hadoop.hbase.MiniHBaseCluster(conf, masters, regionServers);
+  }
+
+  /**
+   * Waits until .META. of an HBase instance can be scanned, like HBaseTestingUtility does.
+   *
+   * @param conf The configuration of the instance.
+   * @throws IOException If .META. cannot be scanned.
+   */
+  private static void waitForMeta(Configuration conf) throws IOException {
+    HTable meta = new HTable(conf, HConstants.META_TABLE_NAME);
+    try {
+      ResultScanner scanner = meta.getScanner(new Scan());
+      while (null != scanner.next()) {
+        continue;
+      }
+      scanner.close();
+    } finally {
+      meta.close();
+    }
+  }
+
+  /**
+   * Records when the master of the first HBase instance has seen all its regionservers and when
+   * it is initialized, which includes assigning -ROOT- and .META., while the instance starts.
+   */
+  private final class HBaseStartupMonitor extends Thread {
+    /** When the HBase instance began to start. */
+    private final long mStartTime = System.currentTimeMillis();
+
+    /** Set once the instance has started, or failed to. */
+    private volatile boolean mIsFinished;
+
+    /**
+     * Creates a new <code>HBaseStartupMonitor</code> instance.
+     */
+    private HBaseStartupMonitor() {
+      super("hbase-startup-monitor");
+      setDaemon(true);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+      boolean isRegistered = false;
+      boolean isInitialized = false;
+      while (!mIsFinished && !(isRegistered && isInitialized)) {
+        try {
+          org.apache.hadoop.hbase.MiniHBaseCluster instance =
+              null == mLocalRootDir ? mTestUtil.getMiniHBaseCluster() : mLocalInstance;
+          HMaster master = null == instance ? null : instance.getMaster();
+          if (null != master) {
+            ServerManager serverManager = master.getServerManager();
+            if (!isRegistered && null != serverManager
+                && serverManager.countOfRegionServers() >= mSize.getRegionServers()) {
+              mStartupTimer.recordSince("HBase regionserver registration", mStartTime);
+              isRegistered = true;
+            }
+            if (!isInitialized && master.isInitialized()) {
+              mStartupTimer.recordSince("HBase master initialization", mStartTime);
+              isInitialized = true;
+            }
+          }
+        } catch (RuntimeException e) {
+          // The instance is still coming up; look again.
+        } finally {
+          try {
+            Thread.sleep(MONITOR_INTERVAL_MILLIS);
+          } catch (InterruptedException e) {
+            mIsFinished = true;
+          }
+        }
+      }
+    }
+
+    /**
+     * Stops monitoring and waits for the monitor to exit.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void finish() throws InterruptedException {
+      mIsFinished = true;
+      interrupt();
+      join();
+    }
+  }
+
+  /**
+   * Chooses the data test directory of the testing utility, in the RAM-backed directory if
+   * there is one.
+   */
+  private void pinDataTestDir() {
+    if (null == mRamDir) {
+      mTestUtil.getDataTestDir();
+      return;
+    }
+    synchronized (SYSTEM_PROPERTIES_LOCK) {
+      String previous = System.getProperty(TEST_BASE_DIR_PROPERTY);
+      System.setProperty(TEST_BASE_DIR_PROPERTY, mRamDir.getPath());
+      try {
+        getLog().info("Keeping cluster data in " + mTestUtil.getDataTestDir());
+      } finally {
+        if (null == previous) {
+          System.clearProperty(TEST_BASE_DIR_PROPERTY);
+        } else {
+          System.setProperty(TEST_BASE_DIR_PROPERTY, previous);
+        }
+      }
+    }
+  }
+
+  /**
+   * Chooses the cluster test directory of the testing utility, which ZooKeeper and DFS would
+   * otherwise both choose lazily and without synchronization while they start concurrently,
+   * possibly ending up in different directories.
+   */
+  private void pinClusterTestDir() {
+    // HBaseTestingUtility only sets it up in private methods.
+    try {
+      Method setup = HBaseTestingUtility.class.getDeclaredMethod("setupClusterTestDir");
+      setup.setAccessible(true);
+      setup.invoke(mTestUtil);
+    } catch (NoSuchMethodException e) {
+      getLog().debug("This HBase version does not set up a cluster test dir.");
+    } catch (IllegalAccessException e) {
+      getLog().warn("Unable to set up the cluster test dir.", e);
+    } catch (InvocationTargetException e) {
+      getLog().warn("Unable to set up the cluster test dir.", e.getCause());
+    }
+  }
+
+  /**
+   * Reports how much of the RAM-backed directory the cluster used, then deletes it.
+   */
+  private void releaseRamStorage() {
+    if (!mRamDir.exists()) {
+      return;
+    }
+    long usedBytes = FileUtils.sizeOfDirectory(mRamDir);
+    String usage = String.format("The cluster used %.1f MB of RAM-backed storage in %s.",
+        usedBytes / (1024.0 * 1024.0), mRamDir.getPath());
+    if (usedBytes > mRamMaxBytes) {
+      getLog().warn(usage + "  This is more than the configured maximum of "
+          + mRamMaxBytes / (1024L * 1024L) + " MB.");
+    } else {
+      getLog().info(usage);
+    }
+    try {
+      FileUtils.deleteDirectory(mRamDir);
+    } catch (IOException e) {
+      getLog().warn("Unable to delete RAM-backed storage " + mRamDir.getPath(), e);
+    }
+  }
+
+  /**
+   * Clears the local HBase root directory and points the default filesystem at the local one.
+   *
+   * @throws IOException If the directory cannot be cleared.
+   */
+  private void prepareLocalStorage() throws IOException {
+    File storageDir = mLocalRootDir.getParentFile();
+    if (storageDir.exists()) {
+      getLog().info("Clearing local storage " + storageDir.getPath());
+      FileUtils.deleteDirectory(storageDir);
+    }
+    getConfiguration().set("fs.defaultFS", "file:///");
+    getConfiguration().set("fs.default.name", "file:///");
   }
 
   /**
-   * Stops the cluster.  Blocks until shut down.
+   * Starts the mini MapReduce cluster.  DFS must already be running.
    *
    * @throws Exception If there is an error.
    */
+  private void startMapReduce() throws Exception {
+    // Work around a bug in HBaseTestingUtility that requires this conf var to be set.
+    getConfiguration().set("hadoop.log.dir", getConfiguration().get("hadoop.tmp.dir"));
+
+    // Start a mini MapReduce cluster.  This sets hadoop.log.dir as a system property, which the
+    // cluster reads while it starts.
+    synchronized (SYSTEM_PROPERTIES_LOCK) {
+      mTestUtil.startMiniMapReduceCluster(mSize.getTaskTrackers());
+    }
+
+    // Set the mapred.working.dir so stuff like partition files get written somewhere reasonable.
+    getConfiguration().set("mapred.working.dir",
+        mTestUtil.getDataTestDir("mapred-working").toString());
+  }
+
+  /**
+   * Logs how long a start from the cached cluster image took, compared to a cold start.
+   *
+   * @param warmStartMillis How long the start from the image took.
+   */
+  private void logImageStartTime(long warmStartMillis) {
+    long coldStartMillis = mImageCache.getColdStartMillis();
+    if (coldStartMillis < 0) {
+      getLog().info(String.format("Started HBase cluster from cached image in %.1f s.",
+          warmStartMillis / 1000.0));
+    } else {
+      getLog().info(String.format(
+          "Started HBase cluster from cached image in %.1f s (cold start took %.1f s).",
+          warmStartMillis / 1000.0, coldStartMillis / 1000.0));
+    }
+  }
+
+  /**
+   * Starts a cluster from scratch, shuts it down cleanly and stores its storage as the cached
+   * cluster image.
+   *
+   * @throws Exception If there is an error.
+   */
+  private void buildImage() throws Exception {
+    getLog().info("No cached cluster image " + mImageCache.getKey() + ", building one...");
+    long startTime = System.currentTimeMillis();
+    File dfsBaseDir;
+    synchronized (SYSTEM_PROPERTIES_LOCK) {
+      mTestUtil.startMiniDFSCluster(mSize.getDataNodes());
+      dfsBaseDir = new File(System.getProperty(DFS_BASE_DIR_PROPERTY), "dfs");
+    }
+    startZooKeeper();
+    mTestUtil.startMiniHBaseCluster(mSize.getMasters(), mSize.getRegionServers());
+    long coldStartMillis = System.currentTimeMillis() - startTime;
+    getLog().info(String.format("Cold start took %.1f s.", coldStartMillis / 1000.0));
+
+    // Stop HBase and DFS cleanly so the storage is consistent, then snapshot it.
+    mTestUtil.shutdownMiniHBaseCluster();
+    mTestUtil.shutdownMiniDFSCluster();
+    mTestUtil.shutdownMiniZKCluster();
+    mImageCache.store(dfsBaseDir, coldStartMillis);
+  }
+
+  /**
+   * Stops the cluster.  Blocks until shut down, or until the stop deadlines pass.
+   *
+   * <p>MapReduce and the HBase instances are shut down concurrently, then ZooKeeper and DFS.  A
+   * component that overruns its deadline is forcibly halted (HBase servers are aborted) and left
+   * behind, and the components that depend on it are shut down anyway.</p>
+   *
+   * @throws Exception If there is an error, or a component overran its deadline.
+   */
   public void shutdown() throws Exception {
     if (!mIsRunning) {
       getLog().error(
           "Attempting to shut down a cluster, but one was never started in this process.");
       return;
     }
+    try {
+      stopComponents();
+    } finally {
+      releaseResources();
+    }
+  }
+
+  /**
+   * Shuts down the components of the cluster that are running, in dependency order.
+   *
+   * @throws Exception If there is an error, or a component overran its deadline.
+   */
+  private void stopComponents() throws Exception {
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(getLog(), "shutdown");
+    List<String> servers = new ArrayList<String>();
     if (mIsMapReduceEnabled) {
-      getLog().info("Shutting down MapReduce cluster...");
-      mTestUtil.shutdownMiniMapReduceCluster();
-      getLog().info("MapReduce cluster shut down.");
+      orchestrator.add("MapReduce", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          mTestUtil.shutdownMiniMapReduceCluster();
+          return null;
+        }
+      });
+      servers.add("MapReduce");
+    }
+    for (int i = 0; i < mExtraInstances.length; i++) {
+      if (null != mExtraInstances[i]) {
+        addHBaseShutdown(orchestrator, "HBase-" + (i + 1), mExtraInstances[i]);
+        servers.add("HBase-" + (i + 1));
+        mExtraInstances[i] = null;
+      }
+    }
+    if (null != mLocalInstance) {
+      addHBaseShutdown(orchestrator, "HBase", mLocalInstance);
+      mLocalInstance = null;
+    } else {
+      final org.apache.hadoop.hbase.MiniHBaseCluster instance = mTestUtil.getMiniHBaseCluster();
+      orchestrator.add("HBase", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          mTestUtil.shutdownMiniHBaseCluster();
+          return null;
+        }
+      });
+      orchestrator.setHaltAction("HBase", new Runnable() {
+        @Override
+        public void run() {
+          abortHBaseInstance(instance);
+        }
+      });
     }
+    servers.add("HBase");
+    String[] dependencies = servers.toArray(new String[servers.size()]);
+    orchestrator.add("ZooKeeper", new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        mTestUtil.shutdownMiniZKCluster();
+        return null;
+      }
+    }, dependencies);
+    if (null == mLocalRootDir) {
+      orchestrator.add("DFS", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          mTestUtil.shutdownMiniDFSCluster();
+          return null;
+        }
+      }, dependencies);
+    }
+    orchestrator.setDeadlines(mComponentStopTimeoutMillis, mStopTimeoutMillis);
+    orchestrator.setContinueAfterFailure(true);
+    orchestrator.run();
+    // Everything is down already; this only cleans up the testing utility's directories.
     mTestUtil.shutdownMiniCluster();
   }
 
+  /**
+   * Adds the graceful shutdown of an HBase instance started outside of the testing utility to a
+   * teardown, with an abort of its servers as the halt action.
+   *
+   * @param orchestrator The teardown.
+   * @param name The name of the component.
+   * @param instance The HBase instance.
+   */
+  private static void addHBaseShutdown(ComponentOrchestrator orchestrator, String name,
+      final org.apache.hadoop.hbase.MiniHBaseCluster instance) {
+    orchestrator.add(name, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        instance.shutdown();
+        instance.join();
+        return null;
+      }
+    });
+    orchestrator.setHaltAction(name, new Runnable() {
+      @Override
+      public void run() {
+        abortHBaseInstance(instance);
+      }
+    });
+  }
+
+  /**
+   * Stops the cluster as fast as possible, abandoning its data.  Regions are neither flushed nor
+   * closed: the masters and regionservers are aborted, then MapReduce, ZooKeeper and DFS are
+   * shut down without waiting for the HBase servers to exit or for in-flight writes.
+   *
+   * <p>Blocks for at most about the given time.  Servers still running by then are left behind
+   * and die with the JVM.  Their ports and RAM-backed storage stay reserved until the abort
+   * finishes after all, or the JVM exits, so that no other cluster takes them while they are
+   * still in use.</p>
+   *
+   * @param timeoutMillis The maximum time to wait for the cluster to stop.
+   */
+  public void abort(long timeoutMillis) {
+    if (!mIsRunning) {
+      getLog().error(
+          "Attempting to abort a cluster, but one was never started in this process.");
+      return;
+    }
+    // Set by whichever comes first: the abort finishing, or this thread giving up on it.  The
+    // other one releases the resources.
+    final AtomicBoolean isSettled = new AtomicBoolean();
+    Thread aborter = new Thread("hbase-cluster-abort") {
+      @Override
+      public void run() {
+        try {
+          abortComponents();
+        } catch (Exception e) {
+          getLog().warn("Error while aborting the HBase cluster.", e);
+        } finally {
+          if (!isSettled.compareAndSet(false, true)) {
+            getLog().info("The abandoned HBase cluster has stopped, releasing its resources.");
+            releaseResources();
+          }
+        }
+      }
+    };
+    aborter.setDaemon(true);
+    long startTime = System.currentTimeMillis();
+    aborter.start();
+    try {
+      aborter.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (isSettled.compareAndSet(false, true)) {
+      mIsRunning = false;
+      getLog().warn("The HBase cluster did not stop within " + timeoutMillis
+          + " ms.  Leaving its remaining threads behind.  Its ports stay reserved and its"
+          + " storage is kept until they stop or the JVM exits.");
+      return;
+    }
+    getLog().info(String.format("Aborted the HBase cluster in %.1f s.",
+        (System.currentTimeMillis() - startTime) / 1000.0));
+    releaseResources();
+  }
+
+  /**
+   * Aborts the HBase servers, then shuts the other components down.
+   *
+   * @throws Exception If a component cannot be shut down.
+   */
+  private void abortComponents() throws Exception {
+    for (int i = 0; i < mExtraInstances.length; i++) {
+      abortHBaseInstance(mExtraInstances[i]);
+      mExtraInstances[i] = null;
+    }
+    abortHBaseInstance(mLocalInstance);
+    mLocalInstance = null;
+    abortHBaseInstance(mTestUtil.getMiniHBaseCluster());
+    if (mIsMapReduceEnabled) {
+      mTestUtil.shutdownMiniMapReduceCluster();
+    }
+    mTestUtil.shutdownMiniZKCluster();
+    MiniDFSCluster dfsCluster = mTestUtil.getDFSCluster();
+    if (null != dfsCluster) {
+      dfsCluster.shutdown();
+    }
+  }
+
+  /**
+   * Asks the regionservers and masters of an HBase instance to abort, without waiting for them.
+   *
+   * @param instance The HBase instance, or null.
+   */
+  private static void abortHBaseInstance(org.apache.hadoop.hbase.MiniHBaseCluster instance) {
+    if (null == instance) {
+      return;
+    }
+    for (JVMClusterUtil.RegionServerThread regionServer : instance.getRegionServerThreads()) {
+      regionServer.getRegionServer().abort("Fast stop of the mini cluster.");
+    }
+    for (JVMClusterUtil.MasterThread master : instance.getMasterThreads()) {
+      master.getMaster().abort("Fast stop of the mini cluster.", null);
+    }
+  }
+
+  /**
+   * Releases the ports and the RAM-backed storage of a cluster that has stopped.
+   */
+  private void releaseResources() {
+    mPortAllocator.releaseAll();
+    mIsRunning = false;
+    if (null != mRamDir) {
+      releaseRamStorage();
+    }
+  }
+
   /**
    * Configures an HBase testing utility.
    *
@@ -137,36 +993,26 @@ public class MiniHBaseCluster extends MavenLogged {
    * @return The configured utility.
    */
   private static HBaseTestingUtility configure(HBaseTestingUtility testUtil) {
-    // If HBase servers are running locally, the utility will use
-    // the "normal" ports. We override *all* ports first, so that
-    // we ensure that this can start without a problem.
+    // The ZooKeeper port is reserved when the cluster starts.  The master and regionserver bind
+    // to ports chosen by the operating system, so they do not clash with HBase servers running
+    // locally or with other clusters.
     Configuration conf = testUtil.getConfiguration();
 
-    int offset = new Random(System.currentTimeMillis()).nextInt(1500) + 500;
-
-    // Move the master to a hopefully unused port.
-    conf.setInt(HConstants.MASTER_PORT, findOpenPort(HConstants.DEFAULT_MASTER_PORT + offset));
     // Disable the master's web UI.
     conf.setInt("hbase.master.info.port", -1);
 
-    // Move the regionserver to a hopefully unused port.
-    conf.setInt(HConstants.REGIONSERVER_PORT,
-        findOpenPort(HConstants.DEFAULT_REGIONSERVER_PORT + offset));
     // Disable the regionserver's web UI.
     conf.setInt("hbase.regionserver.info.port", -1);
 
     // Increase max zookeeper client connections.
     conf.setInt("hbase.zookeeper.property.maxClientCnxns", 80);
 
-    // TODO(gwu): Increasing the port numbers by a constant is not sufficient for multiple
-    // executions of this plugin on the same machine.  Allow this to be specified as a
-    // maven plugin parameter.
-
     return testUtil;
   }
 
   /**
-   * Find an available port.
+   * Find an available port.  The port is not reserved, so another process may take it before it
+   * is bound; clusters reserve their ports with a {@link PortAllocator} instead.
    *
    * @param startPort the starting port to check.
    * @return an open port number.
@@ -17,22 +17,49 @@
 
 package org.kiji.maven.plugins.hbase;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.maven.plugin.logging.Log;
 
 /**
- * A singleton instance of a mini HBase cluster.
+ * The registry of the mini HBase clusters running in this JVM.
+ *
+ * <p>Each cluster is registered under a cluster id, so that the modules of a parallel build can
+ * each run their own cluster at the same time.  Operations on different clusters don't block
+ * each other.  The methods that don't take a cluster id operate on the cluster registered under
+ * {@link #DEFAULT_CLUSTER_ID}.</p>
+ *
+ * <p>A cluster may be started as shared, with a key describing its configuration.  Later users
+ * with the same key acquire the running cluster instead of starting a new one, and the cluster
+ * keeps a count of its users.  A shared cluster is only stopped when its last user releases it
+ * and no further users are expected, or when the JVM exits.</p>
  */
 public enum MiniHBaseClusterSingleton {
   /** The singleton instance. */
   INSTANCE;
 
-  /** The thread that runs the mini HBase cluster. */
-  private MiniHBaseClusterThread mThread;
-  /** The HBase cluster being run. */
-  private MiniHBaseCluster mCluster;
+  /** The id of the cluster used when no cluster id is given. */
+  public static final String DEFAULT_CLUSTER_ID = "default";
+
+  /**
+   * How much longer than its stop deadline a cluster thread is waited for before it is left
+   * behind, in milliseconds.
+   */
+  private static final long STOP_GRACE_MILLIS = 30L * 1000L;
+
+  /** The registered clusters, by cluster id.  Entries are never removed. */
+  private final Map<String, RegisteredCluster> mClusters =
+      new HashMap<String, RegisteredCluster>();
+
+  /** Stops shared clusters when the JVM exits, or null if it is not registered yet. */
+  private Thread mShutdownHook;
 
   /**
    * Starts the HBase cluster and blocks until it is ready.
@@ -44,22 +71,178 @@ public enum MiniHBaseClusterSingleton {
    */
   public void startAndWaitUntilReady(Log log, boolean alsoStartMapReduce, Configuration conf)
       throws IOException {
-    mCluster = new MiniHBaseCluster(log, alsoStartMapReduce, conf);
-    mThread = new MiniHBaseClusterThread(log, mCluster);
+    startAndWaitUntilReady(log, DEFAULT_CLUSTER_ID,
+        new MiniHBaseCluster(log, alsoStartMapReduce, conf), 0L, null);
+  }
+
+  /**
+   * Starts an HBase cluster and blocks until it is ready.
+   *
+   * <p>If the cluster fails to start, or does not start before the timeout expires, the error is
+   * rethrown here and the cluster thread is asked to stop.</p>
+   *
+   * @param log The maven log.
+   * @param clusterId The id to register the cluster under.
+   * @param cluster The configured, not yet started, cluster to run.
+   * @param timeoutMillis The maximum time to wait for the cluster, or 0 to wait forever.
+   * @param shareKey If not null, the cluster is shared with later users that acquire it with
+   *     the same key.
+   * @throws IOException If the cluster fails to start in time, or another cluster registered
+   *     under the same id is still in use.
+   */
+  public void startAndWaitUntilReady(Log log, String clusterId, MiniHBaseCluster cluster,
+      long timeoutMillis, String shareKey) throws IOException {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (registered.isRunning()) {
+        if (registered.mReferenceCount > 0) {
+          throw new IOException("HBase cluster '" + clusterId + "' is already in use.  "
+              + "Give concurrently running clusters different cluster ids.");
+        }
+        log.info("Stopping the idle HBase cluster '" + clusterId + "' to start a new one...");
+        registered.stop(log);
+      }
+
+      registered.mCluster = cluster;
+      registered.mThread = new MiniHBaseClusterThread(log, cluster);
+      registered.mShareKey = shareKey;
+      registered.mReferenceCount = 1;
 
-    log.info("Starting new thread...");
-    mThread.start();
+      log.info("Starting new thread...");
+      registered.mThread.start();
 
-    // Wait for the cluster to be ready.
-    log.info("Waiting for cluster to be ready...");
-    while (!mThread.isClusterReady()) {
+      // Wait for the cluster to be ready.
+      log.info("Waiting for cluster to be ready...");
       try {
-        Thread.sleep(1000);
-      } catch (InterruptedException e) {
-        log.info("Still waiting...");
+        registered.mThread.waitUntilReady(timeoutMillis);
+      } catch (IOException e) {
+        // Don't leave a half-started cluster behind if it ever does come up.
+        registered.mThread.stopClusterGracefully();
+        registered.mShareKey = null;
+        registered.mReferenceCount = 0;
+        throw e;
       }
+      log.info("Finished waiting for HBase cluster thread.");
+    }
+
+    if (null != shareKey) {
+      registerShutdownHook(log);
+    }
+  }
+
+  /**
+   * Stops the cluster registered under an id if it is running without users, such as a shared
+   * cluster kept running for later users whose configuration turned out not to match.  A new
+   * cluster under the same id reuses its directories, so this must be called before they are
+   * cleared.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   * @throws IOException If the cluster is still in use.
+   */
+  public void stopIdle(Log log, String clusterId) throws IOException {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (!registered.isRunning()) {
+        return;
+      }
+      if (registered.mReferenceCount > 0) {
+        throw new IOException("HBase cluster '" + clusterId + "' is already in use.  "
+            + "Give concurrently running clusters different cluster ids.");
+      }
+      log.info("Stopping the idle HBase cluster '" + clusterId + "' to start a new one...");
+      registered.stop(log);
+    }
+  }
+
+  /**
+   * Acquires a running shared cluster if it was started with the same key.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   * @param shareKey The configuration key the caller wants a cluster for.
+   * @return The configuration of the acquired cluster, or null if there is no compatible shared
+   *     cluster running under the id.
+   */
+  public Configuration acquire(Log log, String clusterId, String shareKey) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (!registered.isShared() || !registered.mShareKey.equals(shareKey)) {
+        return null;
+      }
+      registered.mReferenceCount++;
+      log.info("Acquired the running shared HBase cluster '" + clusterId + "' ("
+          + registered.mReferenceCount + " user(s)).");
+      return registered.mCluster.getConfiguration();
+    }
+  }
+
+  /**
+   * Releases a cluster.  The cluster is stopped if this was its last user, unless it is shared
+   * and more users are expected to acquire it.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   * @param keepAlive Whether to keep a shared cluster running for later users.
+   * @return Whether the cluster was stopped.
+   */
+  public boolean release(Log log, String clusterId, boolean keepAlive) {
+    return release(log, clusterId, keepAlive, 0L);
+  }
+
+  /**
+   * Releases a cluster.  The cluster is stopped if this was its last user, unless it is shared
+   * and more users are expected to acquire it.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   * @param keepAlive Whether to keep a shared cluster running for later users.
+   * @param abortTimeoutMillis If positive, a cluster that is stopped is aborted, abandoning its
+   *     data, within about this many milliseconds.  If 0, it is stopped gracefully.
+   * @return Whether the cluster was stopped.
+   */
+  public boolean release(Log log, String clusterId, boolean keepAlive, long abortTimeoutMillis) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (registered.mReferenceCount > 0) {
+        registered.mReferenceCount--;
+      }
+      if (registered.isShared() && (registered.mReferenceCount > 0 || keepAlive)) {
+        log.info("Leaving the shared HBase cluster '" + clusterId + "' running ("
+            + registered.mReferenceCount + " user(s)).");
+        return false;
+      }
+      registered.stop(log, abortTimeoutMillis);
+      return true;
+    }
+  }
+
+  /**
+   * Records the tables that existed when a user acquired a cluster.
+   *
+   * @param clusterId The id of the cluster.
+   * @param user The user of the cluster.
+   * @param tables The names of the tables.
+   */
+  public void setBaselineTables(String clusterId, String user, Set<String> tables) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      registered.mBaselineTables.put(user, tables);
+    }
+  }
+
+  /**
+   * Removes and returns the tables that existed when a user acquired a cluster.
+   *
+   * @param clusterId The id of the cluster.
+   * @param user The user of the cluster.
+   * @return The names of the tables, or null if none were recorded.
+   */
+  public Set<String> removeBaselineTables(String clusterId, String user) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      return registered.mBaselineTables.remove(user);
     }
-    log.info("Finished waiting for HBase cluster thread.");
   }
 
   /**
@@ -68,10 +251,56 @@ public enum MiniHBaseClusterSingleton {
    * @return The configuration.
    */
   public Configuration getClusterConfiguration() {
-    if (null == mCluster) {
-      throw new IllegalStateException("The cluster has not started yet.");
+    return getClusterConfiguration(DEFAULT_CLUSTER_ID);
+  }
+
+  /**
+   * Provides access to the configuration of a cluster after it has started.
+   *
+   * @param clusterId The id of the cluster.
+   * @return The configuration.
+   */
+  public Configuration getClusterConfiguration(String clusterId) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (null == registered.mCluster) {
+        throw new IllegalStateException("The cluster '" + clusterId + "' has not started yet.");
+      }
+      return registered.mCluster.getConfiguration();
+    }
+  }
+
+  /**
+   * Gets the RAM-backed directory a cluster keeps its data in, which is deleted when it stops.
+   *
+   * @param clusterId The id of the cluster.
+   * @return The directory, or null if the cluster keeps its data on disk.
+   */
+  public File getRamStorageDir(String clusterId) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (null == registered.mCluster) {
+        throw new IllegalStateException("The cluster '" + clusterId + "' has not started yet.");
+      }
+      return registered.mCluster.getRamStorageDir();
+    }
+  }
+
+  /**
+   * Provides access to the configurations of the additional HBase instances of a cluster after
+   * it has started.
+   *
+   * @param clusterId The id of the cluster.
+   * @return The configurations of HBase instances 1 to N-1, in order.
+   */
+  public List<Configuration> getExtraInstanceConfigurations(String clusterId) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      if (null == registered.mCluster) {
+        throw new IllegalStateException("The cluster '" + clusterId + "' has not started yet.");
+      }
+      return registered.mCluster.getExtraInstanceConfigurations();
     }
-    return mCluster.getConfiguration();
   }
 
   /**
@@ -80,20 +309,182 @@ public enum MiniHBaseClusterSingleton {
    * @param log The maven log.
    */
   public void stop(Log log) {
-    if (null == mCluster) {
-      log.error("Attempted to stop a cluster, but no cluster was ever started in this process.");
-      return;
+    stop(log, DEFAULT_CLUSTER_ID);
+  }
+
+  /**
+   * Stops an HBase cluster and blocks until is has been shutdown completely.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   */
+  public void stop(Log log, String clusterId) {
+    stop(log, clusterId, 0L);
+  }
+
+  /**
+   * Stops an HBase cluster and blocks until is has been shutdown completely.
+   *
+   * @param log The maven log.
+   * @param clusterId The id of the cluster.
+   * @param abortTimeoutMillis If positive, the cluster is aborted, abandoning its data, within
+   *     about this many milliseconds.  If 0, it is stopped gracefully.
+   */
+  public void stop(Log log, String clusterId, long abortTimeoutMillis) {
+    RegisteredCluster registered = getRegisteredCluster(clusterId);
+    synchronized (registered) {
+      registered.stop(log, abortTimeoutMillis);
     }
+  }
 
-    log.info("Stopping the HBase cluster thread...");
-    mThread.stopClusterGracefully();
-    while (mThread.isAlive()) {
-      try {
-        mThread.join();
-      } catch (InterruptedException e) {
-        log.debug("HBase cluster thread interrupted.");
+  /**
+   * Gets the registered cluster with an id, registering a new one if necessary.
+   *
+   * @param clusterId The id of the cluster.
+   * @return The registered cluster.
+   */
+  private RegisteredCluster getRegisteredCluster(String clusterId) {
+    synchronized (mClusters) {
+      RegisteredCluster registered = mClusters.get(clusterId);
+      if (null == registered) {
+        registered = new RegisteredCluster(clusterId);
+        mClusters.put(clusterId, registered);
+      }
+      return registered;
+    }
+  }
+
+  /**
+   * Registers a JVM shutdown hook that stops the running shared clusters, so they are stopped
+   * at the end of the reactor build even if no 'stop' goal gets the chance to.
+   *
+   * @param log The maven log.
+   */
+  private void registerShutdownHook(final Log log) {
+    synchronized (mClusters) {
+      if (null != mShutdownHook) {
+        return;
+      }
+      mShutdownHook = new Thread("hbase-maven-plugin-shutdown") {
+        @Override
+        public void run() {
+          List<RegisteredCluster> clusters;
+          synchronized (mClusters) {
+            clusters = new ArrayList<RegisteredCluster>(mClusters.values());
+          }
+          for (RegisteredCluster registered : clusters) {
+            synchronized (registered) {
+              if (registered.isShared()) {
+                registered.stop(log);
+              }
+            }
+          }
+        }
+      };
+      Runtime.getRuntime().addShutdownHook(mShutdownHook);
+    }
+  }
+
+  /** A cluster registered under a cluster id.  Guarded by its own monitor. */
+  private static final class RegisteredCluster {
+    /** The id the cluster is registered under. */
+    private final String mClusterId;
+    /** The thread that runs the mini HBase cluster. */
+    private MiniHBaseClusterThread mThread;
+    /** The HBase cluster being run. */
+    private MiniHBaseCluster mCluster;
+    /** The configuration key of the running cluster if it is shared, otherwise null. */
+    private String mShareKey;
+    /** The number of users currently holding the cluster. */
+    private int mReferenceCount;
+    /** The tables that existed when each user acquired the cluster, by user. */
+    private final Map<String, Set<String>> mBaselineTables = new HashMap<String, Set<String>>();
+
+    /**
+     * Creates a new <code>RegisteredCluster</code> instance.
+     *
+     * @param clusterId The id the cluster is registered under.
+     */
+    private RegisteredCluster(String clusterId) {
+      mClusterId = clusterId;
+    }
+
+    /**
+     * Determines whether the cluster thread is running.
+     *
+     * @return Whether the cluster thread is running.
+     */
+    private boolean isRunning() {
+      return null != mThread && mThread.isAlive();
+    }
+
+    /**
+     * Determines whether a shared cluster is running.
+     *
+     * @return Whether a shared cluster is running.
+     */
+    private boolean isShared() {
+      return null != mShareKey && isRunning();
+    }
+
+    /**
+     * Stops the cluster gracefully and blocks until is has been shutdown completely.
+     *
+     * @param log The maven log.
+     */
+    private void stop(Log log) {
+      stop(log, 0L);
+    }
+
+    /**
+     * Stops the cluster and blocks until is has been shutdown completely.
+     *
+     * @param log The maven log.
+     * @param abortTimeoutMillis If positive, the cluster is aborted within about this many
+     *     milliseconds.  If 0, it is stopped gracefully.
+     */
+    private void stop(Log log, long abortTimeoutMillis) {
+      if (null == mCluster) {
+        log.error("Attempted to stop the cluster '" + mClusterId
+            + "', but it was never started in this process.");
+        return;
+      }
+      mShareKey = null;
+      mReferenceCount = 0;
+      mBaselineTables.clear();
+
+      log.info("Stopping the HBase cluster thread...");
+      if (abortTimeoutMillis > 0) {
+        mThread.abortCluster(abortTimeoutMillis);
+      } else {
+        mThread.stopClusterGracefully();
+      }
+      long stopTimeoutMillis =
+          abortTimeoutMillis > 0 ? abortTimeoutMillis : mCluster.getStopTimeoutMillis();
+      long waitMillis = stopTimeoutMillis > 0 ? stopTimeoutMillis + STOP_GRACE_MILLIS : 0L;
+      long deadline = System.currentTimeMillis() + waitMillis;
+      boolean finished = false;
+      while (!finished) {
+        try {
+          finished = mThread.waitUntilFinished(
+              0L == waitMillis ? 0L : Math.max(1L, deadline - System.currentTimeMillis()));
+          if (!finished) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          log.debug("HBase cluster thread interrupted.");
+        }
+      }
+      if (finished) {
+        log.info("HBase cluster thread stopped.");
+        return;
+      }
+      StringBuilder stack = new StringBuilder();
+      for (StackTraceElement frame : mThread.getStackTrace()) {
+        stack.append("\n    at ").append(frame);
       }
+      log.warn("The HBase cluster thread did not stop within " + waitMillis
+          + " ms.  Leaving it behind." + stack);
     }
-    log.info("HBase cluster thread stopped.");
   }
 }
@@ -17,6 +17,10 @@
 
 package org.kiji.maven.plugins.hbase;
 
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.maven.plugin.logging.Log;
 
 /**
@@ -32,8 +36,23 @@ public class MiniHBaseClusterThread extends Thread implements MavenLoggable {
   /** Whether the cluster is started and ready. */
   private volatile boolean mIsClusterReady;
 
-  /** Whether the thread has been asked to stop. */
-  private volatile boolean mIsStopRequested;
+  /** The error that prevented the cluster from starting, if any. */
+  private volatile Throwable mStartupFailure;
+
+  /** Released once the cluster has either started or failed to start. */
+  private final CountDownLatch mStartupLatch;
+
+  /** Released when the thread is asked to stop the cluster. */
+  private final CountDownLatch mStopRequestLatch;
+
+  /** Released when the thread is about to exit. */
+  private final CountDownLatch mFinishedLatch;
+
+  /**
+   * If positive, the cluster is aborted instead of shut down gracefully, within about this many
+   * milliseconds.
+   */
+  private volatile long mAbortTimeoutMillis;
 
   /**
    * Creates a new <code>MiniHBaseClusterThread</code> instance.
@@ -45,7 +64,9 @@ public class MiniHBaseClusterThread extends Thread implements MavenLoggable {
     mLog = log;
     mHBaseCluster = hbaseCluster;
     mIsClusterReady = false;
-    mIsStopRequested = false;
+    mStartupLatch = new CountDownLatch(1);
+    mStopRequestLatch = new CountDownLatch(1);
+    mFinishedLatch = new CountDownLatch(1);
   }
 
   /**
@@ -57,12 +78,74 @@ public class MiniHBaseClusterThread extends Thread implements MavenLoggable {
     return mIsClusterReady;
   }
 
+  /**
+   * Blocks until the HBase cluster has started, failed to start, or the timeout expires.
+   *
+   * @param timeoutMillis The maximum time to wait, or 0 to wait forever.
+   * @throws IOException If the cluster failed to start, did not start in time, or the wait was
+   *     interrupted.
+   */
+  public void waitUntilReady(long timeoutMillis) throws IOException {
+    try {
+      if (timeoutMillis > 0) {
+        if (!mStartupLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new IOException(
+              "HBase cluster did not start within " + timeoutMillis + " milliseconds.");
+        }
+      } else {
+        mStartupLatch.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the HBase cluster to start.");
+    }
+    if (null != mStartupFailure) {
+      IOException ioe = new IOException("HBase cluster failed to start.");
+      ioe.initCause(mStartupFailure);
+      throw ioe;
+    }
+  }
+
   /**
    * Stops the HBase cluster gracefully.  When it is fully shut down, the thread will exit.
    */
   public void stopClusterGracefully() {
-    mIsStopRequested = true;
-    interrupt();
+    mStopRequestLatch.countDown();
+  }
+
+  /**
+   * Stops the HBase cluster as fast as possible, abandoning its data.  The thread exits within
+   * about the given time.
+   *
+   * @param timeoutMillis The maximum time to wait for the cluster to stop.
+   */
+  public void abortCluster(long timeoutMillis) {
+    mAbortTimeoutMillis = Math.max(1L, timeoutMillis);
+    mStopRequestLatch.countDown();
+  }
+
+  /**
+   * Blocks until the thread has finished shutting down the cluster.
+   *
+   * @throws InterruptedException If the wait is interrupted.
+   */
+  public void waitUntilFinished() throws InterruptedException {
+    mFinishedLatch.await();
+  }
+
+  /**
+   * Blocks until the thread has finished shutting down the cluster, or the timeout expires.
+   *
+   * @param timeoutMillis The maximum time to wait, or 0 to wait forever.
+   * @return Whether the thread has finished.
+   * @throws InterruptedException If the wait is interrupted.
+   */
+  public boolean waitUntilFinished(long timeoutMillis) throws InterruptedException {
+    if (timeoutMillis <= 0) {
+      waitUntilFinished();
+      return true;
+    }
+    return mFinishedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
   }
 
   @Override
@@ -73,30 +156,51 @@ public class MiniHBaseClusterThread extends Thread implements MavenLoggable {
   /**
    * Runs the mini HBase cluster.
    *
-   * <p>This method blocks until {@link #stopClusterGracefully()} is called.</p>
+   * <p>This method blocks until {@link #stopClusterGracefully()} or {@link #abortCluster(long)}
+   * is called.</p>
    */
   @Override
   public void run() {
+    try {
+      runCluster();
+    } finally {
+      mFinishedLatch.countDown();
+    }
+  }
+
+  /**
+   * Starts the cluster, waits for a stop request, then shuts the cluster down.
+   */
+  private void runCluster() {
     getLog().info("Starting up HBase cluster...");
     try {
       mHBaseCluster.startup();
-    } catch (Exception e) {
-      getLog().error("Unable to start an HBase cluster.", e);
+    } catch (Throwable t) {
+      getLog().error("Unable to start an HBase cluster.", t);
+      mStartupFailure = t;
+      mStartupLatch.countDown();
       return;
     }
     getLog().info("HBase cluster started.");
     mIsClusterReady = true;
-    yield();
+    mStartupLatch.countDown();
 
-    // Twiddle our thumbs until somebody requests the thread to stop.
-    while (!mIsStopRequested) {
+    // Block until somebody requests the thread to stop.
+    boolean stopRequested = false;
+    while (!stopRequested) {
       try {
-        sleep(1000);
+        mStopRequestLatch.await();
+        stopRequested = true;
       } catch (InterruptedException e) {
         getLog().debug("Main thread interrupted while waiting for cluster to stop.");
       }
     }
 
+    if (mAbortTimeoutMillis > 0) {
+      getLog().info("Aborting the HBase cluster...");
+      mHBaseCluster.abort(mAbortTimeoutMillis);
+      return;
+    }
     getLog().info("Starting graceful shutdown of the HBase cluster...");
     try {
       mHBaseCluster.shutdown();
@@ -0,0 +1,203 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip stream that compresses on several threads, like pigz.
+ *
+ * <p>The data is split into blocks, and each block is compressed on its own as a separate gzip
+ * member.  The members are written in order.  A file of concatenated gzip members is a valid gzip
+ * file, which gzip and tar decompress as a whole.  It is slightly larger than a file compressed
+ * in one piece, because no block can refer back to the data of the previous one.</p>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+  /** The size of the blocks compressed on their own. */
+  static final int BLOCK_SIZE = 1024 * 1024;
+
+  /** The stream the compressed data is written to. */
+  private final OutputStream mOut;
+
+  /** Compresses the blocks. */
+  private final ExecutorService mExecutor;
+
+  /** The maximum number of blocks being compressed or waiting to be written. */
+  private final int mMaxPending;
+
+  /** The blocks being compressed, in order. */
+  private final LinkedList<Future<byte[]>> mPending = new LinkedList<Future<byte[]>>();
+
+  /** The block being filled. */
+  private byte[] mBlock = new byte[BLOCK_SIZE];
+
+  /** The number of bytes in the block being filled. */
+  private int mBlockLength;
+
+  /** Whether any block has been compressed. */
+  private boolean mIsStarted;
+
+  /** Whether the stream is closed. */
+  private boolean mIsClosed;
+
+  /** The number of compressed bytes written. */
+  private long mCompressedBytes;
+
+  /**
+   * Creates a new <code>ParallelGzipOutputStream</code> instance.
+   *
+   * @param out The stream to write the compressed data to.  It is closed with this stream.
+   * @param threads The number of compression threads.
+   */
+  public ParallelGzipOutputStream(OutputStream out, int threads) {
+    mOut = out;
+    mMaxPending = 2 * Math.max(1, threads);
+    mExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "hbase-maven-plugin-gzip");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Gets the number of compressed bytes written so far.
+   *
+   * @return The compressed size.
+   */
+  public long getCompressedBytes() {
+    return mCompressedBytes;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (mIsClosed) {
+      throw new IOException("The stream is closed.");
+    }
+    int written = 0;
+    while (written < length) {
+      int chunk = Math.min(length - written, BLOCK_SIZE - mBlockLength);
+      System.arraycopy(bytes, offset + written, mBlock, mBlockLength, chunk);
+      mBlockLength += chunk;
+      written += chunk;
+      if (BLOCK_SIZE == mBlockLength) {
+        submitBlock();
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    if (mIsClosed) {
+      return;
+    }
+    mIsClosed = true;
+    try {
+      if (mBlockLength > 0 || !mIsStarted) {
+        submitBlock();
+      }
+      while (!mPending.isEmpty()) {
+        writeNextMember();
+      }
+    } finally {
+      mExecutor.shutdownNow();
+      mOut.close();
+    }
+  }
+
+  /**
+   * Starts compressing the block being filled, first writing out compressed blocks while too
+   * many are pending.
+   *
+   * @throws IOException If a compressed block cannot be written.
+   */
+  private void submitBlock() throws IOException {
+    while (mPending.size() >= mMaxPending) {
+      writeNextMember();
+    }
+    final byte[] block = mBlock;
+    final int length = mBlockLength;
+    mPending.add(mExecutor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return compress(block, length);
+      }
+    }));
+    mIsStarted = true;
+    mBlock = new byte[BLOCK_SIZE];
+    mBlockLength = 0;
+  }
+
+  /**
+   * Waits for the oldest pending block to be compressed and writes it.
+   *
+   * @throws IOException If the block cannot be compressed or written.
+   */
+  private void writeNextMember() throws IOException {
+    byte[] member;
+    try {
+      member = mPending.removeFirst().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing.");
+    } catch (ExecutionException e) {
+      IOException ioe = new IOException("Unable to compress a block.");
+      ioe.initCause(e.getCause());
+      throw ioe;
+    }
+    mOut.write(member);
+    mCompressedBytes += member.length;
+  }
+
+  /**
+   * Compresses a block as a gzip member.
+   *
+   * @param block The data.
+   * @param length The number of bytes of data.
+   * @return The gzip member.
+   * @throws IOException If the block cannot be compressed.
+   */
+  static byte[] compress(byte[] block, int length) throws IOException {
+    ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+    GZIPOutputStream gzip = new GZIPOutputStream(member);
+    gzip.write(block, 0, length);
+    gzip.close();
+    return member.toByteArray();
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Writes pathing jars: empty jars whose manifest Class-Path lists a classpath.  A JVM, or a
+ * MapReduce child JVM, started with just the pathing jar on its classpath sees the whole
+ * classpath, while java.class.path stays short.
+ *
+ * <p>Pathing jars are named after a digest of their classpath, so a jar is reused until the
+ * classpath changes.</p>
+ */
+public final class PathingJar {
+  /** Disable the constructor for this utility class. */
+  private PathingJar() {}
+
+  /**
+   * Gets the pathing jar of a classpath, writing it if it does not exist yet.
+   *
+   * @param dir The directory pathing jars are cached in.
+   * @param components The classpath components, in order.
+   * @return The pathing jar.
+   * @throws IOException If the jar cannot be written.
+   */
+  public static File getOrCreate(File dir, List<String> components) throws IOException {
+    File jar = new File(dir, "classpath-" + ConfigurationDigest.digest(components) + ".jar")
+        .getAbsoluteFile();
+    if (jar.isFile()) {
+      return jar;
+    }
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Unable to create directory " + dir.getPath());
+    }
+
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.put(Attributes.Name.CLASS_PATH, toManifestClassPath(components));
+
+    // Write to a temporary file first, so a concurrent build never sees a partial jar.
+    File tempJar = File.createTempFile("classpath-", ".tmp", dir);
+    try {
+      FileOutputStream out = new FileOutputStream(tempJar);
+      try {
+        new JarOutputStream(out, manifest).close();
+      } finally {
+        out.close();
+      }
+      if (!tempJar.renameTo(jar) && !jar.isFile()) {
+        throw new IOException("Unable to write pathing jar " + jar.getPath());
+      }
+    } finally {
+      if (tempJar.exists() && !tempJar.delete()) {
+        tempJar.deleteOnExit();
+      }
+    }
+    return jar;
+  }
+
+  /**
+   * Converts classpath components into the space separated URLs of a manifest Class-Path.
+   *
+   * @param components The classpath components.  Empty components are skipped.
+   * @return The Class-Path attribute value.
+   */
+  static String toManifestClassPath(List<String> components) {
+    StringBuilder classPath = new StringBuilder();
+    for (String component : components) {
+      if (component.isEmpty()) {
+        continue;
+      }
+      File file = new File(component).getAbsoluteFile();
+      String url = file.toURI().toString();
+      // Directories must end with a slash to be searched for classes.  A missing directory,
+      // like test-classes before anything is compiled into it, is recognized by its name.
+      String name = file.getName().toLowerCase();
+      if (!url.endsWith("/") && !file.isFile() && !name.endsWith(".jar")
+          && !name.endsWith(".zip")) {
+        url = url + "/";
+      }
+      if (classPath.length() > 0) {
+        classPath.append(' ');
+      }
+      classPath.append(url);
+    }
+    return classPath.toString();
+  }
+}
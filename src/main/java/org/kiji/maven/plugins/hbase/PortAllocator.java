@@ -0,0 +1,335 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Reserves ports for the servers of a cluster, so that clusters started concurrently on the same
+ * host, in the same process or in different ones, never pick the same port.
+ *
+ * <p>Reservations are kept in a host-wide registry directory holding one lock file per port.  A
+ * port is reserved by holding an exclusive lock on its file, and is only handed out if it can also
+ * be bound.  The lock is held until the reservation is released, normally when the cluster stops.
+ * Since the operating system drops the locks of a process that dies, a killed build never leaves
+ * ports reserved.  The lock files themselves are never deleted: deleting a file another process
+ * is about to lock would let two processes reserve the same port.</p>
+ *
+ * <p>Ports are handed out below the operating system's ephemeral port range, from which it picks
+ * the ports of servers that bind to port 0, like the datanodes and task trackers.  Otherwise the
+ * operating system could give a reserved port to one of them before its owner binds it.</p>
+ */
+public class PortAllocator {
+  /** The lowest port handed out. */
+  private static final int MIN_PORT = 20000;
+
+  /** The port above the highest port handed out: the start of the default ephemeral range. */
+  private static final int MAX_PORT = 32768;
+
+  /** The file Linux publishes its ephemeral port range in. */
+  private static final File EPHEMERAL_RANGE_FILE =
+      new File("/proc/sys/net/ipv4/ip_local_port_range");
+
+  /**
+   * The lock files opened by the allocators of this process.  A file must only be opened by one
+   * allocator of a process at a time, because closing any channel of a file drops every lock the
+   * process holds on it.
+   */
+  private static final Set<File> LOCK_FILES_IN_USE = new HashSet<File>();
+
+  /** The registry directory. */
+  private final File mRegistryDir;
+
+  /** Chooses where the search for free ports starts, to spread concurrent searches out. */
+  private final Random mRandom;
+
+  /** The ports reserved by this allocator. */
+  private final List<Reservation> mReservations = new ArrayList<Reservation>();
+
+  /** The lowest and highest ephemeral port of the host, which are never handed out. */
+  private final int[] mEphemeralRange;
+
+  /** A reserved port and the lock that reserves it. */
+  private static final class Reservation {
+    /** The port. */
+    private final int mPort;
+
+    /** The lock file of the port. */
+    private final File mLockFile;
+
+    /** The open lock file of the port. */
+    private final RandomAccessFile mFile;
+
+    /** The lock on the lock file. */
+    private final FileLock mLock;
+
+    /**
+     * Creates a new <code>Reservation</code> instance.
+     *
+     * @param port The port.
+     * @param lockFile The lock file of the port.
+     * @param file The open lock file of the port.
+     * @param lock The lock on the lock file.
+     */
+    private Reservation(int port, File lockFile, RandomAccessFile file, FileLock lock) {
+      mPort = port;
+      mLockFile = lockFile;
+      mFile = file;
+      mLock = lock;
+    }
+
+    /**
+     * Releases the lock and closes the lock file.
+     */
+    private void release() {
+      try {
+        mLock.release();
+      } catch (IOException e) {
+        // Closing the file releases the lock anyway.
+      }
+      closeQuietly(mFile);
+      synchronized (LOCK_FILES_IN_USE) {
+        LOCK_FILES_IN_USE.remove(mLockFile);
+      }
+    }
+  }
+
+  /**
+   * Creates a new <code>PortAllocator</code> instance.
+   *
+   * @param registryDir The host-wide registry directory.  All allocators that must not hand out
+   *     the same ports have to use the same directory.
+   */
+  public PortAllocator(File registryDir) {
+    this(registryDir, new Random());
+  }
+
+  /**
+   * Creates a new <code>PortAllocator</code> instance.
+   *
+   * @param registryDir The host-wide registry directory.
+   * @param random Chooses where the search for free ports starts.
+   */
+  PortAllocator(File registryDir, Random random) {
+    this(registryDir, random, readEphemeralRange(EPHEMERAL_RANGE_FILE));
+  }
+
+  /**
+   * Creates a new <code>PortAllocator</code> instance.
+   *
+   * @param registryDir The host-wide registry directory.
+   * @param random Chooses where the search for free ports starts.
+   * @param ephemeralRange The lowest and highest ephemeral port of the host.
+   */
+  PortAllocator(File registryDir, Random random, int[] ephemeralRange) {
+    mRegistryDir = registryDir;
+    mRandom = random;
+    mEphemeralRange = ephemeralRange;
+  }
+
+  /**
+   * Reads the ephemeral port range of the host.
+   *
+   * @param rangeFile The file holding the lowest and highest ephemeral port.
+   * @return The lowest and highest ephemeral port, or the default Linux range if the file cannot
+   *     be read.
+   */
+  static int[] readEphemeralRange(File rangeFile) {
+    int[] defaultRange = new int[] {MAX_PORT, 60999};
+    if (!rangeFile.canRead()) {
+      return defaultRange;
+    }
+    try {
+      String[] bounds =
+          FileUtils.readFileToString(rangeFile, Charsets.UTF_8.name()).trim().split("\\s+");
+      if (bounds.length != 2) {
+        return defaultRange;
+      }
+      return new int[] {Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1])};
+    } catch (IOException e) {
+      return defaultRange;
+    } catch (NumberFormatException e) {
+      return defaultRange;
+    }
+  }
+
+  /**
+   * Gets the registry directory the clusters of this user on this host share.
+   *
+   * @return The default registry directory.
+   */
+  public static File getDefaultRegistryDir() {
+    return new File(System.getProperty("java.io.tmpdir"),
+        "hbase-maven-plugin-ports-" + System.getProperty("user.name"));
+  }
+
+  /**
+   * Reserves free ports in a single pass over the port range.
+   *
+   * @param count The number of ports to reserve.
+   * @return The reserved ports.
+   * @throws IOException If not enough ports can be reserved.
+   */
+  public synchronized int[] reserve(int count) throws IOException {
+    if (!mRegistryDir.isDirectory() && !mRegistryDir.mkdirs() && !mRegistryDir.isDirectory()) {
+      throw new IOException("Unable to create port registry " + mRegistryDir.getPath());
+    }
+    int range = MAX_PORT - MIN_PORT;
+    int start = mRandom.nextInt(range);
+    List<Reservation> reserved = new ArrayList<Reservation>(count);
+    for (int i = 0; i < range && reserved.size() < count; i++) {
+      int port = MIN_PORT + (start + i) % range;
+      if (port >= mEphemeralRange[0] && port <= mEphemeralRange[1]) {
+        continue;
+      }
+      Reservation reservation = tryReserve(port);
+      if (null != reservation) {
+        reserved.add(reservation);
+      }
+    }
+    if (reserved.size() < count) {
+      for (Reservation reservation : reserved) {
+        reservation.release();
+      }
+      throw new IOException("Only " + reserved.size() + " of " + count + " ports between "
+          + MIN_PORT + " and " + (MAX_PORT - 1) + " outside the ephemeral range "
+          + mEphemeralRange[0] + "-" + mEphemeralRange[1] + " are free.");
+    }
+
+    mReservations.addAll(reserved);
+    int[] ports = new int[count];
+    for (int i = 0; i < count; i++) {
+      ports[i] = reserved.get(i).mPort;
+    }
+    return ports;
+  }
+
+  /**
+   * Gets the ports this allocator holds.
+   *
+   * @return The reserved ports.
+   */
+  public synchronized List<Integer> getReservedPorts() {
+    List<Integer> ports = new ArrayList<Integer>();
+    for (Reservation reservation : mReservations) {
+      ports.add(reservation.mPort);
+    }
+    return ports;
+  }
+
+  /**
+   * Releases every port this allocator holds.
+   */
+  public synchronized void releaseAll() {
+    for (Reservation reservation : mReservations) {
+      reservation.release();
+    }
+    mReservations.clear();
+  }
+
+  /**
+   * Tries to reserve a port.
+   *
+   * @param port The port.
+   * @return The reservation, or null if the port is reserved by someone else or in use.
+   */
+  private Reservation tryReserve(int port) {
+    File lockFile = new File(mRegistryDir, port + ".lock").getAbsoluteFile();
+    synchronized (LOCK_FILES_IN_USE) {
+      if (!LOCK_FILES_IN_USE.add(lockFile)) {
+        // Another allocator in this process holds or is trying the port.
+        return null;
+      }
+    }
+    RandomAccessFile file = null;
+    FileLock lock = null;
+    try {
+      file = new RandomAccessFile(lockFile, "rw");
+      lock = file.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    } catch (IOException e) {
+      lock = null;
+    }
+    if (null == lock) {
+      closeQuietly(file);
+      synchronized (LOCK_FILES_IN_USE) {
+        LOCK_FILES_IN_USE.remove(lockFile);
+      }
+      return null;
+    }
+    Reservation reservation = new Reservation(port, lockFile, file, lock);
+    if (!isBindable(port)) {
+      reservation.release();
+      return null;
+    }
+    return reservation;
+  }
+
+  /**
+   * Determines whether a port can be bound right now.
+   *
+   * @param port The port.
+   * @return Whether the port is free.
+   */
+  static boolean isBindable(int port) {
+    ServerSocket socket = null;
+    try {
+      socket = new ServerSocket(port);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (null != socket) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Shouldn't happen.
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes a file, ignoring errors.
+   *
+   * @param file The file, or null.
+   */
+  private static void closeQuietly(RandomAccessFile file) {
+    if (null != file) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        // Nothing left to clean up.
+      }
+    }
+  }
+}
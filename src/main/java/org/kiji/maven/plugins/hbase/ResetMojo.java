@@ -0,0 +1,186 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A maven goal that resets tables of the cluster started by the 'start' goal to a clean state,
+ * which is much faster than stopping and starting the cluster between test suites.
+ *
+ * <p>Tables whose state was saved by the 'start' goal (see its 'snapshots' parameter) are
+ * restored to the state they had right after they were created and seeded.  Other tables are
+ * truncated.  See {@link TableResetter}, which tests can also use directly.</p>
+ *
+ * @goal reset
+ */
+public class ResetMojo extends AbstractMojo {
+  /**
+   * If true, this goal should be a no-op.
+   *
+   * @parameter property="skip" default-value="false"
+   */
+  private boolean mSkip;
+
+  /**
+   * The names of the tables to reset.  By default, the tables listed in the tables file are
+   * reset.
+   *
+   * @parameter property="resetTables"
+   */
+  private List<String> mResetTables;
+
+  /**
+   * The file listing the tables created by the 'start' goal.
+   *
+   * @parameter property="tablesFile" expression="${hbase.tables.file}" default-value="${project.build.testOutputDirectory}/hbase-tables.txt"
+   */
+  private File mTablesFile;
+
+  /**
+   * How to reset the tables: "auto", "snapshot", "truncate", or "delete" to delete their rows
+   * while keeping them online.
+   *
+   * @parameter property="resetMethod" expression="${hbase.reset.method}" default-value="auto"
+   */
+  private String mResetMethod;
+
+  /**
+   * The HBase site file written by the 'start' goal.
+   *
+   * @parameter property="hbaseSiteFile" expression="${hbase.site.file}" default-value="${project.build.testOutputDirectory}/hbase-site.xml"
+   * @required
+   */
+  private File mHBaseSiteFile;
+
+  /**
+   * The core site file written by the 'start' goal, if it wrote separate configuration files.
+   *
+   * @parameter property="coreSiteFile" expression="${core.site.file}" default-value="${project.build.testOutputDirectory}/core-site.xml"
+   */
+  private File mCoreSiteFile;
+
+  /**
+   * Sets whether this goal should be a no-op.
+   *
+   * @param skip If true, this goal should do nothing.
+   */
+  public void setSkip(boolean skip) {
+    mSkip = skip;
+  }
+
+  /**
+   * Sets the names of the tables to reset.
+   *
+   * @param resetTables The table names.
+   */
+  public void setResetTables(List<String> resetTables) {
+    mResetTables = resetTables;
+  }
+
+  /**
+   * Sets the file listing the tables created by the 'start' goal.
+   *
+   * @param tablesFile The tables file.
+   */
+  public void setTablesFile(File tablesFile) {
+    mTablesFile = tablesFile;
+  }
+
+  /**
+   * Sets how to reset the tables.
+   *
+   * @param resetMethod "auto", "snapshot", "truncate" or "delete".
+   */
+  public void setResetMethod(String resetMethod) {
+    mResetMethod = resetMethod;
+  }
+
+  /**
+   * Sets the HBase site file written by the 'start' goal.
+   *
+   * <p>Note: The property "hbaseSiteFile" defined in this mojo means this method must be
+   * named setHbaseSiteFile instead of setHBaseSiteFile.</p>
+   *
+   * @param hbaseSiteFile The HBase site file.
+   */
+  public void setHbaseSiteFile(File hbaseSiteFile) {
+    mHBaseSiteFile = hbaseSiteFile;
+  }
+
+  /**
+   * Sets the core site file written by the 'start' goal.
+   *
+   * @param coreSiteFile The core site file.
+   */
+  public void setCoreSiteFile(File coreSiteFile) {
+    mCoreSiteFile = coreSiteFile;
+  }
+
+  /**
+   * Resets the tables.
+   *
+   * <p>This method is called by the maven plugin framework to run the goal.</p>
+   *
+   * @throws MojoExecutionException If there is a fatal error during this goal's execution.
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not resetting tables because skip=true.");
+      return;
+    }
+    TableResetter.Method method;
+    try {
+      method = TableResetter.Method.valueOf(mResetMethod.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException("resetMethod must be 'auto', 'snapshot', 'truncate' or "
+          + "'delete', not '" + mResetMethod + "'.");
+    }
+
+    List<String> tables = new ArrayList<String>();
+    try {
+      if (null != mResetTables && !mResetTables.isEmpty()) {
+        tables.addAll(mResetTables);
+      } else if (mTablesFile.exists()) {
+        for (Object line : FileUtils.readLines(mTablesFile, Charsets.UTF_8.name())) {
+          if (!line.toString().trim().isEmpty()) {
+            tables.add(line.toString().trim());
+          }
+        }
+      }
+      if (tables.isEmpty()) {
+        getLog().info("No tables to reset.");
+        return;
+      }
+      Configuration conf = SeedMojo.readClusterConfiguration(mHBaseSiteFile, mCoreSiteFile);
+      new TableResetter(getLog(), conf).reset(tables, method);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to reset tables.", e);
+    }
+  }
+}
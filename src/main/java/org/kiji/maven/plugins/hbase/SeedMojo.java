@@ -0,0 +1,161 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A maven goal that bulk loads fixture files into the tables of the cluster started by the
+ * 'start' goal.
+ *
+ * <p>The cluster is found through the site files written by the 'start' goal, so this goal
+ * works with in-process clusters as well as cluster daemons.  The 'start' goal can also load
+ * fixtures itself, right after it creates its tables.</p>
+ *
+ * <p>If the cluster has snapshots enabled, the state of the seeded tables is saved again once the
+ * fixtures are loaded, replacing the state saved by the 'start' goal, so that the 'reset' goal
+ * restores the seeded data.</p>
+ *
+ * @goal seed
+ * @phase pre-integration-test
+ */
+public class SeedMojo extends AbstractMojo {
+  /**
+   * If true, this goal should be a no-op.
+   *
+   * @parameter property="skip" default-value="false"
+   */
+  private boolean mSkip;
+
+  /**
+   * The fixtures to load.
+   *
+   * @parameter property="fixtures"
+   */
+  private List<Fixture> mFixtures;
+
+  /**
+   * The HBase site file written by the 'start' goal.
+   *
+   * @parameter property="hbaseSiteFile" expression="${hbase.site.file}" default-value="${project.build.testOutputDirectory}/hbase-site.xml"
+   * @required
+   */
+  private File mHBaseSiteFile;
+
+  /**
+   * The core site file written by the 'start' goal, if it wrote separate configuration files.
+   *
+   * @parameter property="coreSiteFile" expression="${core.site.file}" default-value="${project.build.testOutputDirectory}/core-site.xml"
+   */
+  private File mCoreSiteFile;
+
+  /**
+   * Sets whether this goal should be a no-op.
+   *
+   * @param skip If true, this goal should do nothing.
+   */
+  public void setSkip(boolean skip) {
+    mSkip = skip;
+  }
+
+  /**
+   * Sets the fixtures to load.
+   *
+   * @param fixtures The fixtures.
+   */
+  public void setFixtures(List<Fixture> fixtures) {
+    mFixtures = fixtures;
+  }
+
+  /**
+   * Sets the HBase site file written by the 'start' goal.
+   *
+   * <p>Note: The property "hbaseSiteFile" defined in this mojo means this method must be
+   * named setHbaseSiteFile instead of setHBaseSiteFile.</p>
+   *
+   * @param hbaseSiteFile The HBase site file.
+   */
+  public void setHbaseSiteFile(File hbaseSiteFile) {
+    mHBaseSiteFile = hbaseSiteFile;
+  }
+
+  /**
+   * Sets the core site file written by the 'start' goal.
+   *
+   * @param coreSiteFile The core site file.
+   */
+  public void setCoreSiteFile(File coreSiteFile) {
+    mCoreSiteFile = coreSiteFile;
+  }
+
+  /**
+   * Loads the fixtures.
+   *
+   * <p>This method is called by the maven plugin framework to run the goal.</p>
+   *
+   * @throws MojoExecutionException If there is a fatal error during this goal's execution.
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not loading fixtures because skip=true.");
+      return;
+    }
+    if (null == mFixtures || mFixtures.isEmpty()) {
+      getLog().info("No fixtures to load.");
+      return;
+    }
+    Configuration conf = readClusterConfiguration(mHBaseSiteFile, mCoreSiteFile);
+    try {
+      new FixtureLoader(getLog(), conf).load(mFixtures);
+      new TableResetter(getLog(), conf).saveSeededState(FixtureLoader.getTables(mFixtures));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to load fixtures.", e);
+    }
+  }
+
+  /**
+   * Reads the configuration of the cluster from the site files written by the 'start' goal.
+   *
+   * @param hbaseSiteFile The HBase site file.
+   * @param coreSiteFile The core site file, which may not exist.
+   * @return The configuration of the cluster.
+   * @throws MojoExecutionException If there is no HBase site file.
+   */
+  static Configuration readClusterConfiguration(File hbaseSiteFile, File coreSiteFile)
+      throws MojoExecutionException {
+    if (!hbaseSiteFile.exists()) {
+      throw new MojoExecutionException("No HBase site file at " + hbaseSiteFile.getPath()
+          + ".  Run the 'start' goal first.");
+    }
+    Configuration conf = HBaseConfiguration.create();
+    if (null != coreSiteFile && coreSiteFile.exists()) {
+      conf.addResource(new Path(coreSiteFile.getAbsolutePath()));
+    }
+    conf.addResource(new Path(hbaseSiteFile.getAbsolutePath()));
+    return conf;
+  }
+}
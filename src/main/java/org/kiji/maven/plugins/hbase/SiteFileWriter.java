@@ -0,0 +1,203 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Writes the configuration of a cluster to a site file.
+ *
+ * <p>A site file is only written when its content changes, so a build that starts an identical
+ * cluster leaves it untouched for incremental resource processing.  In delta mode, only the
+ * properties that differ from the stock Hadoop and HBase defaults are written, along with the
+ * properties clients need to find the cluster.  Properties are written sorted by name, so the
+ * same configuration always produces the same file.</p>
+ */
+public class SiteFileWriter extends MavenLogged {
+  /** The resources holding the stock defaults. */
+  private static final String[] DEFAULT_RESOURCES = {
+    "core-default.xml", "hdfs-default.xml", "mapred-default.xml", "hbase-default.xml",
+  };
+
+  /** The properties clients need to find the cluster, written even when they are defaults. */
+  static final Set<String> CLUSTER_PROPERTIES = ImmutableSet.of(
+      "fs.defaultFS",
+      "fs.default.name",
+      "hbase.rootdir",
+      "hbase.zookeeper.quorum",
+      "hbase.zookeeper.property.clientPort",
+      "zookeeper.znode.parent",
+      "hbase.master.port",
+      "hbase.regionserver.port",
+      "mapred.job.tracker");
+
+  /** Whether to only write the properties that differ from the defaults. */
+  private final boolean mDeltaOnly;
+
+  /** The stock defaults, once loaded. */
+  private Configuration mDefaults;
+
+  /**
+   * Creates a new <code>SiteFileWriter</code> instance.
+   *
+   * @param log The maven log.
+   * @param deltaOnly Whether to only write the properties that differ from the defaults.
+   */
+  public SiteFileWriter(Log log, boolean deltaOnly) {
+    super(log);
+    mDeltaOnly = deltaOnly;
+  }
+
+  /**
+   * Writes a configuration to a site file, unless the file already has the same content.
+   *
+   * @param conf The configuration to write.
+   * @param siteFile The site file.
+   * @return Whether the file was written.
+   * @throws IOException If the file cannot be read or written.
+   */
+  public boolean write(Configuration conf, File siteFile) throws IOException {
+    return write(getProperties(conf), siteFile);
+  }
+
+  /**
+   * Writes properties to a site file, unless the file already has the same content.
+   *
+   * @param allProperties The raw values of the properties, by name.
+   * @param siteFile The site file.
+   * @return Whether the file was written.
+   * @throws IOException If the file cannot be read or written.
+   */
+  public boolean write(SortedMap<String, String> allProperties, File siteFile)
+      throws IOException {
+    SortedMap<String, String> properties = mDeltaOnly
+        ? getDelta(allProperties, getDefaults())
+        : allProperties;
+    byte[] content = toXml(properties);
+    if (siteFile.isFile() && siteFile.length() == content.length
+        && Arrays.equals(content, FileUtils.readFileToByteArray(siteFile))) {
+      getLog().info(siteFile.getPath() + " is up to date.");
+      return false;
+    }
+    FileUtils.writeByteArrayToFile(siteFile, content);
+    getLog().info("Wrote " + siteFile.getPath() + " (" + properties.size() + " properties).");
+    return true;
+  }
+
+  /**
+   * Gets the stock defaults, loading them the first time.
+   *
+   * @return The default configuration.
+   */
+  private synchronized Configuration getDefaults() {
+    if (null == mDefaults) {
+      mDefaults = new Configuration(false);
+      for (String resource : DEFAULT_RESOURCES) {
+        mDefaults.addResource(resource);
+      }
+    }
+    return mDefaults;
+  }
+
+  /**
+   * Gets every property of a configuration.
+   *
+   * @param conf The configuration.
+   * @return The raw values of its properties, by name.
+   */
+  static SortedMap<String, String> getProperties(Configuration conf) {
+    SortedMap<String, String> properties = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : conf) {
+      properties.put(entry.getKey(), entry.getValue());
+    }
+    return properties;
+  }
+
+  /**
+   * Gets the properties of a configuration that differ from the defaults, and the properties
+   * clients need to find the cluster.
+   *
+   * @param properties The raw values of the properties of the configuration, by name.
+   * @param defaults The defaults.
+   * @return The raw values of the properties, by name.
+   */
+  static SortedMap<String, String> getDelta(
+      SortedMap<String, String> properties, Configuration defaults) {
+    SortedMap<String, String> delta = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      if (CLUSTER_PROPERTIES.contains(entry.getKey())
+          || !Objects.equal(entry.getValue(), defaults.getRaw(entry.getKey()))) {
+        delta.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Serializes properties in the Hadoop configuration file format.
+   *
+   * @param properties The properties, by name.
+   * @return The UTF-8 encoded XML document.
+   * @throws IOException If the document cannot be written.
+   */
+  static byte[] toXml(SortedMap<String, String> properties) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+      xml.writeStartDocument("UTF-8", "1.0");
+      xml.writeCharacters("\n");
+      xml.writeStartElement("configuration");
+      for (Map.Entry<String, String> property : properties.entrySet()) {
+        xml.writeCharacters("\n  ");
+        xml.writeStartElement("property");
+        xml.writeStartElement("name");
+        xml.writeCharacters(property.getKey());
+        xml.writeEndElement();
+        xml.writeStartElement("value");
+        xml.writeCharacters(property.getValue());
+        xml.writeEndElement();
+        xml.writeEndElement();
+      }
+      xml.writeCharacters("\n");
+      xml.writeEndElement();
+      xml.writeCharacters("\n");
+      xml.writeEndDocument();
+      xml.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write configuration XML.", e);
+    }
+    return out.toByteArray();
+  }
+}
@@ -21,13 +21,17 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
 
+import com.google.common.base.Joiner;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.maven.artifact.Artifact;
@@ -57,6 +61,10 @@ import org.apache.maven.project.MavenProject;
  * '${basedir}/target/test-classes/conf-index.conf'. The path to the generated configuration index
  * can be customized by setting the 'hbaseConfIndex' property.</p>
  *
+ * <p>With 'shareCluster' set, the cluster is shared with the later modules of a multi-module
+ * build: a module whose cluster configuration matches the running cluster acquires it and only
+ * writes its configuration files.</p>
+ *
  * @goal start
  * @phase pre-integration-test
  * @requiresDependencyResolution test
@@ -70,9 +78,10 @@ public class StartMojo extends AbstractMojo {
   private boolean mSkip;
 
   /**
-   * If true, the Hadoop temporary directory (given by Hadoop configuration property hadoop.tmp
-   * .dir) will be cleared before the cluster is started, then copied to the project's build
-   * directory before the cluster is shutdown.
+   * If true, the cluster's Hadoop temporary directory (the subdirectory of Hadoop configuration
+   * property hadoop.tmp.dir named after its cluster id, or hadoop.tmp.dir itself if it was set
+   * without a clusterId) will be cleared before the cluster is started, then copied to the
+   * project's build directory before the cluster is shutdown.
    *
    * @parameter property="saveHadoopTmpDir" expression="${save.hadoop.tmp}" default-value="false"
    * @required
@@ -96,6 +105,30 @@ public class StartMojo extends AbstractMojo {
    */
   private boolean mSeparateConfigurationFiles;
 
+  /**
+   * If true, only write the properties that differ from the stock Hadoop and HBase defaults to
+   * the site files, along with the properties clients need to find the cluster.
+   *
+   * @parameter property="minimalSiteFiles" expression="${hbase.site.minimal}" default-value="false"
+   */
+  private boolean mMinimalSiteFiles;
+
+  /**
+   * With separate configuration files, the name prefixes of the properties that go to the
+   * HBase site file instead of the core site file.  Defaults to just "hbase".
+   *
+   * @parameter property="hbaseSitePrefixes"
+   */
+  private List<String> mHBaseSitePrefixes;
+
+  /**
+   * With separate configuration files, the name prefixes of the properties that go to both
+   * site files, like "zookeeper.".
+   *
+   * @parameter property="sharedSitePrefixes"
+   */
+  private List<String> mSharedSitePrefixes;
+
   /**
    * The file that will store the configuration required to connect to the started mini HDFS and
    * MapReduce clusters. This file will be generated by the goal.
@@ -136,6 +169,249 @@ public class StartMojo extends AbstractMojo {
    */
   private Properties mHadoopConfiguration;
 
+  /**
+   * The tuning profile of the cluster: "default", "fast" for short-lived single-host clusters,
+   * or "production-like".  See {@link ClusterProfile} for the properties each one sets.  The
+   * 'hadoopConfiguration' properties override profile values.
+   *
+   * @parameter property="profile" expression="${hbase.profile}" default-value="default"
+   */
+  private String mProfile;
+
+  /**
+   * If true, configure the cluster for non-durable writes: the tables created by this goal use
+   * deferred log flush, memstores flush less often, and HDFS syncs less.  See
+   * {@link WriteDurability}.  Writes are faster, but a failing regionserver loses data.
+   *
+   * @parameter property="nonDurableWrites" expression="${hbase.non.durable.writes}" default-value="false"
+   */
+  private boolean mNonDurableWrites;
+
+  /**
+   * The maximum number of seconds to wait for the cluster to start, or 0 to wait forever.
+   *
+   * @parameter property="startTimeout" expression="${hbase.start.timeout}" default-value="600"
+   */
+  private int mStartTimeout;
+
+  /**
+   * The maximum number of seconds a graceful stop of the cluster may take, or 0 for no limit.
+   * Components still stopping by then are forcibly halted and left behind.
+   *
+   * @parameter property="stopTimeout" expression="${hbase.stop.timeout}" default-value="120"
+   */
+  private int mStopTimeout;
+
+  /**
+   * The maximum number of seconds each component (DFS, ZooKeeper, an HBase instance or
+   * MapReduce) may take to stop gracefully, or 0 for no limit.  A component still stopping by
+   * then is forcibly halted and left behind, and the thread stacks are logged.
+   *
+   * @parameter property="componentStopTimeout" expression="${hbase.component.stop.timeout}" default-value="60"
+   */
+  private int mComponentStopTimeout;
+
+  /**
+   * If true, start the cluster from a cached image of a freshly bootstrapped cluster instead of
+   * formatting HDFS and bootstrapping the catalog tables on every start.
+   *
+   * @parameter property="useImageCache" expression="${hbase.image.cache}" default-value="false"
+   */
+  private boolean mUseImageCache;
+
+  /**
+   * The directory that holds cached cluster images.
+   *
+   * @parameter property="imageCacheDir" expression="${hbase.image.cache.dir}" default-value="${user.home}/.m2/hbase-maven-plugin/images"
+   */
+  private File mImageCacheDir;
+
+  /**
+   * If true, run the cluster in a long-lived background process that later builds with the same
+   * configuration attach to, instead of in the maven JVM.
+   *
+   * @parameter property="daemon" expression="${hbase.daemon}" default-value="false"
+   */
+  private boolean mDaemon;
+
+  /**
+   * The directory that holds the state of cluster daemons.
+   *
+   * @parameter property="daemonDir" expression="${hbase.daemon.dir}" default-value="${user.home}/.m2/hbase-maven-plugin/daemons"
+   */
+  private File mDaemonDir;
+
+  /**
+   * The number of minutes a cluster daemon may go unused before it shuts itself down.
+   *
+   * @parameter property="daemonIdleTimeout" expression="${hbase.daemon.idle.timeout}" default-value="120"
+   */
+  private int mDaemonIdleTimeout;
+
+  /**
+   * If true, share the cluster with the later modules of a multi-module build.  Modules whose
+   * cluster configuration matches reuse the running cluster instead of starting their own.
+   *
+   * @parameter property="shareCluster" expression="${hbase.share.cluster}" default-value="false"
+   */
+  private boolean mShareCluster;
+
+  /**
+   * If true, the tables a module creates in a shared cluster are deleted by its 'stop' goal.
+   *
+   * @parameter property="cleanupSharedTables" expression="${hbase.cleanup.shared.tables}" default-value="true"
+   */
+  private boolean mCleanupSharedTables;
+
+  /**
+   * The id of the cluster in this JVM.  Modules built in parallel (mvn -T) run separate clusters
+   * with separate ports, temporary directories and site files as long as their cluster ids
+   * differ.  By default a shared cluster is called 'shared', and every other cluster is named
+   * after its module's groupId:artifactId.
+   *
+   * @parameter property="clusterId" expression="${hbase.cluster.id}"
+   */
+  private String mClusterId;
+
+  /**
+   * The number of HBase instances to run on the cluster's DFS and ZooKeeper.  The first instance
+   * is described by the HBase site file as usual.  Each additional instance N has its own root
+   * directory and parent znode, and is described by a site file with "-N" added to the name of
+   * the HBase site file (hbase-site-1.xml, hbase-site-2.xml, ...).
+   *
+   * @parameter property="hbaseInstances" expression="${hbase.instances}" default-value="1"
+   */
+  private int mHBaseInstances;
+
+  /**
+   * The number of HBase masters, or "auto".
+   *
+   * @parameter property="masters" expression="${hbase.masters}" default-value="1"
+   */
+  private String mMasters;
+
+  /**
+   * The number of HBase regionservers, or "auto" to use one per two processors, as far as the
+   * heap allows.
+   *
+   * @parameter property="regionServers" expression="${hbase.regionservers}" default-value="1"
+   */
+  private String mRegionServers;
+
+  /**
+   * The number of DFS datanodes, or "auto".
+   *
+   * @parameter property="dataNodes" expression="${hbase.datanodes}" default-value="1"
+   */
+  private String mDataNodes;
+
+  /**
+   * The number of MapReduce task trackers, or "auto" to use one per four processors.
+   *
+   * @parameter property="taskTrackers" expression="${mapreduce.tasktrackers}" default-value="1"
+   */
+  private String mTaskTrackers;
+
+  /**
+   * Where the cluster keeps its data: "dfs" for a mini DFS cluster, or "local" to keep the HBase
+   * root directory on the local filesystem and skip starting DFS altogether.
+   *
+   * @parameter property="storage" expression="${hbase.storage}" default-value="dfs"
+   */
+  private String mStorage;
+
+  /**
+   * The directory that holds the HBase root directories of clusters with local storage.
+   *
+   * @parameter property="localStorageDir" expression="${hbase.local.storage.dir}" default-value="${project.build.directory}/hbase-storage"
+   */
+  private File mLocalStorageDir;
+
+  /**
+   * If true, keep the cluster's data (DFS blocks, the Hadoop tmp dir, ZooKeeper data and, with
+   * local storage, the HBase root directory) in a RAM-backed directory instead of on disk.
+   *
+   * @parameter property="ramStorage" expression="${hbase.ram.storage}" default-value="false"
+   */
+  private boolean mRamStorage;
+
+  /**
+   * The RAM-backed directory to keep cluster data in.  By default a directory in /dev/shm is
+   * used if there is one.
+   *
+   * @parameter property="ramStorageDir" expression="${hbase.ram.storage.dir}"
+   */
+  private File mRamStorageDir;
+
+  /**
+   * The number of megabytes of RAM-backed storage a cluster may use.  If less than this is
+   * available, the cluster's data is kept on disk instead.
+   *
+   * @parameter property="ramStorageMaxSize" expression="${hbase.ram.storage.max.size}" default-value="2048"
+   */
+  private int mRamStorageMaxSize;
+
+  /**
+   * The tables to create once the cluster is running.  All tables are created concurrently, and
+   * the goal waits until the regions of every table are assigned.
+   *
+   * @parameter property="tables"
+   */
+  private List<Table> mTables;
+
+  /**
+   * The file that will list the names of the tables created by the goal, one per line.
+   *
+   * @parameter property="tablesFile" expression="${hbase.tables.file}" default-value="${project.build.testOutputDirectory}/hbase-tables.txt"
+   */
+  private File mTablesFile;
+
+  /**
+   * Fixture files to bulk load once the tables are created.
+   *
+   * @parameter property="fixtures"
+   */
+  private List<Fixture> mFixtures;
+
+  /**
+   * If true, enable snapshots in the cluster and save the state of the created tables as
+   * snapshots once their fixtures are loaded, so the 'reset' goal can restore it.
+   *
+   * @parameter property="snapshots" expression="${hbase.snapshots}" default-value="false"
+   */
+  private boolean mSnapshots;
+
+  /**
+   * If true, put the classpath of the cluster in the manifest of a pathing jar and set
+   * java.class.path to just that jar, instead of a long list of every classpath component.
+   *
+   * @parameter property="pathingJar" expression="${hbase.pathing.jar}" default-value="false"
+   */
+  private boolean mPathingJar;
+
+  /**
+   * The directory pathing jars are cached in.
+   *
+   * @parameter property="pathingJarDir" expression="${hbase.pathing.jar.dir}" default-value="${project.build.directory}/hbase-classpath"
+   */
+  private File mPathingJarDir;
+
+  /**
+   * The file to write how long each phase of the start took to, as JSON.
+   *
+   * @parameter property="timingReport" expression="${hbase.timing.report}" default-value="${project.build.directory}/hbase-startup-timing.json"
+   */
+  private File mTimingReport;
+
+  /**
+   * The directory of the trend files that keep the phase times of earlier starts, one file per
+   * module.  A warning is logged when a phase takes longer than the 90th percentile of its
+   * recent times.
+   *
+   * @parameter property="timingTrendDir" expression="${hbase.timing.trend.dir}" default-value="${user.home}/.m2/hbase-maven-plugin/trends"
+   */
+  private File mTimingTrendDir;
+
   /**
    * A list of this plugin's dependency artifacts.
    *
@@ -165,7 +441,7 @@ public class StartMojo extends AbstractMojo {
   }
 
   /**
-   * Sets whether the Hadoop temporary directory, given by hadoop.tmp.dir, should be cleared
+   * Sets whether the cluster's Hadoop temporary directory, under hadoop.tmp.dir, should be cleared
    * before the cluster is started and copied to the project build directory before the cluster
    * is shutdown.
    *
@@ -199,6 +475,36 @@ public class StartMojo extends AbstractMojo {
     mSeparateConfigurationFiles = separateConfigurationFiles;
   }
 
+  /**
+   * Sets whether the site files should only hold the properties that differ from the defaults.
+   *
+   * @param minimalSiteFiles Whether to write minimal site files.
+   */
+  public void setMinimalSiteFiles(boolean minimalSiteFiles) {
+    mMinimalSiteFiles = minimalSiteFiles;
+  }
+
+  /**
+   * Sets the name prefixes of the properties that go to the HBase site file.
+   *
+   * <p>Note: The property "hbaseSitePrefixes" defined in this mojo means this method must be
+   * named setHbaseSitePrefixes instead of setHBaseSitePrefixes.</p>
+   *
+   * @param hbaseSitePrefixes The prefixes.
+   */
+  public void setHbaseSitePrefixes(List<String> hbaseSitePrefixes) {
+    mHBaseSitePrefixes = hbaseSitePrefixes;
+  }
+
+  /**
+   * Sets the name prefixes of the properties that go to both site files.
+   *
+   * @param sharedSitePrefixes The prefixes.
+   */
+  public void setSharedSitePrefixes(List<String> sharedSitePrefixes) {
+    mSharedSitePrefixes = sharedSitePrefixes;
+  }
+
   /**
    * Sets the file that we should write the MapReduce/HDFS cluster configuration to.
    *
@@ -247,6 +553,289 @@ public class StartMojo extends AbstractMojo {
     mHadoopConfiguration = properties;
   }
 
+  /**
+   * Sets the tuning profile of the cluster.
+   *
+   * @param profile "default", "fast" or "production-like".
+   */
+  public void setProfile(String profile) {
+    mProfile = profile;
+  }
+
+  /**
+   * Sets whether the cluster should be configured for non-durable writes.
+   *
+   * @param nonDurableWrites Whether writes may be lost when a regionserver fails.
+   */
+  public void setNonDurableWrites(boolean nonDurableWrites) {
+    mNonDurableWrites = nonDurableWrites;
+  }
+
+  /**
+   * Sets the maximum number of seconds to wait for the cluster to start.
+   *
+   * @param startTimeout The start timeout in seconds, or 0 to wait forever.
+   */
+  public void setStartTimeout(int startTimeout) {
+    mStartTimeout = startTimeout;
+  }
+
+  /**
+   * Sets the maximum number of seconds a graceful stop of the cluster may take.
+   *
+   * @param stopTimeout The stop timeout in seconds, or 0 for no limit.
+   */
+  public void setStopTimeout(int stopTimeout) {
+    mStopTimeout = stopTimeout;
+  }
+
+  /**
+   * Sets the maximum number of seconds each component of the cluster may take to stop.
+   *
+   * @param componentStopTimeout The component stop timeout in seconds, or 0 for no limit.
+   */
+  public void setComponentStopTimeout(int componentStopTimeout) {
+    mComponentStopTimeout = componentStopTimeout;
+  }
+
+  /**
+   * Sets whether the cluster should be started from a cached cluster image.
+   *
+   * @param useImageCache Whether to use the cluster image cache.
+   */
+  public void setUseImageCache(boolean useImageCache) {
+    mUseImageCache = useImageCache;
+  }
+
+  /**
+   * Sets the directory that holds cached cluster images.
+   *
+   * @param imageCacheDir The cluster image cache directory.
+   */
+  public void setImageCacheDir(File imageCacheDir) {
+    mImageCacheDir = imageCacheDir;
+  }
+
+  /**
+   * Sets whether the cluster should run in a long-lived background process.
+   *
+   * @param daemon Whether to run the cluster as a daemon.
+   */
+  public void setDaemon(boolean daemon) {
+    mDaemon = daemon;
+  }
+
+  /**
+   * Sets the directory that holds the state of cluster daemons.
+   *
+   * @param daemonDir The cluster daemon registry directory.
+   */
+  public void setDaemonDir(File daemonDir) {
+    mDaemonDir = daemonDir;
+  }
+
+  /**
+   * Sets the number of minutes a cluster daemon may go unused before it shuts itself down.
+   *
+   * @param daemonIdleTimeout The idle timeout in minutes.
+   */
+  public void setDaemonIdleTimeout(int daemonIdleTimeout) {
+    mDaemonIdleTimeout = daemonIdleTimeout;
+  }
+
+  /**
+   * Sets whether the cluster should be shared with the later modules of a multi-module build.
+   *
+   * @param shareCluster Whether to share the cluster.
+   */
+  public void setShareCluster(boolean shareCluster) {
+    mShareCluster = shareCluster;
+  }
+
+  /**
+   * Sets whether the tables a module creates in a shared cluster should be deleted by its 'stop'
+   * goal.
+   *
+   * @param cleanupSharedTables Whether to delete the tables.
+   */
+  public void setCleanupSharedTables(boolean cleanupSharedTables) {
+    mCleanupSharedTables = cleanupSharedTables;
+  }
+
+  /**
+   * Sets the id of the cluster in this JVM.
+   *
+   * @param clusterId The cluster id, or null to derive it from the module.
+   */
+  public void setClusterId(String clusterId) {
+    mClusterId = clusterId;
+  }
+
+  /**
+   * Sets the number of HBase instances to run on the cluster's DFS and ZooKeeper.
+   *
+   * <p>Note: The property "hbaseInstances" defined in this mojo means this method must be named
+   * setHbaseInstances instead of setHBaseInstances.</p>
+   *
+   * @param hbaseInstances The number of HBase instances.
+   */
+  public void setHbaseInstances(int hbaseInstances) {
+    mHBaseInstances = hbaseInstances;
+  }
+
+  /**
+   * Sets the number of HBase masters.
+   *
+   * @param masters The number of masters, or "auto".
+   */
+  public void setMasters(String masters) {
+    mMasters = masters;
+  }
+
+  /**
+   * Sets the number of HBase regionservers.
+   *
+   * @param regionServers The number of regionservers, or "auto".
+   */
+  public void setRegionServers(String regionServers) {
+    mRegionServers = regionServers;
+  }
+
+  /**
+   * Sets the number of DFS datanodes.
+   *
+   * @param dataNodes The number of datanodes, or "auto".
+   */
+  public void setDataNodes(String dataNodes) {
+    mDataNodes = dataNodes;
+  }
+
+  /**
+   * Sets the number of MapReduce task trackers.
+   *
+   * @param taskTrackers The number of task trackers, or "auto".
+   */
+  public void setTaskTrackers(String taskTrackers) {
+    mTaskTrackers = taskTrackers;
+  }
+
+  /**
+   * Sets where the cluster keeps its data.
+   *
+   * @param storage "dfs" or "local".
+   */
+  public void setStorage(String storage) {
+    mStorage = storage;
+  }
+
+  /**
+   * Sets the directory that holds the HBase root directories of clusters with local storage.
+   *
+   * @param localStorageDir The local storage directory.
+   */
+  public void setLocalStorageDir(File localStorageDir) {
+    mLocalStorageDir = localStorageDir;
+  }
+
+  /**
+   * Sets whether the cluster's data should be kept in a RAM-backed directory.
+   *
+   * @param ramStorage Whether to use RAM-backed storage.
+   */
+  public void setRamStorage(boolean ramStorage) {
+    mRamStorage = ramStorage;
+  }
+
+  /**
+   * Sets the RAM-backed directory to keep cluster data in.
+   *
+   * @param ramStorageDir The RAM-backed directory, or null to look for one in /dev/shm.
+   */
+  public void setRamStorageDir(File ramStorageDir) {
+    mRamStorageDir = ramStorageDir;
+  }
+
+  /**
+   * Sets the number of megabytes of RAM-backed storage a cluster may use.
+   *
+   * @param ramStorageMaxSize The maximum size in megabytes.
+   */
+  public void setRamStorageMaxSize(int ramStorageMaxSize) {
+    mRamStorageMaxSize = ramStorageMaxSize;
+  }
+
+  /**
+   * Sets the tables to create once the cluster is running.
+   *
+   * @param tables The table specifications.
+   */
+  public void setTables(List<Table> tables) {
+    mTables = tables;
+  }
+
+  /**
+   * Sets the file that the names of the created tables should be written to.
+   *
+   * @param tablesFile The file we should write to.
+   */
+  public void setTablesFile(File tablesFile) {
+    mTablesFile = tablesFile;
+  }
+
+  /**
+   * Sets the fixture files to bulk load once the tables are created.
+   *
+   * @param fixtures The fixtures.
+   */
+  public void setFixtures(List<Fixture> fixtures) {
+    mFixtures = fixtures;
+  }
+
+  /**
+   * Sets whether the state of the created tables should be saved as snapshots.
+   *
+   * @param snapshots Whether to enable and take snapshots.
+   */
+  public void setSnapshots(boolean snapshots) {
+    mSnapshots = snapshots;
+  }
+
+  /**
+   * Sets whether the classpath of the cluster should be put in a pathing jar.
+   *
+   * @param pathingJar Whether to use a pathing jar.
+   */
+  public void setPathingJar(boolean pathingJar) {
+    mPathingJar = pathingJar;
+  }
+
+  /**
+   * Sets the directory pathing jars are cached in.
+   *
+   * @param pathingJarDir The pathing jar directory.
+   */
+  public void setPathingJarDir(File pathingJarDir) {
+    mPathingJarDir = pathingJarDir;
+  }
+
+  /**
+   * Sets the file to write how long each phase of the start took to.
+   *
+   * @param timingReport The JSON timing report.
+   */
+  public void setTimingReport(File timingReport) {
+    mTimingReport = timingReport;
+  }
+
+  /**
+   * Sets the directory of the trend files that keep the phase times of earlier starts.
+   *
+   * @param timingTrendDir The trend directory.
+   */
+  public void setTimingTrendDir(File timingTrendDir) {
+    mTimingTrendDir = timingTrendDir;
+  }
+
   /**
    * Starts a mini HBase cluster in a new thread.
    *
@@ -261,11 +850,25 @@ public class StartMojo extends AbstractMojo {
       return;
     }
 
-    System.setProperty("java.class.path", getClassPath());
+    StartupTimer timer = new StartupTimer();
+    long phaseStartTime = System.currentTimeMillis();
+    System.setProperty("java.class.path", getRuntimeClassPath());
+    timer.recordSince("classpath", phaseStartTime);
     getLog().info("Set java.class.path to: " + System.getProperty("java.class.path"));
 
-    // Set any extra hadoop options.
+    // Apply the tuning profile, then any extra hadoop options.
     Configuration conf = new Configuration();
+    ClusterProfile profile;
+    try {
+      profile = ClusterProfile.parse(mProfile);
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+    profile.apply(conf);
+    if (mNonDurableWrites) {
+      getLog().info("Configuring the cluster for non-durable writes.");
+      WriteDurability.disable(conf);
+    }
     if (null != mHadoopConfiguration) {
       for (Map.Entry<Object, Object> property : mHadoopConfiguration.entrySet()) {
         String confKey = property.getKey().toString();
@@ -274,33 +877,437 @@ public class StartMojo extends AbstractMojo {
         conf.set(confKey, confValue);
       }
     }
+    if (ClusterProfile.DEFAULT != profile) {
+      getLog().info("Cluster profile '" + profile.getName() + "':");
+      for (String key : profile.getOverrides().keySet()) {
+        getLog().info("  " + key + " = " + conf.get(key));
+      }
+    }
 
-    // If necessary, clear the Hadoop tmp dir.
-    if (mSaveHadoopTmpDir) {
-      removeHadoopTmpDir(conf);
+    if (mSnapshots) {
+      conf.setBoolean("hbase.snapshot.enabled", true);
     }
 
-    // Start the cluster.
+    ClusterSize size;
     try {
-      MiniHBaseClusterSingleton.INSTANCE.startAndWaitUntilReady(
-          getLog(), mIsMapReduceEnabled, conf);
+      size = ClusterSize.resolve(mMasters, mRegionServers, mDataNodes, mTaskTrackers);
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+    getLog().info("Cluster size: " + size);
+    boolean localStorage = "local".equalsIgnoreCase(mStorage);
+    if (!localStorage && !"dfs".equalsIgnoreCase(mStorage)) {
+      throw new MojoExecutionException("storage must be 'dfs' or 'local', not '" + mStorage + "'.");
+    }
+    if (localStorage && mDaemon) {
+      getLog().warn("Ignoring storage=local because the cluster runs as a daemon.");
+      localStorage = false;
+    }
+    if (localStorage && mUseImageCache) {
+      getLog().info("Not using the cluster image cache, since there is no DFS to restore.");
+    }
+
+    // Give each cluster in this JVM its own Hadoop tmp dir, in RAM if requested.  A Hadoop tmp
+    // dir the user chose is only moved if they also chose the cluster id.
+    String clusterId = getClusterId(mClusterId, mShareCluster, mMavenProject);
+    File ramDir = null;
+    if (mRamStorage && mDaemon) {
+      getLog().warn("Ignoring ramStorage because the cluster runs as a daemon.");
+    } else if (mRamStorage) {
+      ramDir = getRamStorageDir(clusterId);
+    }
+    if (null != ramDir) {
+      conf.set("hadoop.tmp.dir", new File(ramDir, "hadoop-tmp").getPath());
+    } else if (!mDaemon && isPerClusterTmpDir(mHadoopConfiguration, mClusterId)) {
+      conf.set("hadoop.tmp.dir",
+          new File(conf.get("hadoop.tmp.dir"), getClusterDirName(clusterId)).getPath());
+    }
+
+    // Acquire a compatible cluster started by an earlier module, if there is one.  The key is
+    // computed before the cluster moves its ports around in the configuration.
+    String shareKey = null;
+    Configuration clusterConf = null;
+    if (mShareCluster && !mDaemon) {
+      shareKey = ConfigurationDigest.digest(conf, "mapreduce=" + mIsMapReduceEnabled,
+          "hbaseInstances=" + mHBaseInstances, size.toString(), "localStorage=" + localStorage,
+          "ramStorage=" + (null != ramDir));
+      phaseStartTime = System.currentTimeMillis();
+      clusterConf = MiniHBaseClusterSingleton.INSTANCE.acquire(getLog(), clusterId, shareKey);
+      timer.recordSince("shared cluster acquisition", phaseStartTime);
+    }
+
+    if (null == clusterConf) {
+      // A cluster an earlier module left running under this id lives in the directories cleared
+      // below, so stop it first.
+      if (!mDaemon) {
+        try {
+          MiniHBaseClusterSingleton.INSTANCE.stopIdle(getLog(), clusterId);
+        } catch (IOException e) {
+          throw new MojoExecutionException("Unable to start HBase cluster.", e);
+        }
+      }
+      if (null != ramDir) {
+        clearRamStorageDir(ramDir);
+      }
+
+      // If necessary, clear the Hadoop tmp dir.  A running cluster daemon may still be using it.
+      if (mSaveHadoopTmpDir && !mDaemon) {
+        phaseStartTime = System.currentTimeMillis();
+        removeHadoopTmpDir(conf);
+        timer.recordSince("Hadoop tmp dir cleanup", phaseStartTime);
+      }
+
+      // Compute the image key before the cluster moves its ports around in the configuration.
+      ClusterImageCache imageCache = null;
+      if (mUseImageCache && !localStorage) {
+        imageCache = new ClusterImageCache(
+            getLog(), mImageCacheDir, ClusterImageCache.computeKey(conf, size.toString()));
+      }
+
+      // Start the cluster, or attach to a cluster daemon.
+      phaseStartTime = System.currentTimeMillis();
+      if (mDaemon) {
+        clusterConf = attachToDaemon(conf, size, imageCache);
+        timer.recordSince("daemon attach", phaseStartTime);
+      } else {
+        File localRootDir = null;
+        if (localStorage && null != ramDir) {
+          localRootDir = new File(new File(ramDir, "local"), "hbase");
+        } else if (localStorage) {
+          localRootDir =
+              new File(new File(mLocalStorageDir, getClusterDirName(clusterId)), "hbase");
+        }
+        clusterConf = startCluster(
+            conf, size, imageCache, localRootDir, ramDir, clusterId, shareKey, timer);
+        timer.recordSince("cluster start", phaseStartTime);
+      }
+    }
+
+    // Remember which tables this module did not create, so its 'stop' goal can clean up.
+    if (null != shareKey && mCleanupSharedTables) {
+      try {
+        MiniHBaseClusterSingleton.INSTANCE.setBaselineTables(clusterId,
+            getModuleId(mMavenProject),
+            new TableCleaner(getLog(), clusterConf).listTables());
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to list the tables of the HBase cluster.", e);
+      }
+    }
+
+    // Create the requested tables, load their fixtures, and save their state for 'reset'.
+    List<String> tableNames = new ArrayList<String>();
+    if (null != mTables && !mTables.isEmpty()) {
+      phaseStartTime = System.currentTimeMillis();
+      tableNames = createTables(clusterConf);
+      timer.recordSince("table creation", phaseStartTime);
+    }
+    try {
+      TableResetter resetter = new TableResetter(getLog(), clusterConf);
+      if (null != mFixtures && !mFixtures.isEmpty()) {
+        phaseStartTime = System.currentTimeMillis();
+        new FixtureLoader(getLog(), clusterConf).load(mFixtures);
+        timer.recordSince("fixture loading", phaseStartTime);
+        // Fixtures may also load into tables this goal did not create.
+        Set<String> seededTables = new LinkedHashSet<String>(tableNames);
+        seededTables.addAll(FixtureLoader.getTables(mFixtures));
+        phaseStartTime = System.currentTimeMillis();
+        resetter.saveSeededState(seededTables);
+        timer.recordSince("table snapshots", phaseStartTime);
+      } else if (mSnapshots && !tableNames.isEmpty()) {
+        phaseStartTime = System.currentTimeMillis();
+        resetter.saveState(tableNames);
+        timer.recordSince("table snapshots", phaseStartTime);
+      }
     } catch (IOException e) {
-      throw new MojoExecutionException("Unable to start HBase cluster.", e);
+      throw new MojoExecutionException("Unable to seed tables.", e);
     }
 
+    phaseStartTime = System.currentTimeMillis();
+    ConfigurationPartitioner partitioner =
+        new ConfigurationPartitioner(mHBaseSitePrefixes, mSharedSitePrefixes);
     if (mSeparateConfigurationFiles) {
       // Write separate core-site and hbase-site files.
-      writeHBaseSiteFile(conf);
-      writeCoreSiteFile(conf);
+      ConfigurationPartitioner.Partition partition = partitioner.partition(clusterConf);
+      writeSiteFile(partition.getHBaseProperties(), mHBaseSiteFile);
+      writeSiteFile(partition.getCoreProperties(), mCoreSiteFile);
     } else {
       // Combine the configs into a single hbase-site file.
-      writeSiteFile(conf, mHBaseSiteFile);
+      writeSiteFile(SiteFileWriter.getProperties(clusterConf), mHBaseSiteFile);
+    }
+
+    // Write the site files of the additional HBase instances.
+    List<File> siteFiles = new ArrayList<File>();
+    siteFiles.add(mHBaseSiteFile);
+    if (mHBaseInstances > 1 && mDaemon) {
+      getLog().warn("Ignoring hbaseInstances because the cluster runs as a daemon.");
+    } else if (mHBaseInstances > 1) {
+      List<Configuration> instanceConfs =
+          MiniHBaseClusterSingleton.INSTANCE.getExtraInstanceConfigurations(clusterId);
+      for (int i = 0; i < instanceConfs.size(); i++) {
+        File siteFile = getInstanceSiteFile(mHBaseSiteFile, i + 1);
+        if (mSeparateConfigurationFiles) {
+          writeSiteFile(partitioner.partition(instanceConfs.get(i)).getHBaseProperties(),
+              siteFile);
+        } else {
+          writeSiteFile(SiteFileWriter.getProperties(instanceConfs.get(i)), siteFile);
+        }
+        siteFiles.add(siteFile);
+      }
     }
 
     // Write the configuration index.
     if (mWriteConfIndex) {
-      writeConfigurationIndex();
+      writeConfigurationIndex(siteFiles);
+    }
+    timer.recordSince("site files", phaseStartTime);
+
+    timer.record("total", System.currentTimeMillis() - timer.getStartTime());
+    writeTimingReport(timer);
+  }
+
+  /**
+   * Writes how long each phase of the start took, and warns about phases that took longer than
+   * they recently did.  Failing to write the report does not fail the goal.
+   *
+   * @param timer The phase times of the start.
+   */
+  private void writeTimingReport(StartupTimer timer) {
+    for (Map.Entry<String, Long> phase : timer.getPhases().entrySet()) {
+      getLog().info(String.format("Startup phase %s took %.1f s.",
+          phase.getKey(), phase.getValue() / 1000.0));
+    }
+    try {
+      createFileParentDir(mTimingReport);
+      timer.writeReport(mTimingReport);
+      getLog().info("Wrote " + mTimingReport.getPath() + ".");
+    } catch (MojoExecutionException e) {
+      getLog().warn("Unable to write the startup timing report.", e);
+    } catch (IOException e) {
+      getLog().warn("Unable to write the startup timing report.", e);
+    }
+    File trendFile = new File(mTimingTrendDir,
+        getClusterDirName(getModuleId(mMavenProject)) + ".tsv");
+    try {
+      for (String warning : timer.updateTrend(trendFile)) {
+        getLog().warn("Slow startup phase: " + warning);
+      }
+    } catch (IOException e) {
+      getLog().warn("Unable to update the startup trend file " + trendFile.getPath(), e);
+    }
+  }
+
+  /**
+   * Creates the requested tables and writes the list of their names.
+   *
+   * @param conf The configuration of the running cluster.
+   * @return The names of the tables.
+   * @throws MojoExecutionException If the tables cannot be created or listed.
+   */
+  private List<String> createTables(Configuration conf) throws MojoExecutionException {
+    List<String> names;
+    try {
+      names = new TableProvisioner(getLog(), conf).createTables(mTables, mStartTimeout * 1000L);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to create tables.", e);
+    }
+
+    createFileParentDir(mTablesFile);
+    PrintWriter fileWriter = null;
+    try {
+      fileWriter = new PrintWriter(new FileOutputStream(mTablesFile));
+      for (String name : names) {
+        fileWriter.println(name);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Unable to write to tables file: " + mTablesFile.getPath(), e);
+    } finally {
+      if (null != fileWriter) {
+        fileWriter.close();
+      }
+    }
+    getLog().info("Wrote " + mTablesFile.getPath() + ".");
+    return names;
+  }
+
+  /**
+   * Gets the site file of an additional HBase instance.
+   *
+   * @param siteFile The site file of the first HBase instance.
+   * @param index The index of the additional instance, from 1.
+   * @return The site file with "-index" added before its extension.
+   */
+  static File getInstanceSiteFile(File siteFile, int index) {
+    String name = siteFile.getName();
+    int extension = name.lastIndexOf('.');
+    if (extension < 0) {
+      return new File(siteFile.getParentFile(), name + "-" + index);
+    }
+    return new File(siteFile.getParentFile(),
+        name.substring(0, extension) + "-" + index + name.substring(extension));
+  }
+
+  /**
+   * Starts a mini HBase cluster in this JVM.
+   *
+   * @param conf The configuration to start the cluster with.
+   * @param size The number of servers of each kind.
+   * @param imageCache The cluster image cache to start from, or null.
+   * @param localRootDir The local HBase root directory, or null to run a mini DFS cluster.
+   * @param ramDir The RAM-backed directory to keep cluster data in, or null.
+   * @param clusterId The id to register the cluster under.
+   * @param shareKey The key to share the cluster with later modules under, or null.
+   * @param timer Records the phase times of the cluster start.
+   * @return The configuration of the running cluster.
+   * @throws MojoExecutionException If the cluster cannot be started.
+   */
+  private Configuration startCluster(Configuration conf, ClusterSize size,
+      ClusterImageCache imageCache, File localRootDir, File ramDir, String clusterId,
+      String shareKey, StartupTimer timer)
+      throws MojoExecutionException {
+    MiniHBaseCluster cluster = new MiniHBaseCluster(getLog(), mIsMapReduceEnabled, conf);
+    cluster.setImageCache(imageCache);
+    cluster.setHBaseInstances(mHBaseInstances);
+    cluster.setClusterSize(size);
+    cluster.setLocalStorage(localRootDir);
+    cluster.setRamStorage(ramDir, mRamStorageMaxSize * 1024L * 1024L);
+    cluster.setStopTimeouts(mComponentStopTimeout * 1000L, mStopTimeout * 1000L);
+    try {
+      MiniHBaseClusterSingleton.INSTANCE.startAndWaitUntilReady(
+          getLog(), clusterId, cluster, mStartTimeout * 1000L, shareKey);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to start HBase cluster.", e);
+    }
+    timer.recordAll(cluster.getStartupTimer().getPhases());
+    return cluster.getConfiguration();
+  }
+
+  /**
+   * Attaches to the cluster daemon for the specified configuration, launching one if necessary.
+   *
+   * @param conf The configuration to start a new cluster daemon with.
+   * @param size The number of servers of each kind in a new cluster daemon.
+   * @param imageCache The cluster image cache a new daemon should start from, or null.
+   * @return The configuration of the running cluster.
+   * @throws MojoExecutionException If no cluster daemon can be attached to or launched.
+   */
+  private Configuration attachToDaemon(
+      Configuration conf, ClusterSize size, ClusterImageCache imageCache)
+      throws MojoExecutionException {
+    String key = ConfigurationDigest.digest(
+        conf, "mapreduce=" + mIsMapReduceEnabled, size.toString());
+    ClusterDaemonRegistry registry = new ClusterDaemonRegistry(getLog(), mDaemonDir);
+    try {
+      Configuration clusterConf = registry.attachOrLaunch(key, conf, mIsMapReduceEnabled, size,
+          imageCache, System.getProperty("java.class.path"), mDaemonIdleTimeout * 60L * 1000L,
+          mStartTimeout * 1000L);
+      // Tell this module's 'stop' goal which daemon to release or stop.
+      ClusterDaemonRegistry.saveModuleKey(new File(mMavenProject.getBuild().getDirectory()), key);
+      return clusterConf;
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to attach to an HBase cluster daemon.", e);
+    }
+  }
+
+  /**
+   * Finds a RAM-backed directory for a cluster's data.
+   *
+   * @param clusterId The id of the cluster.
+   * @return A directory for the cluster's data, or null if there is no RAM-backed storage with
+   *     enough space, in which case the data is kept on disk.  A shared cluster may still be
+   *     using it, so it is only cleared by {@link #clearRamStorageDir(File)}.
+   * @throws MojoExecutionException If the directory cannot be prepared.
+   */
+  private File getRamStorageDir(String clusterId) throws MojoExecutionException {
+    File baseDir = mRamStorageDir;
+    if (null == baseDir) {
+      File shm = new File("/dev/shm");
+      if (!shm.isDirectory() || !shm.canWrite()) {
+        getLog().warn("No RAM-backed storage found, keeping cluster data on disk.  "
+            + "Set ramStorageDir to choose a directory.");
+        return null;
+      }
+      baseDir = new File(shm, "hbase-maven-plugin-" + System.getProperty("user.name"));
+    }
+    if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+      throw new MojoExecutionException("Unable to create RAM-backed storage " + baseDir);
+    }
+    long freeMegabytes = baseDir.getUsableSpace() / (1024L * 1024L);
+    if (freeMegabytes < mRamStorageMaxSize) {
+      getLog().warn("Only " + freeMegabytes + " MB are free in " + baseDir.getPath()
+          + ", less than ramStorageMaxSize.  Keeping cluster data on disk.");
+      return null;
+    }
+
+    File ramDir = new File(baseDir, getClusterDirName(clusterId));
+    getLog().info("Keeping cluster data in RAM-backed storage " + ramDir.getPath());
+    return ramDir;
+  }
+
+  /**
+   * Clears anything a cluster that was stopped or killed left behind in its RAM-backed directory.
+   *
+   * @param ramDir The RAM-backed directory of the cluster.
+   * @throws MojoExecutionException If the directory cannot be cleared.
+   */
+  private void clearRamStorageDir(File ramDir) throws MojoExecutionException {
+    try {
+      FileUtils.deleteDirectory(ramDir);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to clear RAM-backed storage " + ramDir, e);
+    }
+  }
+
+  /**
+   * Gets a directory name for a cluster id.
+   *
+   * @param clusterId The cluster id.
+   * @return The cluster id with characters that are unsafe in file names replaced.
+   */
+  static String getClusterDirName(String clusterId) {
+    return clusterId.replaceAll("[^\\w.-]", "_");
+  }
+
+  /**
+   * Gets the identifier a module uses a shared cluster under.
+   *
+   * @param project The maven project of the module.
+   * @return The identifier of the module.
+   */
+  static String getModuleId(MavenProject project) {
+    return project.getGroupId() + ":" + project.getArtifactId();
+  }
+
+  /**
+   * Determines whether a cluster's Hadoop tmp dir is a subdirectory of hadoop.tmp.dir named after
+   * the cluster id, rather than hadoop.tmp.dir itself.  That is the case unless the user set
+   * hadoop.tmp.dir but left the cluster id at its default, so builds that chose the directory
+   * keep finding their data where they put it.
+   *
+   * @param hadoopConfiguration The Hadoop configuration properties of the plugin, or null.
+   * @param clusterId The configured cluster id, or null.
+   * @return Whether the Hadoop tmp dir gets a subdirectory per cluster.
+   */
+  static boolean isPerClusterTmpDir(Properties hadoopConfiguration, String clusterId) {
+    boolean isTmpDirSet = null != hadoopConfiguration
+        && hadoopConfiguration.containsKey("hadoop.tmp.dir");
+    boolean isClusterIdSet = null != clusterId && !clusterId.isEmpty();
+    return !isTmpDirSet || isClusterIdSet;
+  }
+
+  /**
+   * Gets the id of the cluster a module uses.
+   *
+   * @param clusterId The configured cluster id, or null.
+   * @param shareCluster Whether the cluster is shared between modules.
+   * @param project The maven project of the module.
+   * @return The cluster id.
+   */
+  static String getClusterId(String clusterId, boolean shareCluster, MavenProject project) {
+    if (null != clusterId && !clusterId.isEmpty()) {
+      return clusterId;
     }
+    return shareCluster ? "shared" : getModuleId(project);
   }
 
   /**
@@ -311,20 +1318,53 @@ public class StartMojo extends AbstractMojo {
    * not the directory structure, making it hard to locate specific job logs after multiple runs.
    * Clearing hadoop.tmp.dir before the cluster starts again alleviates this problem.
    *
+   * <p>The directory can hold gigabytes of data after a large test run, so it is renamed aside
+   * and deleted in the background while the cluster starts.  Only if it cannot be renamed is it
+   * deleted right away.</p>
+   *
    * @param conf A Hadoop configuration used to determine the value of hadoop.tmp.dir.
    */
   private void removeHadoopTmpDir(Configuration conf) {
     String hadoopTmpPath = conf.get("hadoop.tmp.dir");
-    File hadoopTmp = new File(hadoopTmpPath);
-    if (hadoopTmp.exists()) {
-      getLog().info("Deleting Hadoop tmp dir " + hadoopTmp.toString() + " because it already " +
-          "exists.");
-      try {
-        FileUtils.deleteDirectory(hadoopTmp);
-        getLog().info("Successfully deleted Hadoop tmp dir: " + hadoopTmp.toString());
-      } catch (IOException e) {
-        getLog().warn("An existing Hadoop tmp dir could not be deleted.", e);
-      }
+    File hadoopTmp = new File(hadoopTmpPath).getAbsoluteFile();
+    BackgroundDeleter deleter = new BackgroundDeleter(getLog());
+    if (!hadoopTmp.exists()) {
+      // There is nothing to delete, but earlier builds may have left trash behind.
+      deleter.sweepInBackground(hadoopTmp.getParentFile());
+      return;
+    }
+    try {
+      deleter.deleteInBackground(hadoopTmp);
+      return;
+    } catch (IOException e) {
+      getLog().info(e.getMessage() + "  Deleting it instead.");
+    }
+    try {
+      FileUtils.deleteDirectory(hadoopTmp);
+      getLog().info("Successfully deleted Hadoop tmp dir: " + hadoopTmp.toString());
+    } catch (IOException e) {
+      getLog().warn("An existing Hadoop tmp dir could not be deleted.", e);
+    }
+  }
+
+  /**
+   * Gets the value of java.class.path for the mini clusters: the runtime classpath, or a
+   * pathing jar holding it.
+   *
+   * @return The classpath.
+   * @throws MojoExecutionException If the classpath cannot be resolved or the pathing jar
+   *     cannot be written.
+   */
+  private String getRuntimeClassPath() throws MojoExecutionException {
+    if (!mPathingJar) {
+      return getClassPath(mMavenProject, mPluginDependencyArtifacts);
+    }
+    try {
+      return PathingJar.getOrCreate(mPathingJarDir,
+          getClassPathComponents(mMavenProject, mPluginDependencyArtifacts)).getPath();
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Unable to write a pathing jar to " + mPathingJarDir.getPath(), e);
     }
   }
 
@@ -346,18 +1386,40 @@ public class StartMojo extends AbstractMojo {
    * yet to put on the distributed cache via job.setJarByClass().  Hence, all of the
    * test-classes in the project running this plugin need to already be on the classpath
    * of the MapReduce cluster.<p>
+   *
+   * @param project The maven project running the plugin.
+   * @param pluginArtifacts The dependency artifacts of this plugin.
+   * @return The classpath.
+   * @throws MojoExecutionException If the test classpath of the project cannot be resolved.
    */
-  private String getClassPath() throws MojoExecutionException {
+  static String getClassPath(MavenProject project, List<Artifact> pluginArtifacts)
+      throws MojoExecutionException {
+    return Joiner.on(":").join(getClassPathComponents(project, pluginArtifacts));
+  }
+
+  /**
+   * Gets the components of the runtime classpath required to run the mini clusters, in order:
+   * the existing classpath, then the test classpath of the project and this plugin's
+   * dependencies, each left out if it is already on the classpath.  See
+   * {@link #getClassPath(MavenProject, List)}.
+   *
+   * @param project The maven project running the plugin.
+   * @param pluginArtifacts The dependency artifacts of this plugin.
+   * @return The classpath components.
+   * @throws MojoExecutionException If the test classpath of the project cannot be resolved.
+   */
+  static List<String> getClassPathComponents(MavenProject project, List<Artifact> pluginArtifacts)
+      throws MojoExecutionException {
     // Maintain a set of classpath components added so we can de-dupe.
     Set<String> alreadyAddedComponents = new HashSet<String>();
 
-    // Use this to build up the classpath string.
-    StringBuilder classpath = new StringBuilder();
+    // Use this to build up the classpath.
+    List<String> classpath = new ArrayList<String>();
 
     // Add the existing classpath.
     String existingClasspath = System.getProperty("java.class.path");
-    classpath.append(existingClasspath);
-    alreadyAddedComponents.addAll(Arrays.asList(existingClasspath.split(":")));
+    classpath.addAll(Arrays.asList(existingClasspath.split(":")));
+    alreadyAddedComponents.addAll(classpath);
 
     // Add the test classes and dependencies of the maven project running this plugin.
     //
@@ -365,128 +1427,56 @@ public class StartMojo extends AbstractMojo {
     // plugin's dependencies in case the maven project needs to override a jar version.
     List<?> testClasspathComponents;
     try {
-      testClasspathComponents = mMavenProject.getTestClasspathElements();
+      testClasspathComponents = project.getTestClasspathElements();
     } catch (DependencyResolutionRequiredException e) {
       throw new MojoExecutionException("Unable to retrieve project test classpath", e);
     }
     for (Object testClasspathComponent : testClasspathComponents) {
       String dependency = testClasspathComponent.toString();
-      if (alreadyAddedComponents.contains(dependency)) {
-        continue;
+      if (alreadyAddedComponents.add(dependency)) {
+        classpath.add(dependency);
       }
-      classpath.append(":");
-      classpath.append(dependency);
-      alreadyAddedComponents.add(dependency);
     }
 
     // Add this plugin's dependencies.
-    for (Artifact artifact : mPluginDependencyArtifacts) {
+    for (Artifact artifact : pluginArtifacts) {
       String dependency = artifact.getFile().getPath();
-      if (alreadyAddedComponents.contains(dependency)) {
-        continue;
+      if (alreadyAddedComponents.add(dependency)) {
+        classpath.add(dependency);
       }
-      classpath.append(":");
-      classpath.append(dependency);
-      alreadyAddedComponents.add(dependency);
     }
 
-    return classpath.toString();
+    return classpath;
   }
 
   /**
-   * Writes the HBase-specific contents of the specified configuration to the HBase site file.
+   * Writes properties to the specified file.
    *
-   * @param conf The configuration to write.
+   * @param properties The raw property values to write, by name.
+   * @param siteFile The file to write the properties to.
    * @throws MojoExecutionException If there is an error writing the file.
    */
-  private void writeHBaseSiteFile(Configuration conf) throws MojoExecutionException {
-    writeSiteFile(getHBaseOnlyConfiguration(conf), mHBaseSiteFile);
-  }
-
-  /**
-   * Writes the MapReduce/HDFS-specific contents of the specified configuration to the core
-   * site file.
-   *
-   * @param conf The configuration to write.
-   * @throws MojoExecutionException If there is an error writing the file.
-   */
-  private void writeCoreSiteFile(Configuration conf) throws MojoExecutionException {
-    writeSiteFile(getMapReduceOnlyConfiguration(conf), mCoreSiteFile);
-  }
-
-  /**
-   * Writes the specified configuration to the specified file.
-   *
-   * @param conf The configuration to write.
-   * @param siteFile The file to write the configuration to.
-   * @throws MojoExecutionException If there is an error writing the file.
-   */
-  private void writeSiteFile(Configuration conf, File siteFile) throws MojoExecutionException {
+  private void writeSiteFile(SortedMap<String, String> properties, File siteFile)
+      throws MojoExecutionException {
     // Create the parent directory for the site file if it does not already exist.
     createFileParentDir(siteFile);
 
-    // Write the file.
-    FileOutputStream fileOutputStream = null;
+    // Write the file, unless it is unchanged.
     try {
-      fileOutputStream = new FileOutputStream(siteFile);
-      conf.writeXml(fileOutputStream);
+      new SiteFileWriter(getLog(), mMinimalSiteFiles).write(properties, siteFile);
     } catch (IOException e) {
       throw new MojoExecutionException(
           "Unable to write to site file: " + siteFile.getPath(), e);
-    } finally {
-      closeFileOutputStream(fileOutputStream);
     }
-    getLog().info("Wrote " + siteFile.getPath() + ".");
-  }
-
-  /**
-   * Gets a new configuration created from the specified configuration, including only HBase
-   * configuration variables.
-   *
-   * @param conf The configuration to filter.
-   * @return A new configuration containing copies of the appropriate configuration variables.
-   */
-  private Configuration getHBaseOnlyConfiguration(Configuration conf) {
-    return getFilteredConfiguration(conf, true);
-  }
-
-  /**
-   * Gets a new configuration created from the specified configuration, including only
-   * MapReduce/HDFS configuration variables.
-   *
-   * @param conf The configuration to filter.
-   * @return A new configuration containing copies of the appropriate configuration variables.
-   */
-  private Configuration getMapReduceOnlyConfiguration(Configuration conf) {
-    return getFilteredConfiguration(conf, false);
-  }
-
-  /**
-   * Gets a new configuration created from the specified configuration,
-   * including only MapReduce/HDFS configuration variables or HBase only configuration variables.
-   *
-   * @param conf The configuration to filter.
-   * @param hBaseOnly <code>true</code> if only HBase configuration variables should be included,
-   *     <code>false</code> if only MapReduce/HDFS configuration variables should be included.
-   * @return A new configuration with copies of the appropriate configuration variables.
-   */
-  private Configuration getFilteredConfiguration(Configuration conf, boolean hBaseOnly) {
-    Configuration filteredConf = new Configuration(false);
-    for (Map.Entry<String, String> entry: conf) {
-      boolean startsWithHBase = entry.getKey().startsWith("hbase");
-      if ((startsWithHBase && hBaseOnly) || (!startsWithHBase && !hBaseOnly)) {
-        filteredConf.set(entry.getKey(), entry.getValue());
-      }
-    }
-    return filteredConf;
   }
 
   /**
    * Writes a configuration index.
    *
+   * @param siteFiles The HBase site files to list in the index.
    * @throws MojoExecutionException If there is an error writing the configuration file.
    */
-  private void writeConfigurationIndex() throws MojoExecutionException {
+  private void writeConfigurationIndex(List<File> siteFiles) throws MojoExecutionException {
     // Create the parent directory of the file we are writing.
     createFileParentDir(mHBaseConfIndex);
 
@@ -496,7 +1486,9 @@ public class StartMojo extends AbstractMojo {
     try {
       fileOutputStream = new FileOutputStream(mHBaseConfIndex);
       fileWriter = new PrintWriter(fileOutputStream);
-      fileWriter.println(mHBaseSiteFile.getPath());
+      for (File siteFile : siteFiles) {
+        fileWriter.println(siteFile.getPath());
+      }
     } catch (IOException e) {
       throw new MojoExecutionException(
           "Unable to write to configuration index file: " + mHBaseConfIndex.getPath(), e);
@@ -0,0 +1,213 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Records how long each phase of a cluster start takes, writes the phases as a JSON report, and
+ * keeps a trend file of the phases of earlier starts to spot regressions.
+ *
+ * <p>The trend file has one line per start: the time of the start in milliseconds since the
+ * epoch, followed by tab separated "phase=milliseconds" fields.</p>
+ */
+public class StartupTimer {
+  /** The number of earlier starts a phase is compared with. */
+  public static final int TREND_HISTORY = 20;
+
+  /** The number of earlier starts of a phase needed before it is compared with them. */
+  private static final int MIN_TREND_SAMPLES = 5;
+
+  /** When the timer was created, in milliseconds since the epoch. */
+  private final long mStartTime;
+
+  /** How long each phase took, in milliseconds, by phase name, in the order recorded. */
+  private final Map<String, Long> mPhases = new LinkedHashMap<String, Long>();
+
+  /**
+   * Creates a new <code>StartupTimer</code> instance.
+   */
+  public StartupTimer() {
+    mStartTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Gets when the timer was created.
+   *
+   * @return The start time, in milliseconds since the epoch.
+   */
+  public long getStartTime() {
+    return mStartTime;
+  }
+
+  /**
+   * Records how long a phase took.  Recording a phase again adds to its time.
+   *
+   * @param phase The name of the phase.
+   * @param elapsedMillis How long the phase took.
+   */
+  public synchronized void record(String phase, long elapsedMillis) {
+    Long previous = mPhases.get(phase);
+    mPhases.put(phase, null == previous ? elapsedMillis : previous + elapsedMillis);
+  }
+
+  /**
+   * Records how long a phase took, up to now.
+   *
+   * @param phase The name of the phase.
+   * @param startTime When the phase began, in milliseconds since the epoch.
+   */
+  public void recordSince(String phase, long startTime) {
+    record(phase, System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Records the phases of another timer.
+   *
+   * @param phases How long each phase took, by phase name.
+   */
+  public void recordAll(Map<String, Long> phases) {
+    for (Map.Entry<String, Long> phase : phases.entrySet()) {
+      record(phase.getKey(), phase.getValue());
+    }
+  }
+
+  /**
+   * Gets how long each phase took.
+   *
+   * @return The elapsed milliseconds of each phase, by phase name, in the order recorded.
+   */
+  public synchronized Map<String, Long> getPhases() {
+    return new LinkedHashMap<String, Long>(mPhases);
+  }
+
+  /**
+   * Writes the phases as a JSON report.
+   *
+   * @param reportFile The file to write.
+   * @throws IOException If the file cannot be written.
+   */
+  public void writeReport(File reportFile) throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"startTime\": ").append(mStartTime).append(",\n  \"phases\": [");
+    String separator = "\n";
+    for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+      json.append(separator).append("    {\"name\": \"").append(escape(phase.getKey()))
+          .append("\", \"millis\": ").append(phase.getValue()).append("}");
+      separator = ",\n";
+    }
+    json.append("\n  ]\n}\n");
+    FileUtils.writeStringToFile(reportFile, json.toString(), Charsets.UTF_8.name());
+  }
+
+  /**
+   * Compares the phases with the earlier starts in a trend file, then appends them to it.
+   *
+   * @param trendFile The trend file, which may not exist yet.
+   * @return A warning for each phase that took longer than the 90th percentile of its recent
+   *     times.
+   * @throws IOException If the trend file cannot be read or written.
+   */
+  public List<String> updateTrend(File trendFile) throws IOException {
+    Map<String, List<Long>> history = new HashMap<String, List<Long>>();
+    if (trendFile.exists()) {
+      for (Object line : FileUtils.readLines(trendFile, Charsets.UTF_8.name())) {
+        String[] fields = line.toString().split("\t");
+        for (int i = 1; i < fields.length; i++) {
+          int equals = fields[i].lastIndexOf('=');
+          if (equals < 0) {
+            continue;
+          }
+          String phase = fields[i].substring(0, equals);
+          if (!history.containsKey(phase)) {
+            history.put(phase, new ArrayList<Long>());
+          }
+          try {
+            history.get(phase).add(Long.parseLong(fields[i].substring(equals + 1)));
+          } catch (NumberFormatException e) {
+            continue;
+          }
+        }
+      }
+    }
+
+    List<String> warnings = new ArrayList<String>();
+    StringBuilder line = new StringBuilder().append(mStartTime);
+    for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+      List<Long> times = history.get(phase.getKey());
+      if (null != times && times.size() >= MIN_TREND_SAMPLES) {
+        List<Long> recent = times.subList(Math.max(0, times.size() - TREND_HISTORY), times.size());
+        long p90 = percentile90(recent);
+        if (phase.getValue() > p90) {
+          warnings.add(String.format("%s took %d ms, more than its 90th percentile of %d ms over "
+              + "the last %d starts.", phase.getKey(), phase.getValue(), p90, recent.size()));
+        }
+      }
+      line.append('\t').append(phase.getKey()).append('=').append(phase.getValue());
+    }
+    line.append('\n');
+    File trendDir = trendFile.getAbsoluteFile().getParentFile();
+    if (!trendDir.isDirectory() && !trendDir.mkdirs()) {
+      throw new IOException("Unable to create directory " + trendDir.getPath());
+    }
+    Writer writer = new OutputStreamWriter(new FileOutputStream(trendFile, true), Charsets.UTF_8);
+    try {
+      writer.write(line.toString());
+    } finally {
+      writer.close();
+    }
+    return warnings;
+  }
+
+  /**
+   * Computes the 90th percentile of some times, by the nearest rank method.
+   *
+   * @param times The times.  Must not be empty.
+   * @return The 90th percentile.
+   */
+  static long percentile90(List<Long> times) {
+    List<Long> sorted = new ArrayList<Long>(times);
+    Collections.sort(sorted);
+    int rank = (int) Math.ceil(0.9 * sorted.size());
+    return sorted.get(Math.max(0, rank - 1));
+  }
+
+  /**
+   * Escapes a string for a JSON string literal.
+   *
+   * @param value The string.
+   * @return The escaped string.
+   */
+  static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+        .replace("\r", "\\r").replace("\t", "\\t");
+  }
+}
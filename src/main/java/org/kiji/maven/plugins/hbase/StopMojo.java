@@ -19,18 +19,28 @@ package org.kiji.maven.plugins.hbase;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Set;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 
 /**
  * A maven goal that stops the mini HBase cluster started by the 'start' goal.
  *
+ * <p>A shared cluster (see 'shareCluster') is released instead, and is only stopped once no
+ * later module of the build runs the 'start' goal.</p>
+ *
  * @goal stop
  * @phase post-integration-test
  */
 public class StopMojo extends AbstractMojo {
+  /** The key of this plugin in a project's build plugins. */
+  private static final String PLUGIN_KEY = "org.kiji.maven.plugins:hbase-maven-plugin";
 
   /**
    * If true, this goal should be a no-op.
@@ -48,15 +58,139 @@ public class StopMojo extends AbstractMojo {
   private String mProjectBuildDir;
 
   /**
-   * If true, the Hadoop temporary directory (given by Hadoop configuration property hadoop.tmp
-   * .dir) will be cleared before the cluster is started, then copied to the project's build
-   * directory before the cluster is shutdown.
+   * If true, the cluster's Hadoop temporary directory (the subdirectory of Hadoop configuration
+   * property hadoop.tmp.dir named after its cluster id, or hadoop.tmp.dir itself if it was set
+   * without a clusterId) will be cleared before the cluster is started, then copied to the
+   * project's build directory before the cluster is shutdown.
    *
    * @parameter property="saveHadoopTmpDir" expression="${save.hadoop.tmp}" default-value="false"
    * @required
    */
   private boolean mSaveHadoopTmpDir;
 
+  /**
+   * How the Hadoop temporary directory is saved when saveHadoopTmpDir is true: 'copy' copies it
+   * to hadoop-tmp in the build directory, 'hardlink' hard links its files there instead (copying
+   * those on other filesystems) once the cluster has stopped, and 'archive' writes it to
+   * hadoop-tmp.tar.gz, compressed on several threads.  The Hadoop tmp dir of a shared cluster
+   * that is left running for later modules, or in RAM-backed storage, is copied instead of hard
+   * linked.
+   *
+   * @parameter property="saveHadoopTmpMode" expression="${save.hadoop.tmp.mode}" default-value="copy"
+   */
+  private String mSaveHadoopTmpMode;
+
+  /**
+   * Comma separated Ant-style patterns of the files of the Hadoop temporary directory to save,
+   * for example "**&#47;userlogs/**,**&#47;*.log".  All files are saved by default.
+   *
+   * @parameter property="saveHadoopTmpIncludes" expression="${save.hadoop.tmp.includes}"
+   */
+  private String mSaveHadoopTmpIncludes;
+
+  /**
+   * Comma separated Ant-style patterns of the files of the Hadoop temporary directory not to
+   * save, for example "**&#47;blk_*" to skip DataNode block files.
+   *
+   * @parameter property="saveHadoopTmpExcludes" expression="${save.hadoop.tmp.excludes}"
+   */
+  private String mSaveHadoopTmpExcludes;
+
+  /**
+   * The number of threads that save the Hadoop temporary directory, or 0 for one per processor.
+   *
+   * @parameter property="saveHadoopTmpThreads" expression="${save.hadoop.tmp.threads}" default-value="0"
+   */
+  private int mSaveHadoopTmpThreads;
+
+  /**
+   * If true, the cluster is aborted instead of shut down gracefully: regions are neither flushed
+   * nor closed, and the servers, ZooKeeper and DFS are stopped without waiting for in-flight
+   * writes.  Its data is abandoned.  Ignored when saveHadoopTmpDir is true.
+   *
+   * @parameter property="fastStop" expression="${hbase.fast.stop}" default-value="false"
+   */
+  private boolean mFastStop;
+
+  /**
+   * The maximum time in seconds to wait for a fast stop.  Servers still running by then are left
+   * behind and die with the JVM.
+   *
+   * @parameter property="fastStopTimeout" expression="${hbase.fast.stop.timeout}" default-value="10"
+   */
+  private int mFastStopTimeout;
+
+  /**
+   * If true, the cluster was started by the 'start' goal as a background daemon.  The daemon is
+   * left running for later builds and its idle timeout is restarted.
+   *
+   * @parameter property="daemon" expression="${hbase.daemon}" default-value="false"
+   */
+  private boolean mDaemon;
+
+  /**
+   * If true, stop the cluster daemon this module's 'start' goal used instead of an in-process
+   * cluster.  The daemons of other projects are left running.
+   *
+   * @parameter property="stopDaemon" expression="${hbase.stop.daemon}" default-value="false"
+   */
+  private boolean mStopDaemon;
+
+  /**
+   * The maximum time in seconds to wait for a cluster daemon to stop when stopDaemon is true, or
+   * 0 to wait forever.
+   *
+   * @parameter property="daemonStopTimeout" expression="${hbase.daemon.stop.timeout}" default-value="300"
+   */
+  private int mDaemonStopTimeout;
+
+  /**
+   * The directory that holds the state of cluster daemons.
+   *
+   * @parameter property="daemonDir" expression="${hbase.daemon.dir}" default-value="${user.home}/.m2/hbase-maven-plugin/daemons"
+   */
+  private File mDaemonDir;
+
+  /**
+   * If true, the cluster is shared with the other modules of a multi-module build.  It is left
+   * running while a later module of the build still needs it.
+   *
+   * @parameter property="shareCluster" expression="${hbase.share.cluster}" default-value="false"
+   */
+  private boolean mShareCluster;
+
+  /**
+   * If true, the tables this module created in a shared cluster are deleted.
+   *
+   * @parameter property="cleanupSharedTables" expression="${hbase.cleanup.shared.tables}" default-value="true"
+   */
+  private boolean mCleanupSharedTables;
+
+  /**
+   * The id of the cluster to stop, as given to the 'start' goal.
+   *
+   * @parameter property="clusterId" expression="${hbase.cluster.id}"
+   */
+  private String mClusterId;
+
+  /**
+   * The maven project this plugin is running within.
+   *
+   * @parameter default-value="${project}"
+   * @required
+   * @readonly
+   */
+  private MavenProject mMavenProject;
+
+  /**
+   * The projects of the build, in build order.
+   *
+   * @parameter default-value="${reactorProjects}"
+   * @required
+   * @readonly
+   */
+  private List<MavenProject> mReactorProjects;
+
   /**
    * Sets the output directory for the project's build.
    *
@@ -76,7 +210,7 @@ public class StopMojo extends AbstractMojo {
   }
 
   /**
-   * Sets whether the Hadoop temporary directory, given by hadoop.tmp.dir, should be cleared
+   * Sets whether the cluster's Hadoop temporary directory, under hadoop.tmp.dir, should be cleared
    * before the cluster is started and copied to the project build directory before the cluster
    * is shutdown.
    *
@@ -88,20 +222,341 @@ public class StopMojo extends AbstractMojo {
   }
 
   /**
-   * Copies the directory indicated by hadoop.tmp.dir in the mini-cluster's configuration to the
+   * Sets how the Hadoop temporary directory is saved.
+   *
+   * @param mode 'copy', 'hardlink' or 'archive'.
+   */
+  public void setSaveHadoopTmpMode(String mode) {
+    mSaveHadoopTmpMode = mode;
+  }
+
+  /**
+   * Sets the patterns of the files of the Hadoop temporary directory to save.
+   *
+   * @param includes Comma separated patterns, or null to save all files.
+   */
+  public void setSaveHadoopTmpIncludes(String includes) {
+    mSaveHadoopTmpIncludes = includes;
+  }
+
+  /**
+   * Sets the patterns of the files of the Hadoop temporary directory not to save.
+   *
+   * @param excludes Comma separated patterns, or null.
+   */
+  public void setSaveHadoopTmpExcludes(String excludes) {
+    mSaveHadoopTmpExcludes = excludes;
+  }
+
+  /**
+   * Sets the number of threads that save the Hadoop temporary directory.
+   *
+   * @param threads The number of threads, or 0 for one per processor.
+   */
+  public void setSaveHadoopTmpThreads(int threads) {
+    mSaveHadoopTmpThreads = threads;
+  }
+
+  /**
+   * Sets whether the cluster should be aborted, abandoning its data, instead of shut down
+   * gracefully.
+   *
+   * @param fastStop Whether to abort the cluster.
+   */
+  public void setFastStop(boolean fastStop) {
+    mFastStop = fastStop;
+  }
+
+  /**
+   * Sets the maximum time to wait for a fast stop.
+   *
+   * @param fastStopTimeout The fast stop timeout in seconds.
+   */
+  public void setFastStopTimeout(int fastStopTimeout) {
+    mFastStopTimeout = fastStopTimeout;
+  }
+
+  /**
+   * Sets whether the cluster was started as a background daemon that should be left running.
+   *
+   * @param daemon Whether the cluster is a daemon.
+   */
+  public void setDaemon(boolean daemon) {
+    mDaemon = daemon;
+  }
+
+  /**
+   * Sets whether the cluster daemon this module used should be stopped.
+   *
+   * @param stopDaemon Whether to stop the cluster daemon.
+   */
+  public void setStopDaemon(boolean stopDaemon) {
+    mStopDaemon = stopDaemon;
+  }
+
+  /**
+   * Sets how long to wait for a cluster daemon to stop.
+   *
+   * @param daemonStopTimeout The daemon stop timeout in seconds, or 0 for no limit.
+   */
+  public void setDaemonStopTimeout(int daemonStopTimeout) {
+    mDaemonStopTimeout = daemonStopTimeout;
+  }
+
+  /**
+   * Sets the directory that holds the state of cluster daemons.
+   *
+   * @param daemonDir The cluster daemon registry directory.
+   */
+  public void setDaemonDir(File daemonDir) {
+    mDaemonDir = daemonDir;
+  }
+
+  /**
+   * Sets whether the cluster is shared with the other modules of a multi-module build.
+   *
+   * @param shareCluster Whether the cluster is shared.
+   */
+  public void setShareCluster(boolean shareCluster) {
+    mShareCluster = shareCluster;
+  }
+
+  /**
+   * Sets whether the tables this module created in a shared cluster should be deleted.
+   *
+   * @param cleanupSharedTables Whether to delete the tables.
+   */
+  public void setCleanupSharedTables(boolean cleanupSharedTables) {
+    mCleanupSharedTables = cleanupSharedTables;
+  }
+
+  /**
+   * Sets the id of the cluster to stop.
+   *
+   * @param clusterId The cluster id, or null to derive it from the module.
+   */
+  public void setClusterId(String clusterId) {
+    mClusterId = clusterId;
+  }
+
+  /**
+   * Stops or releases the cluster daemon the 'start' goal of this module used.
+   *
+   * @throws MojoExecutionException If the daemon cannot be stopped or released.
+   */
+  private void manageDaemon() throws MojoExecutionException {
+    ClusterDaemonRegistry registry = new ClusterDaemonRegistry(getLog(), mDaemonDir);
+    try {
+      String key = ClusterDaemonRegistry.loadModuleKey(new File(mProjectBuildDir));
+      if (null == key) {
+        getLog().info("This module has not used an HBase cluster daemon.");
+      } else if (mStopDaemon) {
+        if (registry.stopDaemon(key, mDaemonStopTimeout * 1000L)) {
+          getLog().info("Stopped the HBase cluster daemon of this module.");
+        } else {
+          getLog().info("The HBase cluster daemon of this module is not running.");
+        }
+      } else {
+        registry.releaseLease(key);
+        getLog().info("Leaving the HBase cluster daemon running for later builds.");
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to manage the HBase cluster daemon.", e);
+    }
+  }
+
+  /**
+   * Gets the id of the cluster this module uses.
+   *
+   * @return The cluster id.
+   */
+  private String getClusterId() {
+    return StartMojo.getClusterId(mClusterId, mShareCluster, mMavenProject);
+  }
+
+  /**
+   * Gets how long an abort of the cluster may take.
+   *
+   * @return The abort timeout in milliseconds, or 0 if the cluster should be stopped gracefully.
+   */
+  private long getAbortTimeoutMillis() {
+    if (!mFastStop) {
+      return 0L;
+    }
+    if (mSaveHadoopTmpDir) {
+      getLog().info("Stopping the HBase cluster gracefully because saveHadoopTmpDir=true.");
+      return 0L;
+    }
+    return Math.max(1L, mFastStopTimeout * 1000L);
+  }
+
+  /**
+   * Determines whether a later project of the build runs this plugin's 'start' goal in a way that
+   * acquires this module's shared cluster.
+   *
+   * @return Whether a later project will want to acquire the shared cluster.
+   */
+  private boolean isClusterNeededLater() {
+    int index = mReactorProjects.indexOf(mMavenProject);
+    if (index < 0) {
+      return false;
+    }
+    for (MavenProject project : mReactorProjects.subList(index + 1, mReactorProjects.size())) {
+      for (Object pluginObject : project.getBuildPlugins()) {
+        Plugin plugin = (Plugin) pluginObject;
+        if (!PLUGIN_KEY.equals(plugin.getKey())) {
+          continue;
+        }
+        for (Object executionObject : plugin.getExecutions()) {
+          PluginExecution execution = (PluginExecution) executionObject;
+          if (execution.getGoals().contains("start")
+              && isClusterUser(project, plugin, execution)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines whether a 'start' execution of a later project would acquire this module's shared
+   * cluster: it is not skipped, shares its cluster, and uses the same cluster id.  A setting that
+   * cannot be resolved here counts as matching, so the cluster is rather kept running.
+   *
+   * @param project The later project.
+   * @param plugin This plugin in the later project.
+   * @param execution The 'start' execution.
+   * @return Whether the execution may acquire the cluster.
+   */
+  private boolean isClusterUser(MavenProject project, Plugin plugin, PluginExecution execution) {
+    String skip = getStartParameter(project, plugin, execution, "skip", null, "false");
+    if (!isUnresolved(skip) && Boolean.parseBoolean(skip)) {
+      return false;
+    }
+    String shareCluster = getStartParameter(
+        project, plugin, execution, "shareCluster", "hbase.share.cluster", "false");
+    if (!isUnresolved(shareCluster) && !Boolean.parseBoolean(shareCluster)) {
+      return false;
+    }
+    String clusterId =
+        getStartParameter(project, plugin, execution, "clusterId", "hbase.cluster.id", null);
+    return isUnresolved(clusterId)
+        || getClusterId().equals(StartMojo.getClusterId(clusterId, true, project));
+  }
+
+  /**
+   * Gets the value of a parameter of a 'start' execution, from the execution's configuration,
+   * the plugin's configuration, or the property of the parameter, in that order.
+   *
+   * @param project The project of the execution.
+   * @param plugin This plugin in the project.
+   * @param execution The execution.
+   * @param name The name of the parameter.
+   * @param property The property that sets the parameter, or null if there is none.
+   * @param defaultValue The default value of the parameter.
+   * @return The value of the parameter, which may still contain an unresolved expression.
+   */
+  private static String getStartParameter(MavenProject project, Plugin plugin,
+      PluginExecution execution, String name, String property, String defaultValue) {
+    String value = getConfigurationValue(execution.getConfiguration(), name);
+    if (null == value) {
+      value = getConfigurationValue(plugin.getConfiguration(), name);
+    }
+    if (null == value && null != property) {
+      value = "${" + property + "}";
+    }
+    if (null == value) {
+      return defaultValue;
+    }
+    if (value.startsWith("${") && value.endsWith("}")) {
+      String expression = value.substring(2, value.length() - 1);
+      String resolved = System.getProperty(expression);
+      if (null == resolved) {
+        resolved = project.getProperties().getProperty(expression);
+      }
+      if (null != resolved) {
+        return resolved;
+      }
+      // An unset property leaves the parameter at its default.
+      return expression.equals(property) ? defaultValue : value;
+    }
+    return value;
+  }
+
+  /**
+   * Gets the value of a parameter in a plugin or execution configuration.
+   *
+   * @param configuration The configuration, or null.
+   * @param name The name of the parameter.
+   * @return The trimmed value, or null if the parameter is not configured.
+   */
+  private static String getConfigurationValue(Object configuration, String name) {
+    if (!(configuration instanceof Xpp3Dom)) {
+      return null;
+    }
+    Xpp3Dom child = ((Xpp3Dom) configuration).getChild(name);
+    if (null == child || null == child.getValue()) {
+      return null;
+    }
+    return child.getValue().trim();
+  }
+
+  /**
+   * Determines whether a parameter value contains an expression that could not be resolved.
+   *
+   * @param value The value.
+   * @return Whether the value is unresolved.
+   */
+  private static boolean isUnresolved(String value) {
+    return null != value && value.contains("${");
+  }
+
+  /**
+   * Deletes the tables this module created in the shared cluster.
+   *
+   * @param baseline The tables that existed when this module acquired the cluster.
+   */
+  private void deleteModuleTables(Set<String> baseline) {
+    TableCleaner cleaner = new TableCleaner(
+        getLog(), MiniHBaseClusterSingleton.INSTANCE.getClusterConfiguration(getClusterId()));
+    try {
+      getLog().info("Deleted " + cleaner.deleteTablesExcept(baseline)
+          + " table(s) created by this module.");
+    } catch (IOException e) {
+      getLog().warn("Unable to delete the tables created by this module.", e);
+    }
+  }
+
+  /**
+   * Parses saveHadoopTmpMode.
+   *
+   * @return How the Hadoop tmp dir is saved.
+   * @throws MojoExecutionException If saveHadoopTmpMode is invalid.
+   */
+  private TmpDirArchiver.Mode getSaveHadoopTmpMode() throws MojoExecutionException {
+    try {
+      return TmpDirArchiver.Mode.parse(mSaveHadoopTmpMode);
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException("Invalid saveHadoopTmpMode: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Saves the directory indicated by hadoop.tmp.dir in the mini-cluster's configuration to the
    * project build directory.
+   *
+   * @param hadoopTmp The Hadoop tmp dir of the cluster.
+   * @param mode How to save it.
    */
-  private void copyHadoopTmpDir() {
-    String tmpDirProperty =
-        MiniHBaseClusterSingleton.INSTANCE.getClusterConfiguration().get("hadoop.tmp.dir");
-    File hadoopTmp = new File(tmpDirProperty);
+  private void saveHadoopTmpDir(File hadoopTmp, TmpDirArchiver.Mode mode) {
     File hadoopTmpCopy = new File(new File(mProjectBuildDir), "hadoop-tmp");
-    getLog().info("Copying " + hadoopTmp.toString() + " to " + hadoopTmpCopy.toString());
+    getLog().info("Saving " + hadoopTmp.toString() + " to " + hadoopTmpCopy.toString());
     try {
-      FileUtils.copyDirectory(hadoopTmp, hadoopTmpCopy);
-      getLog().info("Successfully copied hadoop tmp dir.");
+      new TmpDirArchiver(getLog(), mode, mSaveHadoopTmpIncludes, mSaveHadoopTmpExcludes,
+          mSaveHadoopTmpThreads).save(hadoopTmp, hadoopTmpCopy);
     } catch (IOException e) {
-      getLog().warn("The Hadoop tmp dir could not be copied to the project's build directory.", e);
+      getLog().warn("The Hadoop tmp dir could not be saved to the project's build directory.", e);
     }
   }
 
@@ -112,9 +567,58 @@ public class StopMojo extends AbstractMojo {
       getLog().info("Not stopping an HBase cluster because skip=true.");
       return;
     }
+    if (mStopDaemon || mDaemon) {
+      manageDaemon();
+      return;
+    }
+    // Hard links share their files with the cluster, which keeps writing to them while it runs,
+    // so they are only made once the cluster has stopped.
+    File hadoopTmp = null;
+    TmpDirArchiver.Mode saveMode = null;
     if (mSaveHadoopTmpDir) {
-      copyHadoopTmpDir();
+      saveMode = getSaveHadoopTmpMode();
+      hadoopTmp = new File(MiniHBaseClusterSingleton.INSTANCE
+          .getClusterConfiguration(getClusterId()).get("hadoop.tmp.dir")).getAbsoluteFile();
+      File ramDir = MiniHBaseClusterSingleton.INSTANCE.getRamStorageDir(getClusterId());
+      if (TmpDirArchiver.Mode.HARDLINK == saveMode && null != ramDir
+          && hadoopTmp.getPath().startsWith(ramDir.getPath() + File.separator)) {
+        getLog().info("Copying the Hadoop tmp dir instead of hard linking it, since it is in"
+            + " RAM-backed storage that is deleted when the cluster stops.");
+        saveMode = TmpDirArchiver.Mode.COPY;
+      }
+      if (TmpDirArchiver.Mode.HARDLINK != saveMode) {
+        saveHadoopTmpDir(hadoopTmp, saveMode);
+      }
+    }
+    boolean stopped = stopOrRelease();
+    if (TmpDirArchiver.Mode.HARDLINK == saveMode) {
+      if (!stopped) {
+        getLog().info("Copying the Hadoop tmp dir instead of hard linking it, since the shared"
+            + " HBase cluster is still running.");
+        saveMode = TmpDirArchiver.Mode.COPY;
+      }
+      saveHadoopTmpDir(hadoopTmp, saveMode);
+    }
+  }
+
+  /**
+   * Stops the cluster of this module, or releases it if it is shared.
+   *
+   * @return Whether the cluster was stopped.
+   */
+  private boolean stopOrRelease() {
+    if (!mShareCluster) {
+      MiniHBaseClusterSingleton.INSTANCE.stop(getLog(), getClusterId(), getAbortTimeoutMillis());
+      return true;
+    }
+    // There is no point cleaning up a cluster that is about to be stopped.
+    boolean neededLater = isClusterNeededLater();
+    Set<String> baseline = MiniHBaseClusterSingleton.INSTANCE.removeBaselineTables(
+        getClusterId(), StartMojo.getModuleId(mMavenProject));
+    if (mCleanupSharedTables && neededLater && null != baseline) {
+      deleteModuleTables(baseline);
     }
-    MiniHBaseClusterSingleton.INSTANCE.stop(getLog());
+    return MiniHBaseClusterSingleton.INSTANCE.release(
+        getLog(), getClusterId(), neededLater, getAbortTimeoutMillis());
   }
 }
@@ -0,0 +1,234 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.Compression;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The specification of a table the 'start' goal creates, given in the plugin configuration as:
+ *
+ * <pre>
+ *   &lt;tables&gt;
+ *     &lt;table&gt;
+ *       &lt;name&gt;users&lt;/name&gt;
+ *       &lt;families&gt;&lt;family&gt;info&lt;/family&gt;&lt;/families&gt;
+ *       &lt;splitKeys&gt;&lt;splitKey&gt;m&lt;/splitKey&gt;&lt;/splitKeys&gt;
+ *     &lt;/table&gt;
+ *   &lt;/tables&gt;
+ * </pre>
+ *
+ * <p>A table is pre-split either at explicit split keys, or into a number of regions with split
+ * keys evenly spaced between a start and an end key.  Keys may contain \xNN escapes, with upper
+ * case hex digits.  The compression, block encoding and maximum number of versions apply to every
+ * family.</p>
+ */
+public class Table {
+  /** The name of the table. */
+  private String mName;
+
+  /** The names of the column families. */
+  private List<String> mFamilies = new ArrayList<String>();
+
+  /** The keys to split the table at. */
+  private List<String> mSplitKeys = new ArrayList<String>();
+
+  /** The number of regions to split the table into, or 0 to use the split keys. */
+  private int mNumRegions;
+
+  /** The first split key when splitting into a number of regions. */
+  private String mStartKey;
+
+  /** The last split key when splitting into a number of regions. */
+  private String mEndKey;
+
+  /** The compression algorithm of the families, or null for the default. */
+  private String mCompression;
+
+  /** The data block encoding of the families, or null for the default. */
+  private String mDataBlockEncoding;
+
+  /** The maximum number of versions of the families, or 0 for the default. */
+  private int mMaxVersions;
+
+  /**
+   * Gets the name of the table.
+   *
+   * @return The table name.
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * Sets the name of the table.
+   *
+   * @param name The table name.
+   */
+  public void setName(String name) {
+    mName = name;
+  }
+
+  /**
+   * Sets the names of the column families.
+   *
+   * @param families The family names.
+   */
+  public void setFamilies(List<String> families) {
+    mFamilies = families;
+  }
+
+  /**
+   * Sets the keys to split the table at.
+   *
+   * @param splitKeys The split keys.
+   */
+  public void setSplitKeys(List<String> splitKeys) {
+    mSplitKeys = splitKeys;
+  }
+
+  /**
+   * Sets the number of regions to split the table into.
+   *
+   * @param numRegions The number of regions, at least 3, or 0 to use the split keys.
+   */
+  public void setNumRegions(int numRegions) {
+    mNumRegions = numRegions;
+  }
+
+  /**
+   * Sets the first split key when splitting into a number of regions.
+   *
+   * @param startKey The start key.
+   */
+  public void setStartKey(String startKey) {
+    mStartKey = startKey;
+  }
+
+  /**
+   * Sets the last split key when splitting into a number of regions.
+   *
+   * @param endKey The end key.
+   */
+  public void setEndKey(String endKey) {
+    mEndKey = endKey;
+  }
+
+  /**
+   * Sets the compression algorithm of the families.
+   *
+   * @param compression The name of the algorithm, for example "snappy".
+   */
+  public void setCompression(String compression) {
+    mCompression = compression;
+  }
+
+  /**
+   * Sets the data block encoding of the families.
+   *
+   * @param dataBlockEncoding The name of the encoding, for example "fast_diff".
+   */
+  public void setDataBlockEncoding(String dataBlockEncoding) {
+    mDataBlockEncoding = dataBlockEncoding;
+  }
+
+  /**
+   * Sets the maximum number of versions of the families.
+   *
+   * @param maxVersions The maximum number of versions.
+   */
+  public void setMaxVersions(int maxVersions) {
+    mMaxVersions = maxVersions;
+  }
+
+  /**
+   * Builds the descriptor of the table.
+   *
+   * @return The table descriptor.
+   */
+  public HTableDescriptor getDescriptor() {
+    if (null == mName || mName.isEmpty()) {
+      throw new IllegalArgumentException("Every table needs a name.");
+    }
+    if (mFamilies.isEmpty()) {
+      throw new IllegalArgumentException("Table " + mName + " needs at least one family.");
+    }
+    HTableDescriptor descriptor = new HTableDescriptor(mName);
+    for (String family : mFamilies) {
+      HColumnDescriptor column = new HColumnDescriptor(family);
+      if (null != mCompression) {
+        column.setCompressionType(Compression.Algorithm.valueOf(mCompression.toUpperCase()));
+      }
+      if (null != mDataBlockEncoding) {
+        column.setDataBlockEncoding(DataBlockEncoding.valueOf(mDataBlockEncoding.toUpperCase()));
+      }
+      if (mMaxVersions > 0) {
+        column.setMaxVersions(mMaxVersions);
+      }
+      descriptor.addFamily(column);
+    }
+    return descriptor;
+  }
+
+  /**
+   * Computes the keys to split the table at.
+   *
+   * @return The sorted split keys, or null if the table is not pre-split.
+   */
+  public byte[][] getSplits() {
+    if (mNumRegions > 0) {
+      // The same way HBaseAdmin.createTable(desc, startKey, endKey, numRegions) splits.
+      if (mNumRegions < 3 || null == mStartKey || null == mEndKey) {
+        throw new IllegalArgumentException("Table " + mName
+            + " needs a startKey, an endKey and at least 3 regions to split into numRegions.");
+      }
+      byte[] startKey = Bytes.toBytesBinary(mStartKey);
+      byte[] endKey = Bytes.toBytesBinary(mEndKey);
+      if (Bytes.compareTo(startKey, endKey) >= 0) {
+        throw new IllegalArgumentException("Table " + mName + " needs a startKey ("
+            + mStartKey + ") that sorts before its endKey (" + mEndKey + ").");
+      }
+      if (3 == mNumRegions) {
+        // Bytes.split() needs at least one key between the start and end keys.
+        return new byte[][] {startKey, endKey};
+      }
+      byte[][] splits = Bytes.split(startKey, endKey, mNumRegions - 3);
+      if (null == splits || mNumRegions - 1 != splits.length) {
+        throw new IllegalArgumentException(
+            "Unable to split table " + mName + " into " + mNumRegions + " regions.");
+      }
+      return splits;
+    }
+    if (mSplitKeys.isEmpty()) {
+      return null;
+    }
+    byte[][] splits = new byte[mSplitKeys.size()][];
+    for (int i = 0; i < splits.length; i++) {
+      splits[i] = Bytes.toBytesBinary(mSplitKeys.get(i));
+    }
+    Arrays.sort(splits, Bytes.BYTES_COMPARATOR);
+    return splits;
+  }
+}
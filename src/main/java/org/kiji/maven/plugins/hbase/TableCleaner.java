@@ -0,0 +1,98 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Removes the tables a module created in a shared cluster, so that later modules using the same
+ * cluster don't see its data.
+ *
+ * <p>The tables present when a module acquires the cluster are its baseline.  When the module
+ * releases the cluster, every table that is not in its baseline is deleted.</p>
+ */
+public class TableCleaner extends MavenLogged {
+  /** The configuration used to connect to the cluster. */
+  private final Configuration mConf;
+
+  /**
+   * Creates a new <code>TableCleaner</code> instance.
+   *
+   * @param log The maven log.
+   * @param conf The configuration of the cluster to clean.
+   */
+  public TableCleaner(Log log, Configuration conf) {
+    super(log);
+    mConf = conf;
+  }
+
+  /**
+   * Lists the tables in the cluster.
+   *
+   * @return The names of the tables.
+   * @throws IOException If the tables cannot be listed.
+   */
+  public Set<String> listTables() throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(mConf);
+    try {
+      Set<String> tables = new HashSet<String>();
+      for (HTableDescriptor table : admin.listTables()) {
+        tables.add(table.getNameAsString());
+      }
+      return tables;
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Deletes every table in the cluster that is not in a baseline.
+   *
+   * @param baseline The names of the tables to keep.
+   * @return The number of tables deleted.
+   * @throws IOException If a table cannot be deleted.
+   */
+  public int deleteTablesExcept(Set<String> baseline) throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(mConf);
+    try {
+      int deleted = 0;
+      for (HTableDescriptor table : admin.listTables()) {
+        String name = table.getNameAsString();
+        if (baseline.contains(name)) {
+          continue;
+        }
+        getLog().debug("Deleting table " + name);
+        if (admin.isTableEnabled(name)) {
+          admin.disableTable(name);
+        }
+        admin.deleteTable(name);
+        deleted++;
+      }
+      return deleted;
+    } finally {
+      admin.close();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Creates the tables of a table specification in a running cluster.
+ *
+ * <p>Every table is submitted to the master before any of them is waited on, so the master
+ * creates them and the regionservers open their regions concurrently.  The regions of all tables
+ * are then waited on in a single batch, instead of one table at a time as
+ * HBaseAdmin.createTable() does.</p>
+ */
+public class TableProvisioner extends MavenLogged {
+  /** How long to wait between checks for the assignment of the regions. */
+  private static final long POLL_INTERVAL_MILLIS = 100L;
+
+  /** The configuration used to connect to the cluster. */
+  private final Configuration mConf;
+
+  /**
+   * Creates a new <code>TableProvisioner</code> instance.
+   *
+   * @param log The maven log.
+   * @param conf The configuration of the cluster to create the tables in.
+   */
+  public TableProvisioner(Log log, Configuration conf) {
+    super(log);
+    mConf = conf;
+  }
+
+  /**
+   * Creates tables and waits until all of their regions are assigned.  Tables that already exist,
+   * for example in a cluster daemon or a shared cluster, are left as they are.  In a cluster
+   * configured for non-durable writes, the tables use deferred log flush.
+   *
+   * @param tables The specifications of the tables to create.
+   * @param timeoutMillis The maximum time to wait for the regions, or 0 to wait forever.
+   * @return The names of the tables, in the order they were specified.
+   * @throws IOException If a table cannot be created in time.
+   */
+  public List<String> createTables(List<Table> tables, long timeoutMillis) throws IOException {
+    List<String> names = new ArrayList<String>();
+    HBaseAdmin admin = new HBaseAdmin(mConf);
+    try {
+      // The number of regions each new table will have, by table name.
+      Map<String, Integer> pending = new HashMap<String, Integer>();
+      for (Table table : tables) {
+        HTableDescriptor descriptor;
+        byte[][] splits;
+        try {
+          descriptor = table.getDescriptor();
+          splits = table.getSplits();
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid table specification: " + e.getMessage(), e);
+        }
+        if (!WriteDurability.isDurable(mConf)) {
+          descriptor.setDeferredLogFlush(true);
+        }
+        String name = descriptor.getNameAsString();
+        names.add(name);
+        if (admin.tableExists(name)) {
+          getLog().info("Table " + name + " already exists.");
+          continue;
+        }
+        int regions = null == splits ? 1 : splits.length + 1;
+        getLog().info("Creating table " + name + " with " + regions + " regions.");
+        admin.createTableAsync(descriptor, splits);
+        pending.put(name, regions);
+      }
+      waitForRegions(admin, pending, timeoutMillis);
+      return names;
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Waits until every region of the specified tables is assigned.
+   *
+   * @param admin The admin of the cluster.
+   * @param pending The number of regions of each table to wait for, by table name.
+   * @param timeoutMillis The maximum time to wait, or 0 to wait forever.
+   * @throws IOException If the regions are not assigned in time.
+   */
+  private void waitForRegions(HBaseAdmin admin, Map<String, Integer> pending, long timeoutMillis)
+      throws IOException {
+    long startTime = System.currentTimeMillis();
+    while (!pending.isEmpty()) {
+      Iterator<Map.Entry<String, Integer>> iterator = pending.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, Integer> table = iterator.next();
+        // The regions show up in .META. before they are assigned, so check both.
+        if (admin.tableExists(table.getKey())
+            && admin.getTableRegions(Bytes.toBytes(table.getKey())).size() == table.getValue()
+            && admin.isTableAvailable(table.getKey())) {
+          iterator.remove();
+        }
+      }
+      if (pending.isEmpty()) {
+        break;
+      }
+      if (timeoutMillis > 0 && System.currentTimeMillis() - startTime > timeoutMillis) {
+        throw new IOException("Timed out waiting for the regions of tables " + pending.keySet());
+      }
+      try {
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for tables " + pending.keySet());
+      }
+    }
+    getLog().info("Created all tables in " + (System.currentTimeMillis() - startTime) + " ms.");
+  }
+}
@@ -0,0 +1,353 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.SnapshotDescription;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Resets tables to a clean state without restarting the cluster.
+ *
+ * <p>Tests can use this class directly, with the configuration of the cluster:</p>
+ *
+ * <pre>
+ *   new TableResetter(HBaseConfiguration.create()).reset(Arrays.asList("users"));
+ * </pre>
+ *
+ * <p>If the cluster has snapshots enabled (see the 'snapshots' parameter of the 'start' goal),
+ * {@link #saveState(Collection)} snapshots tables after they are seeded, and resetting a table
+ * restores its snapshot.  Otherwise a table is truncated: it is deleted and created again with
+ * the same descriptor and region boundaries, which drops any data it was seeded with.  Either way
+ * all tables are reset in parallel.</p>
+ */
+public class TableResetter extends MavenLogged {
+  /** The suffix of the names of the snapshots that hold the saved state of tables. */
+  public static final String SNAPSHOT_SUFFIX = "-reset";
+
+  /** The largest number of tables to reset at the same time. */
+  private static final int MAX_THREADS = 8;
+
+  /** The number of rows to delete per batch. */
+  private static final int DELETE_BATCH_SIZE = 1000;
+
+  /** The ways a table can be reset. */
+  public static enum Method {
+    /**
+     * Restore the saved snapshot of the table if there is one, and truncate it with a warning
+     * otherwise.
+     */
+    AUTO,
+    /** Restore the saved snapshot of the table. */
+    SNAPSHOT,
+    /** Delete the table and create it again with the same regions. */
+    TRUNCATE,
+    /**
+     * Delete every row of the table, keeping the table online.  This is the fastest method for
+     * tables with few rows, but the delete markers hide cells written later with explicit
+     * timestamps older than the reset.
+     */
+    DELETE
+  }
+
+  /** The configuration used to connect to the cluster. */
+  private final Configuration mConf;
+
+  /**
+   * Creates a new <code>TableResetter</code> instance that logs to the console.
+   *
+   * @param conf The configuration of the cluster.
+   */
+  public TableResetter(Configuration conf) {
+    this(new SystemStreamLog(), conf);
+  }
+
+  /**
+   * Creates a new <code>TableResetter</code> instance.
+   *
+   * @param log The maven log.
+   * @param conf The configuration of the cluster.
+   */
+  public TableResetter(Log log, Configuration conf) {
+    super(log);
+    mConf = conf;
+  }
+
+  /**
+   * Gets the name of the snapshot that holds the saved state of a table.
+   *
+   * @param table The name of the table.
+   * @return The name of the snapshot.
+   */
+  public static String getSnapshotName(String table) {
+    return table + SNAPSHOT_SUFFIX;
+  }
+
+  /**
+   * Determines whether the cluster has snapshots enabled.
+   *
+   * @return Whether snapshots can be taken.
+   */
+  public boolean isSnapshotEnabled() {
+    return mConf.getBoolean("hbase.snapshot.enabled", false);
+  }
+
+  /**
+   * Saves the current state of tables as snapshots, replacing any state saved before.  Does
+   * nothing if the cluster has snapshots disabled.
+   *
+   * @param tables The names of the tables.
+   * @throws IOException If a snapshot cannot be taken.
+   */
+  public void saveState(Collection<String> tables) throws IOException {
+    if (!isSnapshotEnabled()) {
+      getLog().debug("Not saving the state of tables because snapshots are disabled.");
+      return;
+    }
+    HBaseAdmin admin = new HBaseAdmin(mConf);
+    try {
+      Set<String> snapshots = listSnapshots(admin);
+      for (String table : tables) {
+        String snapshot = getSnapshotName(table);
+        if (snapshots.contains(snapshot)) {
+          admin.deleteSnapshot(snapshot);
+        }
+        admin.snapshot(snapshot, table);
+        getLog().info("Saved the state of table " + table + " as snapshot " + snapshot);
+      }
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Saves the state of tables that were just seeded, so that resetting them restores the seeded
+   * data.  If the cluster has snapshots disabled, warns that resetting them will drop it.
+   *
+   * @param tables The names of the seeded tables.
+   * @throws IOException If a snapshot cannot be taken.
+   */
+  public void saveSeededState(Collection<String> tables) throws IOException {
+    if (tables.isEmpty()) {
+      return;
+    }
+    if (!isSnapshotEnabled()) {
+      getLog().warn("Snapshots are disabled, so resetting the seeded tables " + tables
+          + " truncates them and drops their seeded data.  Set 'snapshots' to true on the"
+          + " 'start' goal to reset them to their seeded state.");
+      return;
+    }
+    saveState(tables);
+  }
+
+  /**
+   * Resets tables in parallel, restoring their saved state if there is one.
+   *
+   * @param tables The names of the tables.
+   * @throws IOException If a table cannot be reset.
+   */
+  public void reset(Collection<String> tables) throws IOException {
+    reset(tables, Method.AUTO);
+  }
+
+  /**
+   * Resets tables in parallel.
+   *
+   * @param tables The names of the tables.
+   * @param method How to reset the tables.
+   * @throws IOException If a table cannot be reset.
+   */
+  public void reset(Collection<String> tables, Method method) throws IOException {
+    if (tables.isEmpty()) {
+      return;
+    }
+    long startTime = System.currentTimeMillis();
+    final Set<String> snapshots;
+    if (Method.AUTO == method || Method.SNAPSHOT == method) {
+      HBaseAdmin admin = new HBaseAdmin(mConf);
+      try {
+        snapshots = isSnapshotEnabled() ? listSnapshots(admin) : new HashSet<String>();
+      } finally {
+        admin.close();
+      }
+    } else {
+      snapshots = new HashSet<String>();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(tables.size(), MAX_THREADS));
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final String table : tables) {
+        final Method tableMethod;
+        if (Method.AUTO == method) {
+          if (snapshots.contains(getSnapshotName(table))) {
+            tableMethod = Method.SNAPSHOT;
+          } else {
+            getLog().warn("There is no saved state for table " + table + ", truncating it."
+                + "  Any data it was seeded with is dropped.");
+            tableMethod = Method.TRUNCATE;
+          }
+        } else if (Method.SNAPSHOT == method && !snapshots.contains(getSnapshotName(table))) {
+          throw new IOException("There is no saved state for table " + table);
+        } else {
+          tableMethod = method;
+        }
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            resetTable(table, tableMethod);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted resetting tables.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to reset tables.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    getLog().info("Reset " + tables.size() + " tables in "
+        + (System.currentTimeMillis() - startTime) + " ms.");
+  }
+
+  /**
+   * Resets a table.
+   *
+   * @param table The name of the table.
+   * @param method How to reset the table, other than {@link Method#AUTO}.
+   * @throws IOException If the table cannot be reset.
+   */
+  private void resetTable(String table, Method method) throws IOException {
+    getLog().debug("Resetting table " + table + " by " + method.name().toLowerCase());
+    if (Method.DELETE == method) {
+      deleteRows(table);
+      return;
+    }
+    HBaseAdmin admin = new HBaseAdmin(mConf);
+    try {
+      if (Method.SNAPSHOT == method) {
+        if (admin.isTableEnabled(table)) {
+          admin.disableTable(table);
+        }
+        admin.restoreSnapshot(getSnapshotName(table));
+        admin.enableTable(table);
+        return;
+      }
+
+      HTableDescriptor descriptor;
+      byte[][] startKeys;
+      HTable htable = new HTable(mConf, table);
+      try {
+        descriptor = htable.getTableDescriptor();
+        startKeys = htable.getStartKeys();
+      } finally {
+        htable.close();
+      }
+      if (admin.isTableEnabled(table)) {
+        admin.disableTable(table);
+      }
+      admin.deleteTable(table);
+      if (startKeys.length > 1) {
+        // The first region has an empty start key, which is not a split key.
+        admin.createTable(descriptor, Arrays.copyOfRange(startKeys, 1, startKeys.length));
+      } else {
+        admin.createTable(descriptor);
+      }
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Deletes every row of a table.
+   *
+   * @param table The name of the table.
+   * @throws IOException If the rows cannot be deleted.
+   */
+  private void deleteRows(String table) throws IOException {
+    HTable htable = new HTable(mConf, table);
+    try {
+      Scan scan = new Scan();
+      scan.setFilter(new FirstKeyOnlyFilter());
+      scan.setCaching(DELETE_BATCH_SIZE);
+      List<Delete> deletes = new ArrayList<Delete>();
+      ResultScanner scanner = htable.getScanner(scan);
+      try {
+        for (Result result : scanner) {
+          deletes.add(new Delete(result.getRow()));
+          if (deletes.size() >= DELETE_BATCH_SIZE) {
+            htable.delete(deletes);
+            deletes.clear();
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+      if (!deletes.isEmpty()) {
+        htable.delete(deletes);
+      }
+    } finally {
+      htable.close();
+    }
+  }
+
+  /**
+   * Lists the snapshots in the cluster.
+   *
+   * @param admin The admin of the cluster.
+   * @return The names of the snapshots.
+   * @throws IOException If the snapshots cannot be listed.
+   */
+  private static Set<String> listSnapshots(HBaseAdmin admin) throws IOException {
+    Set<String> snapshots = new HashSet<String>();
+    for (SnapshotDescription snapshot : admin.listSnapshots()) {
+      snapshots.add(snapshot.getName());
+    }
+    return snapshots;
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Writes files to a tar stream in the ustar format.  Names longer than ustar allows are written
+ * with GNU long name entries, which GNU tar and bsdtar both read.
+ */
+public class TarWriter {
+  /** The size of tar headers and of the blocks file contents are padded to. */
+  private static final int BLOCK_SIZE = 512;
+
+  /** The largest file size a ustar header can hold: 11 octal digits. */
+  private static final long MAX_SIZE = 077777777777L;
+
+  /** The name GNU tar gives the entries that hold long names. */
+  private static final String LONG_NAME = "././@LongLink";
+
+  /** The stream the tar is written to. */
+  private final OutputStream mOut;
+
+  /** A buffer for copying file contents. */
+  private final byte[] mBuffer = new byte[64 * 1024];
+
+  /**
+   * Creates a new <code>TarWriter</code> instance.
+   *
+   * @param out The stream to write the tar to.  It is closed by {@link #close()}.
+   */
+  public TarWriter(OutputStream out) {
+    mOut = out;
+  }
+
+  /**
+   * Adds a file.  If the file grows while it is written, only its size when it was opened is
+   * written; if it shrinks, it is padded with zeros.
+   *
+   * @param file The file.
+   * @param name The name of the entry, with '/' separators.
+   * @return The number of bytes of the file written.
+   * @throws IOException If the file cannot be read or the tar cannot be written.
+   */
+  public long putFile(File file, String name) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      long size = file.length();
+      if (size > MAX_SIZE) {
+        throw new IOException(file.getPath() + " is too large for a tar archive.");
+      }
+      writeHeader(name, file.canExecute() ? 0755 : 0644, size, file.lastModified(), '0');
+      long remaining = size;
+      while (remaining > 0) {
+        int read = in.read(mBuffer, 0, (int) Math.min(mBuffer.length, remaining));
+        if (read < 0) {
+          break;
+        }
+        mOut.write(mBuffer, 0, read);
+        remaining -= read;
+      }
+      if (remaining > 0) {
+        Arrays.fill(mBuffer, (byte) 0);
+      }
+      while (remaining > 0) {
+        int padding = (int) Math.min(mBuffer.length, remaining);
+        mOut.write(mBuffer, 0, padding);
+        remaining -= padding;
+      }
+      pad(size);
+      return size;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the end of the archive and closes the stream.
+   *
+   * @throws IOException If the stream cannot be written.
+   */
+  public void close() throws IOException {
+    try {
+      mOut.write(new byte[2 * BLOCK_SIZE]);
+    } finally {
+      mOut.close();
+    }
+  }
+
+  /**
+   * Writes the header of an entry, preceded by a GNU long name entry if the name is too long.
+   *
+   * @param name The name of the entry.
+   * @param mode The permissions of the entry.
+   * @param size The size of the entry.
+   * @param lastModified When the entry was last modified, in milliseconds since the epoch.
+   * @param type The ustar type flag of the entry.
+   * @throws IOException If the stream cannot be written.
+   */
+  private void writeHeader(String name, int mode, long size, long lastModified, char type)
+      throws IOException {
+    byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+    if (nameBytes.length > 100) {
+      writeHeader(LONG_NAME, 0644, nameBytes.length + 1, 0L, 'L');
+      mOut.write(nameBytes);
+      mOut.write(0);
+      pad(nameBytes.length + 1);
+    }
+    byte[] header = new byte[BLOCK_SIZE];
+    System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+    putOctal(header, 100, 8, mode);
+    putOctal(header, 108, 8, 0L);
+    putOctal(header, 116, 8, 0L);
+    putOctal(header, 124, 12, size);
+    putOctal(header, 136, 12, lastModified / 1000L);
+    header[156] = (byte) type;
+    System.arraycopy(("ustar\u0000" + "00").getBytes(Charsets.US_ASCII), 0, header, 257, 8);
+
+    // The checksum is computed with the checksum field filled with spaces.
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    putOctal(header, 148, 7, checksum);
+    mOut.write(header);
+  }
+
+  /**
+   * Pads the contents of an entry to a whole number of blocks.
+   *
+   * @param size The size of the contents.
+   * @throws IOException If the stream cannot be written.
+   */
+  private void pad(long size) throws IOException {
+    int remainder = (int) (size % BLOCK_SIZE);
+    if (remainder > 0) {
+      mOut.write(new byte[BLOCK_SIZE - remainder]);
+    }
+  }
+
+  /**
+   * Writes a number as zero-padded octal digits followed by a NUL.
+   *
+   * @param header The header to write into.
+   * @param offset Where the field starts.
+   * @param length The length of the field, including the NUL.
+   * @param value The number.
+   */
+  static void putOctal(byte[] header, int offset, int length, long value) {
+    String digits = Long.toOctalString(value);
+    if (digits.length() > length - 1) {
+      throw new IllegalArgumentException(value + " does not fit in a tar header field.");
+    }
+    int padding = length - 1 - digits.length();
+    for (int i = 0; i < length - 1; i++) {
+      header[offset + i] = (byte) (i < padding ? '0' : digits.charAt(i - padding));
+    }
+    header[offset + length - 1] = 0;
+  }
+}
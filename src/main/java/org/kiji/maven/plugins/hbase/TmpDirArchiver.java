@@ -0,0 +1,387 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.HardLink;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Saves a directory, such as the Hadoop tmp dir of a cluster, to the build directory.
+ *
+ * <p>The directory can be copied, hard linked, which takes no time or space but only works
+ * within one filesystem, or written to a tar archive compressed on several threads.  Ant-style
+ * include and exclude patterns choose the files to save.  Files that disappear while the
+ * directory is saved, as files of a running cluster may, are skipped.</p>
+ */
+public class TmpDirArchiver extends MavenLogged {
+  /** How the directory is saved. */
+  public enum Mode {
+    /** Copy the files. */
+    COPY,
+    /** Hard link the files, copying those that cannot be linked. */
+    HARDLINK,
+    /** Write the files to a gzip compressed tar archive. */
+    ARCHIVE;
+
+    /**
+     * Parses a mode name.
+     *
+     * @param name The name of the mode, in any case.
+     * @return The mode.
+     * @throws IllegalArgumentException If there is no mode with the name.
+     */
+    public static Mode parse(String name) {
+      for (Mode mode : values()) {
+        if (mode.name().equalsIgnoreCase(name.trim())) {
+          return mode;
+        }
+      }
+      throw new IllegalArgumentException(
+          "mode must be 'copy', 'hardlink' or 'archive', not '" + name + "'.");
+    }
+  }
+
+  /** How the directory is saved. */
+  private final Mode mMode;
+
+  /** The patterns of the files to save, or null to save all. */
+  private final String[] mIncludes;
+
+  /** The patterns of the files not to save, or null. */
+  private final String[] mExcludes;
+
+  /** The number of threads to copy, link or compress with. */
+  private final int mThreads;
+
+  /**
+   * Creates a new <code>TmpDirArchiver</code> instance.
+   *
+   * @param log The maven log.
+   * @param mode How the directory is saved.
+   * @param includes Comma separated patterns of the files to save, or null to save all.
+   * @param excludes Comma separated patterns of the files not to save, or null.
+   * @param threads The number of threads to copy, link or compress with, or 0 for one per
+   *     processor.
+   */
+  public TmpDirArchiver(Log log, Mode mode, String includes, String excludes, int threads) {
+    super(log);
+    mMode = mode;
+    mIncludes = splitPatterns(includes);
+    mExcludes = splitPatterns(excludes);
+    mThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Saves a directory, replacing any earlier save.
+   *
+   * @param sourceDir The directory to save.
+   * @param target The directory to save it to, or the archive to write, without its
+   *     ".tar.gz" extension.
+   * @return Where the directory was saved.
+   * @throws IOException If the directory cannot be saved.
+   */
+  public File save(File sourceDir, File target) throws IOException {
+    if (!sourceDir.isDirectory()) {
+      throw new IOException(sourceDir.getPath() + " does not exist.");
+    }
+    long startTime = System.currentTimeMillis();
+    List<String> files = scan(sourceDir);
+    File saved = Mode.ARCHIVE == mMode
+        ? new File(target.getPath() + ".tar.gz") : target;
+    FileUtils.deleteQuietly(saved);
+
+    Summary summary = new Summary();
+    if (Mode.ARCHIVE == mMode) {
+      archive(sourceDir, files, saved, summary);
+    } else if (Mode.HARDLINK == mMode) {
+      link(sourceDir, files, saved, summary);
+    } else {
+      copy(sourceDir, files, saved, summary);
+    }
+
+    StringBuilder message = new StringBuilder(String.format(
+        "Saved %d file(s), %.1f MB, of %s to %s in %.1f s", summary.mFiles.get(),
+        summary.mBytes.get() / (1024.0 * 1024.0), sourceDir.getPath(), saved.getPath(),
+        (System.currentTimeMillis() - startTime) / 1000.0));
+    if (Mode.ARCHIVE == mMode) {
+      message.append(String.format(", compressed to %.1f MB",
+          summary.mCompressedBytes.get() / (1024.0 * 1024.0)));
+    } else if (Mode.HARDLINK == mMode) {
+      message.append(", ").append(summary.mCopied.get()).append(" of them copied");
+    }
+    message.append('.');
+    if (summary.mSkipped.get() > 0) {
+      message.append("  Skipped ").append(summary.mSkipped.get())
+          .append(" file(s) that disappeared.");
+    }
+    getLog().info(message.toString());
+    return saved;
+  }
+
+  /**
+   * Lists the files to save.
+   *
+   * @param sourceDir The directory to save.
+   * @return The paths of the files relative to the directory, in order.
+   */
+  List<String> scan(File sourceDir) {
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir(sourceDir);
+    if (null != mIncludes) {
+      scanner.setIncludes(mIncludes);
+    }
+    if (null != mExcludes) {
+      scanner.setExcludes(mExcludes);
+    }
+    scanner.scan();
+    String[] files = scanner.getIncludedFiles();
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  /**
+   * Copies files on several threads.
+   *
+   * @param sourceDir The directory to save.
+   * @param files The files to save, relative to the directory.
+   * @param targetDir The directory to copy them to.
+   * @param summary Counts what was saved.
+   * @throws IOException If a file cannot be copied.
+   */
+  private void copy(final File sourceDir, List<String> files, final File targetDir,
+      final Summary summary) throws IOException {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final String file : files) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          copyFile(new File(sourceDir, file), new File(targetDir, file), summary);
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+  }
+
+  /**
+   * Hard links files, a directory at a time on several threads.  The files of a directory that
+   * cannot be linked, for example because it is on another filesystem, are copied.
+   *
+   * @param sourceDir The directory to save.
+   * @param files The files to save, relative to the directory.
+   * @param targetDir The directory to link them into.
+   * @param summary Counts what was saved.
+   * @throws IOException If a file can be neither linked nor copied.
+   */
+  private void link(final File sourceDir, List<String> files, final File targetDir,
+      final Summary summary) throws IOException {
+    Map<String, List<String>> filesByDir = new LinkedHashMap<String, List<String>>();
+    for (String file : files) {
+      String dir = new File(file).getParent();
+      String key = null == dir ? "" : dir;
+      if (!filesByDir.containsKey(key)) {
+        filesByDir.put(key, new ArrayList<String>());
+      }
+      filesByDir.get(key).add(new File(file).getName());
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final Map.Entry<String, List<String>> dir : filesByDir.entrySet()) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          File source = new File(sourceDir, dir.getKey());
+          File target = new File(targetDir, dir.getKey());
+          if (!target.isDirectory() && !target.mkdirs() && !target.isDirectory()) {
+            throw new IOException("Unable to create directory " + target.getPath());
+          }
+          List<String> names = dir.getValue();
+          try {
+            HardLink.createHardLinkMult(source, names.toArray(new String[names.size()]), target);
+            for (String name : names) {
+              summary.mFiles.incrementAndGet();
+              summary.mBytes.addAndGet(new File(target, name).length());
+            }
+          } catch (IOException e) {
+            getLog().debug("Unable to link the files of " + source.getPath() + ": " + e);
+            for (String name : names) {
+              File targetFile = new File(target, name);
+              if (!targetFile.exists()) {
+                copyFile(new File(source, name), targetFile, summary);
+                summary.mCopied.incrementAndGet();
+              } else {
+                summary.mFiles.incrementAndGet();
+                summary.mBytes.addAndGet(targetFile.length());
+              }
+            }
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+  }
+
+  /**
+   * Writes files to a tar archive compressed on several threads.
+   *
+   * @param sourceDir The directory to save.
+   * @param files The files to save, relative to the directory.
+   * @param archive The archive to write.
+   * @param summary Counts what was saved.
+   * @throws IOException If the archive cannot be written.
+   */
+  private void archive(File sourceDir, List<String> files, File archive, Summary summary)
+      throws IOException {
+    File parent = archive.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Unable to create directory " + parent.getPath());
+    }
+    ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(
+        new BufferedOutputStream(new FileOutputStream(archive)), mThreads);
+    TarWriter tar = new TarWriter(gzip);
+    boolean closed = false;
+    try {
+      for (String file : files) {
+        File source = new File(sourceDir, file);
+        String name = sourceDir.getName() + "/" + file.replace(File.separatorChar, '/');
+        try {
+          summary.mBytes.addAndGet(tar.putFile(source, name));
+          summary.mFiles.incrementAndGet();
+        } catch (FileNotFoundException e) {
+          // The file is opened before anything is written for it.
+          summary.mSkipped.incrementAndGet();
+        }
+      }
+      tar.close();
+      closed = true;
+    } finally {
+      if (!closed) {
+        gzip.close();
+      }
+    }
+    summary.mCompressedBytes.set(gzip.getCompressedBytes());
+  }
+
+  /**
+   * Copies a file, counting it as skipped if it has disappeared.
+   *
+   * @param source The file to copy.
+   * @param target The copy.
+   * @param summary Counts what was saved.
+   * @throws IOException If the file cannot be copied.
+   */
+  private static void copyFile(File source, File target, Summary summary) throws IOException {
+    try {
+      FileUtils.copyFile(source, target);
+    } catch (FileNotFoundException e) {
+      if (source.exists()) {
+        throw e;
+      }
+      summary.mSkipped.incrementAndGet();
+      return;
+    }
+    summary.mFiles.incrementAndGet();
+    summary.mBytes.addAndGet(target.length());
+  }
+
+  /**
+   * Runs tasks on the archiver's threads and waits for them.
+   *
+   * @param tasks The tasks.
+   * @throws IOException The first error thrown by a task.
+   */
+  private void runAll(List<Callable<Void>> tasks) throws IOException {
+    if (tasks.isEmpty()) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, tasks.size()));
+    try {
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving files.");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      IOException ioe = new IOException("Unable to save files.");
+      ioe.initCause(e.getCause());
+      throw ioe;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Splits comma separated patterns.
+   *
+   * @param patterns The patterns, or null.
+   * @return The patterns, or null if there are none.
+   */
+  static String[] splitPatterns(String patterns) {
+    if (null == patterns) {
+      return null;
+    }
+    Iterable<String> split = Splitter.on(',').trimResults().omitEmptyStrings().split(patterns);
+    return Iterables.isEmpty(split) ? null : Iterables.toArray(split, String.class);
+  }
+
+  /** Counts what was saved, across threads. */
+  private static final class Summary {
+    /** The number of files saved. */
+    private final AtomicInteger mFiles = new AtomicInteger();
+
+    /** The number of files that were copied because they could not be linked. */
+    private final AtomicInteger mCopied = new AtomicInteger();
+
+    /** The number of files that disappeared before they could be saved. */
+    private final AtomicInteger mSkipped = new AtomicInteger();
+
+    /** The number of bytes saved. */
+    private final AtomicLong mBytes = new AtomicLong();
+
+    /** The size of the compressed archive. */
+    private final AtomicLong mCompressedBytes = new AtomicLong();
+  }
+}
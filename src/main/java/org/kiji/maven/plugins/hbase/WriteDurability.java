@@ -0,0 +1,81 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Configures a cluster for non-durable writes, for integration tests whose data is thrown away
+ * when the cluster stops.
+ *
+ * <p>Tables created by the plugin in a non-durable cluster flush their write-ahead log in the
+ * background instead of syncing it on every write.  The cluster also flushes memstores less
+ * often, doesn't block writes behind compactions as early, and doesn't recover HDFS write
+ * pipelines or sync blocks on close.  A regionserver that dies loses the last seconds of
+ * writes.</p>
+ *
+ * <p>The setting is recorded in the cluster configuration, and so in the site files, as
+ * {@link #DURABLE_PROPERTY}.</p>
+ */
+public final class WriteDurability {
+  /** The property that records whether the writes of a cluster are durable. */
+  public static final String DURABLE_PROPERTY = "hbase.maven.plugin.durable.writes";
+
+  /** The configuration overrides of a non-durable cluster. */
+  static final Map<String, String> NON_DURABLE_OVERRIDES = ImmutableMap.<String, String>builder()
+      // Sync the log of deferred log flush tables every 10 s instead of every second.
+      .put("hbase.regionserver.optionallogflushinterval", "10000")
+      // Flush memstores at 256 MB, and let them grow further before writes block.
+      .put("hbase.hregion.memstore.flush.size", "268435456")
+      .put("hbase.hregion.memstore.block.multiplier", "8")
+      .put("hbase.hstore.blockingStoreFiles", "50")
+      // Don't roll the log when its blocks are under-replicated.
+      .put("hbase.regionserver.hlog.tolerable.lowreplication", "1")
+      // Don't rebuild write pipelines after datanode failures or sync blocks on close.
+      .put("dfs.client.block.write.replace-datanode-on-failure.enable", "false")
+      .put("dfs.datanode.synconclose", "false")
+      .build();
+
+  /** Disable the constructor for this utility class. */
+  private WriteDurability() {}
+
+  /**
+   * Configures a cluster for non-durable writes.
+   *
+   * @param conf The configuration of the cluster.
+   */
+  public static void disable(Configuration conf) {
+    for (Map.Entry<String, String> override : NON_DURABLE_OVERRIDES.entrySet()) {
+      conf.set(override.getKey(), override.getValue());
+    }
+    conf.setBoolean(DURABLE_PROPERTY, false);
+  }
+
+  /**
+   * Determines whether the writes of a cluster are durable.
+   *
+   * @param conf The configuration of the cluster.
+   * @return False if the cluster was configured for non-durable writes.
+   */
+  public static boolean isDurable(Configuration conf) {
+    return conf.getBoolean(DURABLE_PROPERTY, true);
+  }
+}
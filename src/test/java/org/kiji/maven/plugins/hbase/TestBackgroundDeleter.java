@@ -0,0 +1,96 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBackgroundDeleter {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  /**
+   * Creates a directory tree a few levels deep.
+   *
+   * @param root The root of the tree.
+   * @throws IOException If the tree cannot be written.
+   */
+  private static void createTree(File root) throws IOException {
+    for (int i = 0; i < 3; i++) {
+      File dir = new File(root, "dir" + i + "/sub/subsub");
+      for (int j = 0; j < 5; j++) {
+        FileUtils.writeStringToFile(new File(dir, "file" + j), "data", Charsets.UTF_8.name());
+      }
+    }
+    FileUtils.writeStringToFile(new File(root, "top"), "data", Charsets.UTF_8.name());
+    assertTrue(new File(root, "empty").mkdir());
+  }
+
+  @Test
+  public void testDeleteTree() throws Exception {
+    File root = new File(mTempDir.getRoot(), "tree");
+    createTree(root);
+    assertEquals(0, BackgroundDeleter.deleteTree(root, 3));
+    assertFalse(root.exists());
+    assertTrue(mTempDir.getRoot().exists());
+  }
+
+  @Test
+  public void testDeleteInBackground() throws Exception {
+    File root = new File(mTempDir.getRoot(), "hadoop-tmp");
+    createTree(root);
+    Thread deleter = new BackgroundDeleter(new SystemStreamLog(), 2).deleteInBackground(root);
+
+    // The directory is renamed aside right away, so a new one can be created.
+    assertFalse(root.exists());
+    assertTrue(root.mkdir());
+
+    deleter.join();
+    assertEquals(1, mTempDir.getRoot().list().length);
+    assertTrue(root.isDirectory());
+  }
+
+  @Test
+  public void testSweep() throws Exception {
+    File leftover =
+        new File(mTempDir.getRoot(), "hadoop-tmp" + BackgroundDeleter.TRASH_MARKER + "1");
+    createTree(leftover);
+    File other = new File(mTempDir.getRoot(), "other");
+    createTree(other);
+
+    new BackgroundDeleter(new SystemStreamLog(), 2).sweepInBackground(mTempDir.getRoot()).join();
+    assertFalse(leftover.exists());
+    assertTrue(new File(other, "top").exists());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingDirectory() throws Exception {
+    new BackgroundDeleter(new SystemStreamLog()).deleteInBackground(
+        new File(mTempDir.getRoot(), "missing"));
+  }
+}
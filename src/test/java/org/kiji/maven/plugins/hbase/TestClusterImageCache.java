@@ -0,0 +1,99 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestClusterImageCache {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  /** A mock maven log that accepts any calls. */
+  private Log mLog;
+
+  @Before
+  public void createMocks() {
+    mLog = createNiceMock(Log.class);
+    replay(mLog);
+  }
+
+  @Test
+  public void testKeyDependsOnConfiguration() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set("foo", "bar");
+    String key = ClusterImageCache.computeKey(conf);
+
+    Configuration sameConf = new Configuration(false);
+    sameConf.set("foo", "bar");
+    assertEquals(key, ClusterImageCache.computeKey(sameConf));
+
+    conf.set("foo", "baz");
+    assertFalse(key.equals(ClusterImageCache.computeKey(conf)));
+    assertFalse(key.equals(ClusterImageCache.computeKey(sameConf, "datanodes=3")));
+  }
+
+  @Test
+  public void testKeyIgnoresPerClusterDirectories() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set("foo", "bar");
+    conf.set("hadoop.tmp.dir", "/tmp/hadoop/module-a");
+    Configuration otherModuleConf = new Configuration(false);
+    otherModuleConf.set("foo", "bar");
+    otherModuleConf.set("hadoop.tmp.dir", "/tmp/hadoop/module-b");
+    assertEquals(ClusterImageCache.computeKey(conf),
+        ClusterImageCache.computeKey(otherModuleConf));
+  }
+
+  @Test
+  public void testStoreAndRestore() throws Exception {
+    // Lay out something that looks like a stopped MiniDFSCluster base directory.
+    File dfs = mTempDir.newFolder("dfs");
+    File block = new File(dfs, "data/data1/current/finalized/blk_1");
+    FileUtils.writeStringToFile(block, "block data");
+    FileUtils.writeStringToFile(new File(dfs, "name1/current/VERSION"), "namenode version");
+    FileUtils.writeStringToFile(new File(dfs, "data/data1/in_use.lock"), "");
+
+    File cacheDir = mTempDir.newFolder("images");
+    ClusterImageCache cache = new ClusterImageCache(mLog, cacheDir, "key");
+    assertFalse(cache.hasImage());
+
+    cache.store(dfs, 1234L);
+    assertTrue(cache.hasImage());
+    assertEquals(1234L, cache.getColdStartMillis());
+    assertFalse(new ClusterImageCache(mLog, cacheDir, "otherkey").hasImage());
+
+    File restored = new File(mTempDir.getRoot(), "restored");
+    cache.restore(restored);
+    assertEquals("block data",
+        FileUtils.readFileToString(new File(restored, "data/data1/current/finalized/blk_1")));
+    assertEquals("namenode version",
+        FileUtils.readFileToString(new File(restored, "name1/current/VERSION")));
+    assertFalse(new File(restored, "data/data1/in_use.lock").exists());
+  }
+}
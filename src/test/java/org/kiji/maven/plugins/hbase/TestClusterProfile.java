@@ -0,0 +1,63 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestClusterProfile {
+  @Test
+  public void testParse() {
+    assertEquals(ClusterProfile.DEFAULT, ClusterProfile.parse("default"));
+    assertEquals(ClusterProfile.FAST, ClusterProfile.parse("Fast"));
+    assertEquals(ClusterProfile.PRODUCTION_LIKE, ClusterProfile.parse(" production-like "));
+    assertEquals("production-like", ClusterProfile.PRODUCTION_LIKE.getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseUnknownProfile() {
+    ClusterProfile.parse("turbo");
+  }
+
+  @Test
+  public void testDefaultChangesNothing() {
+    Configuration conf = new Configuration(false);
+    ClusterProfile.DEFAULT.apply(conf);
+    assertEquals(0, conf.size());
+  }
+
+  @Test
+  public void testFastOverridesCanBeOverridden() {
+    Configuration conf = new Configuration(false);
+    ClusterProfile.FAST.apply(conf);
+    assertEquals("1", conf.get("dfs.replication"));
+    assertEquals("3600000", conf.get("hbase.balancer.period"));
+    assertEquals("fast", conf.get(ClusterProfile.PROFILE_PROPERTY));
+
+    conf.set("dfs.replication", "2");
+    assertEquals(2, conf.getInt("dfs.replication", 0));
+  }
+
+  @Test
+  public void testProductionLikePinsWhatFastTunes() {
+    assertTrue(ClusterProfile.FAST.getOverrides().keySet()
+        .containsAll(ClusterProfile.PRODUCTION_LIKE.getOverrides().keySet()));
+  }
+}
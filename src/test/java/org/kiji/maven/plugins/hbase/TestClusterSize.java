@@ -0,0 +1,61 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestClusterSize {
+  /** A gigabyte. */
+  private static final long GB = 1024L * 1024L * 1024L;
+
+  @Test
+  public void testExplicitCounts() {
+    ClusterSize size = ClusterSize.resolve("2", "3", "4", "5", 16, 4 * GB);
+    assertEquals(new ClusterSize(2, 3, 4, 5), size);
+  }
+
+  @Test
+  public void testAutoCountsFollowProcessors() {
+    ClusterSize size = ClusterSize.resolve("auto", "auto", "auto", "auto", 8, 4 * GB);
+    assertEquals(1, size.getMasters());
+    assertEquals(4, size.getRegionServers());
+    assertEquals(3, size.getDataNodes());
+    assertEquals(2, size.getTaskTrackers());
+  }
+
+  @Test
+  public void testAutoCountsAreCappedByHeap() {
+    // Half of 512 MB leaves room for two 128 MB servers.
+    ClusterSize size = ClusterSize.resolve("1", "auto", "auto", "1", 32, 512L * 1024L * 1024L);
+    assertEquals(2, size.getRegionServers());
+    assertEquals(2, size.getDataNodes());
+  }
+
+  @Test
+  public void testParseRoundTrip() {
+    ClusterSize size = new ClusterSize(1, 2, 3, 4);
+    assertEquals(size, ClusterSize.parse(size.toString()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCount() {
+    ClusterSize.resolve("1", "many", "1", "1", 4, GB);
+  }
+}
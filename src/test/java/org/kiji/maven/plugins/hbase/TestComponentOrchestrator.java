@@ -0,0 +1,183 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestComponentOrchestrator {
+  /** A mock maven log. */
+  private Log mLog;
+
+  /** The names of the components that ran, in order. */
+  private List<String> mRan;
+
+  @Before
+  public void setup() {
+    mLog = createNiceMock(Log.class);
+    replay(mLog);
+    mRan = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  /**
+   * Creates an action that records that it ran.
+   *
+   * @param name The name of the component.
+   * @return The action.
+   */
+  private Callable<Void> record(final String name) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() {
+        mRan.add(name);
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Creates an action that never finishes unless it is interrupted.
+   *
+   * @return The action.
+   */
+  private static Callable<Void> wedge() {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        Thread.sleep(60L * 1000L);
+        return null;
+      }
+    };
+  }
+
+  @Test
+  public void testDependenciesRunFirst() throws Exception {
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(mLog, "test");
+    orchestrator.add("first", record("first"));
+    orchestrator.add("second", record("second"), "first");
+    orchestrator.add("third", record("third"), "first", "second");
+    orchestrator.run();
+    assertEquals(3, mRan.size());
+    assertEquals("first", mRan.get(0));
+    assertEquals("second", mRan.get(1));
+    assertEquals("third", mRan.get(2));
+    assertEquals(3, orchestrator.getElapsedMillis().size());
+  }
+
+  @Test
+  public void testOverrunComponentIsHalted() throws Exception {
+    final AtomicBoolean halted = new AtomicBoolean();
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(mLog, "test");
+    orchestrator.add("wedged", wedge());
+    orchestrator.setHaltAction("wedged", new Runnable() {
+      @Override
+      public void run() {
+        halted.set(true);
+      }
+    });
+    orchestrator.add("after", record("after"), "wedged");
+    orchestrator.setDeadlines(200L, 0L);
+    orchestrator.setContinueAfterFailure(true);
+
+    long startTime = System.currentTimeMillis();
+    try {
+      orchestrator.run();
+      fail("Expected the wedged component to overrun its deadline.");
+    } catch (TimeoutException e) {
+      assertTrue(e.getMessage().contains("wedged"));
+    }
+    assertTrue(System.currentTimeMillis() - startTime < 30L * 1000L);
+    assertTrue(halted.get());
+    // The dependent component still ran.
+    assertEquals(Collections.singletonList("after"), mRan);
+  }
+
+  @Test
+  public void testBlockedHaltIsAbandoned() throws Exception {
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(mLog, "test");
+    orchestrator.add("wedged", wedge());
+    orchestrator.setHaltAction("wedged", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(60L * 1000L);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    });
+    orchestrator.add("after", record("after"), "wedged");
+    orchestrator.setDeadlines(200L, 0L);
+    orchestrator.setHaltTimeout(200L);
+    orchestrator.setContinueAfterFailure(true);
+
+    long startTime = System.currentTimeMillis();
+    try {
+      orchestrator.run();
+      fail("Expected the wedged component to overrun its deadline.");
+    } catch (TimeoutException e) {
+      assertTrue(e.getMessage().contains("wedged"));
+    }
+    assertTrue(System.currentTimeMillis() - startTime < 10L * 1000L);
+    assertEquals(Collections.singletonList("after"), mRan);
+  }
+
+  @Test
+  public void testOverallDeadlineSkipsPendingComponents() throws Exception {
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(mLog, "test");
+    orchestrator.add("wedged", wedge());
+    orchestrator.add("after", record("after"), "wedged");
+    orchestrator.setDeadlines(0L, 200L);
+    orchestrator.setContinueAfterFailure(true);
+    try {
+      orchestrator.run();
+      fail("Expected the deadline to pass.");
+    } catch (TimeoutException e) {
+      assertTrue(e.getMessage().contains("wedged"));
+    }
+    assertTrue(mRan.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHaltActionOfUnknownComponent() {
+    ComponentOrchestrator orchestrator = new ComponentOrchestrator(mLog, "test");
+    orchestrator.setHaltAction("missing", new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+  }
+
+  @Test
+  public void testThreadDump() {
+    String dump = ComponentOrchestrator.formatThreadDump();
+    assertTrue(dump.contains("\"" + Thread.currentThread().getName() + "\" RUNNABLE"));
+    assertTrue(dump.contains("at org.kiji.maven.plugins.hbase.TestComponentOrchestrator"));
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestConfigurationPartitioner {
+  /**
+   * Creates a configuration with a few HBase, ZooKeeper and Hadoop properties.
+   *
+   * @return The configuration.
+   */
+  private static Configuration createConfiguration() {
+    Configuration conf = new Configuration(false);
+    conf.set("hbase.rootdir", "hdfs://localhost:8020/hbase");
+    conf.set("hbase.zookeeper.quorum", "localhost");
+    conf.set("zookeeper.session.timeout", "30000");
+    conf.set("mapred.job.tracker", "localhost:9001");
+    return conf;
+  }
+
+  @Test
+  public void testDefaultRules() {
+    ConfigurationPartitioner.Partition partition =
+        new ConfigurationPartitioner().partition(createConfiguration());
+    assertEquals(Arrays.asList("hbase.rootdir", "hbase.zookeeper.quorum"),
+        Arrays.asList(partition.getHBaseProperties().keySet().toArray()));
+    assertEquals(Arrays.asList("mapred.job.tracker", "zookeeper.session.timeout"),
+        Arrays.asList(partition.getCoreProperties().keySet().toArray()));
+    assertEquals("localhost", partition.getHBaseProperties().get("hbase.zookeeper.quorum"));
+  }
+
+  @Test
+  public void testSharedPrefixesGoToBothFiles() {
+    ConfigurationPartitioner partitioner = new ConfigurationPartitioner(
+        null, Arrays.asList("zookeeper.", "hbase.zookeeper."));
+    ConfigurationPartitioner.Partition partition = partitioner.partition(createConfiguration());
+    assertEquals(3, partition.getHBaseProperties().size());
+    assertEquals(3, partition.getCoreProperties().size());
+    assertEquals("30000", partition.getHBaseProperties().get("zookeeper.session.timeout"));
+    assertEquals("localhost", partition.getCoreProperties().get("hbase.zookeeper.quorum"));
+    assertFalse(partition.getCoreProperties().containsKey("hbase.rootdir"));
+  }
+
+  @Test
+  public void testCustomHBasePrefixes() {
+    ConfigurationPartitioner partitioner =
+        new ConfigurationPartitioner(Arrays.asList("hbase.", "mapred."), null);
+    ConfigurationPartitioner.Partition partition = partitioner.partition(createConfiguration());
+    assertTrue(partition.getHBaseProperties().containsKey("mapred.job.tracker"));
+    assertEquals(1, partition.getCoreProperties().size());
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class TestFixtureLoader {
+  /** The families of the test columns. */
+  private static final byte[][] FAMILIES = {Bytes.toBytes("info"), Bytes.toBytes("info")};
+
+  /** The qualifiers of the test columns. */
+  private static final byte[][] QUALIFIERS = {Bytes.toBytes("name"), Bytes.toBytes("email")};
+
+  @Test
+  public void testParseLine() throws IOException {
+    List<KeyValue> cells = FixtureLoader.parseLine(
+        "\\x00row1\tAda\tada@example.com", '\t', FAMILIES, QUALIFIERS, 42L);
+    assertEquals(2, cells.size());
+    assertArrayEquals(new byte[] {0, 'r', 'o', 'w', '1'}, cells.get(0).getRow());
+    assertArrayEquals(Bytes.toBytes("name"), cells.get(0).getQualifier());
+    assertEquals("Ada", Bytes.toString(cells.get(0).getValue()));
+    assertEquals(42L, cells.get(1).getTimestamp());
+    assertEquals("ada@example.com", Bytes.toString(cells.get(1).getValue()));
+  }
+
+  @Test
+  public void testParseLineSkipsEmptyFields() throws IOException {
+    List<KeyValue> cells =
+        FixtureLoader.parseLine("row2,,grace@example.com", ',', FAMILIES, QUALIFIERS, 1L);
+    assertEquals(1, cells.size());
+    assertArrayEquals(Bytes.toBytes("email"), cells.get(0).getQualifier());
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseLineWithTooManyFields() throws IOException {
+    FixtureLoader.parseLine("row3\ta\tb\tc", '\t', FAMILIES, QUALIFIERS, 1L);
+  }
+
+  @Test
+  public void testGetRegion() {
+    byte[][] startKeys = {new byte[0], Bytes.toBytes("g"), Bytes.toBytes("p")};
+    assertEquals(0, FixtureLoader.getRegion(startKeys, new byte[0]));
+    assertEquals(0, FixtureLoader.getRegion(startKeys, Bytes.toBytes("a")));
+    assertEquals(1, FixtureLoader.getRegion(startKeys, Bytes.toBytes("g")));
+    assertEquals(1, FixtureLoader.getRegion(startKeys, Bytes.toBytes("o")));
+    assertEquals(2, FixtureLoader.getRegion(startKeys, Bytes.toBytes("z")));
+  }
+
+  @Test
+  public void testGetTables() {
+    Fixture users = new Fixture();
+    users.setTable("users");
+    Fixture moreUsers = new Fixture();
+    moreUsers.setTable("users");
+    Fixture events = new Fixture();
+    events.setTable("events");
+    assertEquals(Arrays.asList("users", "events"), new ArrayList<String>(
+        FixtureLoader.getTables(Arrays.asList(users, events, moreUsers))));
+  }
+}
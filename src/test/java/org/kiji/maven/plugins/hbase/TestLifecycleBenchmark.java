@@ -0,0 +1,104 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLifecycleBenchmark {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  @Test
+  public void testMedian() {
+    assertEquals(-1L, LifecycleBenchmark.median(Collections.<Long>emptyList()));
+    assertEquals(4L, LifecycleBenchmark.median(Arrays.asList(9L, 4L, 1L)));
+    assertEquals(2L, LifecycleBenchmark.median(Arrays.asList(3L, 1L, 2L, 8L)));
+  }
+
+  @Test
+  public void testColdAndWarmStarts() {
+    LifecycleBenchmark.Result result = new LifecycleBenchmark.Result("dfs-1rs");
+    assertEquals(-1L, result.getColdStartMillis());
+    assertEquals(-1L, result.getWarmStartMillis());
+
+    result.addIteration(20000L, 3000L, 400L, 200);
+    assertEquals(20000L, result.getColdStartMillis());
+    assertEquals(-1L, result.getWarmStartMillis());
+
+    result.addIteration(12000L, 2000L, 600L, 180);
+    result.addIteration(11000L, 2500L, 500L, 190);
+    assertEquals(20000L, result.getColdStartMillis());
+    assertEquals(11000L, result.getWarmStartMillis());
+    assertEquals(2500L, result.getStopMillis());
+    assertEquals(600L, result.getPeakHeapBytes());
+    assertEquals(200, result.getPeakThreads());
+  }
+
+  @Test
+  public void testVariantNames() {
+    assertEquals("dfs-1rs", new BenchmarkVariant().getName());
+    assertEquals("local-3rs-mr", new BenchmarkVariant(null, true, 3, "local").getName());
+    assertEquals("fast", new BenchmarkVariant("fast", true, 3, "local").getName());
+
+    BenchmarkVariant tuned = new BenchmarkVariant(null, false, 1, "dfs");
+    tuned.setProfile("fast");
+    assertEquals("dfs-1rs-fast", tuned.getName());
+    tuned.setNonDurableWrites(true);
+    assertEquals("dfs-1rs-fast-nondurable", tuned.getName());
+  }
+
+  @Test
+  public void testTableAndResults() throws Exception {
+    LifecycleBenchmark.Result ok = new LifecycleBenchmark.Result("dfs-1rs");
+    ok.addIteration(20000L, 3000L, 300L * 1024L * 1024L, 200);
+    ok.addWriteRate(15000L);
+    LifecycleBenchmark.Result failed = new LifecycleBenchmark.Result("local-1rs");
+    failed.setError("java.io.IOException: \"no\"\nspace");
+    List<LifecycleBenchmark.Result> results = Arrays.asList(ok, failed);
+
+    List<String> table = LifecycleBenchmark.formatTable(results);
+    assertEquals(4, table.size());
+    assertTrue(table.get(1).startsWith("dfs-1rs"));
+    assertTrue(table.get(1).contains("20.0 s"));
+    assertTrue(table.get(1).contains("300 MB"));
+    assertTrue(table.get(1).endsWith("15000"));
+    assertTrue(table.get(2).endsWith("-"));
+    assertTrue(table.get(3).contains("failed"));
+
+    File resultsFile = new File(mTempDir.getRoot(), "benchmark.json");
+    LifecycleBenchmark.writeResults(resultsFile, results);
+    String json = FileUtils.readFileToString(resultsFile, Charsets.UTF_8.name());
+    assertTrue(json.contains("\"coldStartMillis\": 20000"));
+    assertTrue(json.contains("\"startMillisAll\": [20000]"));
+    assertTrue(json.contains("\"writeRowsPerSecond\": 15000"));
+    assertTrue(json.contains("\"writeRowsPerSecond\": -1"));
+    assertTrue(json.contains("\"error\": null"));
+    assertTrue(json.contains("\"error\": \"java.io.IOException: \\\"no\\\"\\nspace\""));
+  }
+}
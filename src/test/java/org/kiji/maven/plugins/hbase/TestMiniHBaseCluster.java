@@ -17,6 +17,8 @@
 
 package org.kiji.maven.plugins.hbase;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.ServerSocket;
 
 import static org.easymock.EasyMock.*;
@@ -25,11 +27,19 @@ import static org.junit.Assert.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.zookeeper.MiniZooKeeperCluster;
 import org.apache.maven.plugin.logging.Log;
+import org.easymock.Capture;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class TestMiniHBaseCluster {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
   /** A mock maven log. */
   private Log mLog;
 
@@ -66,7 +76,16 @@ public class TestMiniHBaseCluster {
 
     // Expect the HBase cluster to be configured, started, and stopped.
     expect(mHBaseTestUtil.getConfiguration()).andReturn(new Configuration()).anyTimes();
-    expect(mHBaseTestUtil.startMiniCluster()).andReturn(null);
+    expect(mHBaseTestUtil.getDataTestDir()).andReturn(new Path("/test-data"));
+    expect(mHBaseTestUtil.getDataTestDir(anyObject(String.class)))
+        .andReturn(new Path("/test-data/cluster"));
+    expect(mHBaseTestUtil.startMiniDFSCluster(1)).andReturn(null);
+    expect(mHBaseTestUtil.startMiniZKCluster()).andReturn(null);
+    expect(mHBaseTestUtil.startMiniHBaseCluster(1, 1)).andReturn(null);
+    expect(mHBaseTestUtil.getMiniHBaseCluster()).andReturn(null).anyTimes();
+    mHBaseTestUtil.shutdownMiniHBaseCluster();
+    mHBaseTestUtil.shutdownMiniZKCluster();
+    mHBaseTestUtil.shutdownMiniDFSCluster();
     mHBaseTestUtil.shutdownMiniCluster();
 
     replayMocks();
@@ -86,7 +105,16 @@ public class TestMiniHBaseCluster {
     expect(mHBaseTestUtil.getConfiguration()).andReturn(new Configuration()).anyTimes();
 
     // Expect the HBase cluster to be started and stopped.
-    expect(mHBaseTestUtil.startMiniCluster()).andReturn(null);
+    expect(mHBaseTestUtil.getDataTestDir()).andReturn(new Path("/test-data"));
+    expect(mHBaseTestUtil.getDataTestDir(anyObject(String.class)))
+        .andReturn(new Path("/test-data/cluster"));
+    expect(mHBaseTestUtil.startMiniDFSCluster(1)).andReturn(null);
+    expect(mHBaseTestUtil.startMiniZKCluster()).andReturn(null);
+    expect(mHBaseTestUtil.startMiniHBaseCluster(1, 1)).andReturn(null);
+    expect(mHBaseTestUtil.getMiniHBaseCluster()).andReturn(null).anyTimes();
+    mHBaseTestUtil.shutdownMiniHBaseCluster();
+    mHBaseTestUtil.shutdownMiniZKCluster();
+    mHBaseTestUtil.shutdownMiniDFSCluster();
     mHBaseTestUtil.shutdownMiniCluster();
 
     // Expect that the MapReduce cluster will be started and stopped.
@@ -104,6 +132,107 @@ public class TestMiniHBaseCluster {
     verifyMocks();
   }
 
+  @Test
+  public void testTickTimeKeepsReservedZooKeeperPort() throws Exception {
+    // Expect any number of log calls.
+    mLog.info(anyObject(String.class));
+    expectLastCall().anyTimes();
+
+    // Expect ZooKeeper to be started by the cluster itself and handed to the testing utility.
+    Configuration conf = new Configuration();
+    conf.setInt(ClusterProfile.ZOOKEEPER_TICK_TIME_PROPERTY, 1000);
+    File dataDir = mTempDir.newFolder("test-data");
+    Capture<MiniZooKeeperCluster> zkCluster = new Capture<MiniZooKeeperCluster>();
+    expect(mHBaseTestUtil.getConfiguration()).andReturn(conf).anyTimes();
+    expect(mHBaseTestUtil.getDataTestDir()).andReturn(new Path(dataDir.getPath()));
+    expect(mHBaseTestUtil.getDataTestDir(anyObject(String.class)))
+        .andReturn(new Path(dataDir.getPath())).anyTimes();
+    expect(mHBaseTestUtil.startMiniDFSCluster(1)).andReturn(null);
+    mHBaseTestUtil.setZkCluster(capture(zkCluster));
+    expect(mHBaseTestUtil.startMiniHBaseCluster(1, 1)).andReturn(null);
+    expect(mHBaseTestUtil.getMiniHBaseCluster()).andReturn(null).anyTimes();
+    mHBaseTestUtil.shutdownMiniHBaseCluster();
+    mHBaseTestUtil.shutdownMiniZKCluster();
+    mHBaseTestUtil.shutdownMiniDFSCluster();
+    mHBaseTestUtil.shutdownMiniCluster();
+
+    replayMocks();
+    MiniHBaseCluster cluster = new MiniHBaseCluster(mLog, false /* Disable MR */, mHBaseTestUtil);
+    cluster.startup();
+    try {
+      int reservedPort = conf.getInt("test.hbase.zookeeper.property.clientPort", 0);
+      assertTrue("No ZooKeeper port was reserved.", reservedPort > 0);
+      assertEquals(reservedPort, zkCluster.getValue().getClientPort());
+      assertEquals(reservedPort, conf.getInt(HConstants.ZOOKEEPER_CLIENT_PORT, 0));
+    } finally {
+      // The mock testing utility does not stop the real ZooKeeper server.
+      zkCluster.getValue().shutdown();
+      cluster.shutdown();
+    }
+    verifyMocks();
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    // Expect any number of log calls.
+    mLog.info(anyObject(String.class));
+    expectLastCall().anyTimes();
+
+    // Expect the cluster to be started, then its components to be stopped without a graceful
+    // shutdown.
+    expect(mHBaseTestUtil.getConfiguration()).andReturn(new Configuration()).anyTimes();
+    expect(mHBaseTestUtil.getDataTestDir()).andReturn(new Path("/test-data"));
+    expect(mHBaseTestUtil.getDataTestDir(anyObject(String.class)))
+        .andReturn(new Path("/test-data/cluster"));
+    expect(mHBaseTestUtil.startMiniDFSCluster(1)).andReturn(null);
+    expect(mHBaseTestUtil.startMiniZKCluster()).andReturn(null);
+    expect(mHBaseTestUtil.startMiniHBaseCluster(1, 1)).andReturn(null);
+    expect(mHBaseTestUtil.getMiniHBaseCluster()).andReturn(null).anyTimes();
+    mHBaseTestUtil.shutdownMiniZKCluster();
+    expect(mHBaseTestUtil.getDFSCluster()).andReturn(null);
+
+    replayMocks();
+    MiniHBaseCluster cluster = new MiniHBaseCluster(mLog, false /* Disable MR */, mHBaseTestUtil);
+    cluster.startup();
+    cluster.abort(5000L);
+    assertFalse(cluster.isRunning());
+    verifyMocks();
+  }
+
+  @Test
+  public void testFailedStartupStopsStartedComponents() throws Exception {
+    // Expect any number of log calls.
+    mLog.info(anyObject(String.class));
+    expectLastCall().anyTimes();
+    mLog.warn(anyObject(String.class));
+    expectLastCall().anyTimes();
+
+    // Expect HBase to fail to start, then DFS and ZooKeeper to be stopped again.
+    expect(mHBaseTestUtil.getConfiguration()).andReturn(new Configuration()).anyTimes();
+    expect(mHBaseTestUtil.getDataTestDir()).andReturn(new Path("/test-data"));
+    expect(mHBaseTestUtil.getDataTestDir(anyObject(String.class)))
+        .andReturn(new Path("/test-data/cluster"));
+    expect(mHBaseTestUtil.startMiniDFSCluster(1)).andReturn(null);
+    expect(mHBaseTestUtil.startMiniZKCluster()).andReturn(null);
+    expect(mHBaseTestUtil.startMiniHBaseCluster(1, 1)).andThrow(new IOException("No master"));
+    expect(mHBaseTestUtil.getMiniHBaseCluster()).andReturn(null).anyTimes();
+    mHBaseTestUtil.shutdownMiniHBaseCluster();
+    mHBaseTestUtil.shutdownMiniZKCluster();
+    mHBaseTestUtil.shutdownMiniDFSCluster();
+    mHBaseTestUtil.shutdownMiniCluster();
+
+    replayMocks();
+    MiniHBaseCluster cluster = new MiniHBaseCluster(mLog, false /* Disable MR */, mHBaseTestUtil);
+    try {
+      cluster.startup();
+      fail("Expected the startup to fail.");
+    } catch (IOException e) {
+      assertEquals("No master", e.getMessage());
+    }
+    assertFalse(cluster.isRunning());
+    verifyMocks();
+  }
+
   @Test
   public void testListenerOccupied() throws Exception {
     // Test that findOpenPort() doesn't return a port we know to be in use.
@@ -0,0 +1,154 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.IOException;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Test;
+
+public class TestMiniHBaseClusterSingleton {
+  /**
+   * Tests that a shared cluster is only stopped once its last user releases it.
+   */
+  @Test
+  public void testSharedClusterIsReferenceCounted() throws Exception {
+    Log log = createNiceMock(Log.class);
+    MiniHBaseCluster hbaseCluster = createMock(MiniHBaseCluster.class);
+    Configuration conf = new Configuration(false);
+
+    // Expect the cluster to be started and shut down exactly once.
+    hbaseCluster.startup();
+    expect(hbaseCluster.getConfiguration()).andReturn(conf).anyTimes();
+    hbaseCluster.shutdown();
+    expect(hbaseCluster.getStopTimeoutMillis()).andReturn(0L).anyTimes();
+
+    replay(log);
+    replay(hbaseCluster);
+
+    MiniHBaseClusterSingleton singleton = MiniHBaseClusterSingleton.INSTANCE;
+    singleton.startAndWaitUntilReady(log, "shared", hbaseCluster, 0L, "key");
+
+    // Only a user with the same cluster id and key may acquire the cluster.
+    assertNull(singleton.acquire(log, "shared", "other-key"));
+    assertNull(singleton.acquire(log, "other-id", "key"));
+    assertSame(conf, singleton.acquire(log, "shared", "key"));
+
+    // The first release leaves the cluster running for the remaining user.
+    singleton.release(log, "shared", false);
+    assertSame(conf, singleton.acquire(log, "shared", "key"));
+    singleton.release(log, "shared", false);
+
+    // The last release stops the cluster.
+    singleton.release(log, "shared", false);
+    assertNull(singleton.acquire(log, "shared", "key"));
+
+    verify(hbaseCluster);
+  }
+
+  /**
+   * Tests that a shared cluster kept running for later users is stopped before a new cluster
+   * reuses its id, but not while it is in use.
+   */
+  @Test
+  public void testIdleSharedClusterIsStopped() throws Exception {
+    Log log = createNiceMock(Log.class);
+    MiniHBaseCluster hbaseCluster = createMock(MiniHBaseCluster.class);
+    Configuration conf = new Configuration(false);
+
+    hbaseCluster.startup();
+    expect(hbaseCluster.getConfiguration()).andReturn(conf).anyTimes();
+    hbaseCluster.shutdown();
+    expect(hbaseCluster.getStopTimeoutMillis()).andReturn(0L).anyTimes();
+
+    replay(log);
+    replay(hbaseCluster);
+
+    MiniHBaseClusterSingleton singleton = MiniHBaseClusterSingleton.INSTANCE;
+    singleton.startAndWaitUntilReady(log, "idle", hbaseCluster, 0L, "key");
+
+    // A cluster that is in use is not stopped.
+    try {
+      singleton.stopIdle(log, "idle");
+      fail("Expected the cluster to be in use.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("already in use"));
+    }
+
+    // Once it is only kept running for later users, it is.
+    singleton.release(log, "idle", true);
+    assertSame(conf, singleton.acquire(log, "idle", "key"));
+    singleton.release(log, "idle", true);
+    singleton.stopIdle(log, "idle");
+    assertNull(singleton.acquire(log, "idle", "key"));
+    verify(hbaseCluster);
+
+    // There is nothing left to stop.
+    singleton.stopIdle(log, "idle");
+  }
+
+  /**
+   * Tests that clusters registered under different ids run and stop independently.
+   */
+  @Test
+  public void testClustersWithDifferentIdsAreIndependent() throws Exception {
+    Log log = createNiceMock(Log.class);
+    MiniHBaseCluster firstCluster = createMock(MiniHBaseCluster.class);
+    MiniHBaseCluster secondCluster = createMock(MiniHBaseCluster.class);
+    Configuration firstConf = new Configuration(false);
+    Configuration secondConf = new Configuration(false);
+
+    firstCluster.startup();
+    expect(firstCluster.getConfiguration()).andReturn(firstConf).anyTimes();
+    firstCluster.shutdown();
+    expect(firstCluster.getStopTimeoutMillis()).andReturn(0L).anyTimes();
+    secondCluster.startup();
+    expect(secondCluster.getConfiguration()).andReturn(secondConf).anyTimes();
+    secondCluster.shutdown();
+    expect(secondCluster.getStopTimeoutMillis()).andReturn(0L).anyTimes();
+
+    replay(log);
+    replay(firstCluster);
+    replay(secondCluster);
+
+    MiniHBaseClusterSingleton singleton = MiniHBaseClusterSingleton.INSTANCE;
+    singleton.startAndWaitUntilReady(log, "first", firstCluster, 0L, null);
+    singleton.startAndWaitUntilReady(log, "second", secondCluster, 0L, null);
+    assertSame(firstConf, singleton.getClusterConfiguration("first"));
+    assertSame(secondConf, singleton.getClusterConfiguration("second"));
+
+    // Starting another cluster under an id that is in use fails.
+    try {
+      singleton.startAndWaitUntilReady(
+          log, "first", createMock(MiniHBaseCluster.class), 0L, null);
+      fail("Expected the cluster id to be in use.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("already in use"));
+    }
+
+    // Stopping one cluster leaves the other running.
+    singleton.stop(log, "first");
+    verify(firstCluster);
+    singleton.stop(log, "second");
+    verify(secondCluster);
+  }
+}
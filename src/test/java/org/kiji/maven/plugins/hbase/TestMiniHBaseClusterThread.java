@@ -17,6 +17,8 @@
 
 package org.kiji.maven.plugins.hbase;
 
+import java.io.IOException;
+
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
@@ -86,4 +88,57 @@ public class TestMiniHBaseClusterThread {
     verify(log);
     verify(hbaseCluster);
   }
+
+  /**
+   * Tests that the thread aborts the cluster instead of shutting it down when asked to.
+   */
+  @Test
+  public void testAbort() throws Exception {
+    Log log = createNiceMock(Log.class);
+    MiniHBaseCluster hbaseCluster = createMock(MiniHBaseCluster.class);
+
+    // Expect the cluster to be started and aborted, but not shut down.
+    hbaseCluster.startup();
+    hbaseCluster.abort(5000L);
+
+    replay(log);
+    replay(hbaseCluster);
+
+    MiniHBaseClusterThread thread = new MiniHBaseClusterThread(log, hbaseCluster);
+    thread.start();
+    thread.waitUntilReady(0L);
+    thread.abortCluster(5000L);
+    thread.waitUntilFinished();
+    verify(hbaseCluster);
+  }
+
+  /**
+   * Tests that a startup failure is reported to the thread waiting for the cluster.
+   */
+  @Test
+  public void testStartupFailureIsPropagated() throws Exception {
+    Log log = createNiceMock(Log.class);
+    MiniHBaseCluster hbaseCluster = createMock(MiniHBaseCluster.class);
+
+    // Expect the cluster startup to fail.
+    Exception failure = new IOException("No DFS for you.");
+    hbaseCluster.startup();
+    expectLastCall().andThrow(failure);
+
+    replay(log);
+    replay(hbaseCluster);
+
+    MiniHBaseClusterThread thread = new MiniHBaseClusterThread(log, hbaseCluster);
+    thread.start();
+    try {
+      thread.waitUntilReady(0L);
+      fail("Expected the startup failure to be rethrown.");
+    } catch (IOException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertFalse(thread.isClusterReady());
+
+    thread.waitUntilFinished();
+    verify(hbaseCluster);
+  }
 }
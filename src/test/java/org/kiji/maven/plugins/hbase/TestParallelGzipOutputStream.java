@@ -0,0 +1,71 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TestParallelGzipOutputStream {
+  /**
+   * Compresses data with a parallel gzip stream and decompresses it again.
+   *
+   * @param data The data.
+   * @return The decompressed data.
+   * @throws Exception If there is an error.
+   */
+  private static byte[] roundTrip(byte[] data) throws Exception {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, 3);
+    // Write in odd sized pieces so that writes straddle blocks.
+    int offset = 0;
+    while (offset < data.length) {
+      int length = Math.min(7777, data.length - offset);
+      gzip.write(data, offset, length);
+      offset += length;
+    }
+    gzip.close();
+    assertEquals(compressed.size(), gzip.getCompressedBytes());
+    return IOUtils.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+  }
+
+  @Test
+  public void testSeveralBlocks() throws Exception {
+    byte[] data = new byte[ParallelGzipOutputStream.BLOCK_SIZE * 5 + 123];
+    Random random = new Random(42L);
+    for (int i = 0; i < data.length; i++) {
+      // Compressible, but not trivially.
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    assertTrue(Arrays.equals(data, roundTrip(data)));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertEquals(0, roundTrip(new byte[0]).length);
+  }
+}
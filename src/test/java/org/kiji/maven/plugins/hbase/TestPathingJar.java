@@ -0,0 +1,73 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPathingJar {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  @Test
+  public void testManifestClassPath() throws Exception {
+    File classes = mTempDir.newFolder("classes");
+    File jar = mTempDir.newFile("dep.jar");
+    File missingClasses = new File(mTempDir.getRoot(), "test-classes");
+    String classPath = PathingJar.toManifestClassPath(
+        Arrays.asList(classes.getPath(), "", jar.getPath(), missingClasses.getPath()));
+
+    assertEquals(classes.toURI() + " " + jar.toURI() + " " + missingClasses.toURI() + "/",
+        classPath);
+  }
+
+  @Test
+  public void testJarIsWrittenOnceAndReused() throws Exception {
+    File dir = new File(mTempDir.getRoot(), "pathing");
+    File dep = mTempDir.newFile("dep with space.jar");
+    List<String> components = Arrays.asList(dep.getPath());
+
+    File pathingJar = PathingJar.getOrCreate(dir, components);
+    assertTrue(pathingJar.isFile());
+    JarFile jarFile = new JarFile(pathingJar);
+    try {
+      assertEquals(dep.toURI().toString(),
+          jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH));
+    } finally {
+      jarFile.close();
+    }
+
+    long lastModified = pathingJar.lastModified();
+    assertEquals(pathingJar, PathingJar.getOrCreate(dir, components));
+    assertEquals(lastModified, pathingJar.lastModified());
+    assertEquals(1, dir.list().length);
+
+    File other = PathingJar.getOrCreate(dir, Arrays.asList(dep.getPath(), "other.jar"));
+    assertFalse(pathingJar.equals(other));
+    assertEquals(2, dir.list().length);
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPortAllocator {
+  /** The number of allocators reserving ports at the same time in the stress test. */
+  private static final int ALLOCATORS = 32;
+
+  /** The number of ports each allocator reserves in the stress test. */
+  private static final int PORTS_PER_ALLOCATOR = 7;
+
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  @Test
+  public void testConcurrentAllocatorsNeverShareAPort() throws Exception {
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(ALLOCATORS);
+    List<PortAllocator> allocators = new ArrayList<PortAllocator>();
+    try {
+      List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+      for (int i = 0; i < ALLOCATORS; i++) {
+        // Start every search at the same port to make the allocators collide.
+        final PortAllocator allocator = new PortAllocator(mTempDir.getRoot(), new Random(42L));
+        allocators.add(allocator);
+        results.add(executor.submit(new Callable<int[]>() {
+          @Override
+          public int[] call() throws Exception {
+            startSignal.await();
+            return allocator.reserve(PORTS_PER_ALLOCATOR);
+          }
+        }));
+      }
+      startSignal.countDown();
+
+      Set<Integer> ports = new HashSet<Integer>();
+      for (Future<int[]> result : results) {
+        for (int port : result.get()) {
+          assertTrue("Port " + port + " was reserved twice.", ports.add(port));
+        }
+      }
+      assertEquals(ALLOCATORS * PORTS_PER_ALLOCATOR, ports.size());
+    } finally {
+      executor.shutdownNow();
+      for (PortAllocator allocator : allocators) {
+        allocator.releaseAll();
+      }
+    }
+  }
+
+  @Test
+  public void testReleasedPortsCanBeReservedAgain() throws Exception {
+    PortAllocator first = new PortAllocator(mTempDir.getRoot(), new Random(7L));
+    PortAllocator second = new PortAllocator(mTempDir.getRoot(), new Random(7L));
+    int port = first.reserve(1)[0];
+    assertEquals(Collections.singletonList(port), first.getReservedPorts());
+
+    // While the first allocator holds the port, the second one skips it.
+    int otherPort = second.reserve(1)[0];
+    assertFalse(port == otherPort);
+    second.releaseAll();
+
+    first.releaseAll();
+    assertTrue(first.getReservedPorts().isEmpty());
+    PortAllocator third = new PortAllocator(mTempDir.getRoot(), new Random(7L));
+    assertEquals(port, third.reserve(1)[0]);
+    third.releaseAll();
+  }
+
+  @Test
+  public void testEphemeralPortsAreNeverReserved() throws Exception {
+    // Leave only 20000-20009 outside the ephemeral range.
+    PortAllocator allocator =
+        new PortAllocator(mTempDir.getRoot(), new Random(3L), new int[] {20010, 65535});
+    try {
+      for (int port : allocator.reserve(5)) {
+        assertTrue("Port " + port + " is ephemeral.", port >= 20000 && port < 20010);
+      }
+    } finally {
+      allocator.releaseAll();
+    }
+  }
+
+  @Test
+  public void testReadEphemeralRange() throws Exception {
+    File rangeFile = mTempDir.newFile("ip_local_port_range");
+    FileUtils.writeStringToFile(rangeFile, "32768\t60999\n", Charsets.UTF_8.name());
+    assertArrayEquals(new int[] {32768, 60999}, PortAllocator.readEphemeralRange(rangeFile));
+
+    FileUtils.writeStringToFile(rangeFile, "garbage\n", Charsets.UTF_8.name());
+    assertArrayEquals(new int[] {32768, 60999}, PortAllocator.readEphemeralRange(rangeFile));
+    assertArrayEquals(new int[] {32768, 60999},
+        PortAllocator.readEphemeralRange(new File(mTempDir.getRoot(), "missing")));
+  }
+
+  @Test
+  public void testBoundPortIsNotBindable() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      assertFalse(PortAllocator.isBindable(socket.getLocalPort()));
+    } finally {
+      socket.close();
+    }
+  }
+}
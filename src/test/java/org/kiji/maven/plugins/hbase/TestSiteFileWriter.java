@@ -0,0 +1,93 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSiteFileWriter {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  @Test
+  public void testDeltaKeepsChangedAndClusterProperties() {
+    Configuration defaults = new Configuration(false);
+    defaults.set("hbase.zookeeper.quorum", "localhost");
+    defaults.set("hbase.client.retries.number", "10");
+    defaults.set("io.file.buffer.size", "4096");
+
+    Configuration conf = new Configuration(false);
+    conf.set("hbase.zookeeper.quorum", "localhost");
+    conf.set("hbase.client.retries.number", "10");
+    conf.set("io.file.buffer.size", "65536");
+    conf.set("hbase.master.port", "23456");
+
+    SortedMap<String, String> delta =
+        SiteFileWriter.getDelta(SiteFileWriter.getProperties(conf), defaults);
+    assertEquals(3, delta.size());
+    assertEquals("localhost", delta.get("hbase.zookeeper.quorum"));
+    assertEquals("65536", delta.get("io.file.buffer.size"));
+    assertEquals("23456", delta.get("hbase.master.port"));
+  }
+
+  @Test
+  public void testXmlIsSortedAndReadable() throws Exception {
+    SortedMap<String, String> properties = new TreeMap<String, String>();
+    properties.put("z.key", "last");
+    properties.put("a.key", "<first> & \"quoted\"");
+    String xml = new String(SiteFileWriter.toXml(properties), Charsets.UTF_8);
+    assertTrue(xml.indexOf("a.key") < xml.indexOf("z.key"));
+
+    File siteFile = mTempDir.newFile("site.xml");
+    FileUtils.writeStringToFile(siteFile, xml, Charsets.UTF_8.name());
+    Configuration conf = new Configuration(false);
+    conf.addResource(new Path(siteFile.getAbsolutePath()));
+    assertEquals("<first> & \"quoted\"", conf.get("a.key"));
+    assertEquals("last", conf.get("z.key"));
+  }
+
+  @Test
+  public void testUnchangedFileIsNotRewritten() throws Exception {
+    File siteFile = new File(mTempDir.getRoot(), "conf/hbase-site.xml");
+    SiteFileWriter writer = new SiteFileWriter(new SystemStreamLog(), true);
+    Configuration conf = new Configuration(false);
+    conf.set("hbase.zookeeper.quorum", "localhost");
+    conf.set("hbase.zookeeper.property.clientPort", "21818");
+
+    assertTrue(writer.write(conf, siteFile));
+    assertTrue(siteFile.setLastModified(0L));
+    assertFalse(writer.write(conf, siteFile));
+    assertEquals(0L, siteFile.lastModified());
+
+    conf.set("hbase.zookeeper.property.clientPort", "21819");
+    assertTrue(writer.write(conf, siteFile));
+    assertTrue(FileUtils.readFileToString(siteFile, Charsets.UTF_8.name()).contains("21819"));
+  }
+}
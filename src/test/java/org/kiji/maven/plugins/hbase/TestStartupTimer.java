@@ -0,0 +1,105 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestStartupTimer {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  @Test
+  public void testRecordAddsUpRepeatedPhases() {
+    StartupTimer timer = new StartupTimer();
+    timer.record("DFS", 100L);
+    timer.record("ZooKeeper", 50L);
+    timer.record("DFS", 20L);
+
+    Map<String, Long> phases = timer.getPhases();
+    assertEquals(Arrays.asList("DFS", "ZooKeeper"), Arrays.asList(phases.keySet().toArray()));
+    assertEquals(Long.valueOf(120L), phases.get("DFS"));
+    assertEquals(Long.valueOf(50L), phases.get("ZooKeeper"));
+  }
+
+  @Test
+  public void testPercentile90() {
+    assertEquals(7L, StartupTimer.percentile90(Arrays.asList(7L)));
+    assertEquals(9L, StartupTimer.percentile90(Arrays.asList(5L, 1L, 9L, 3L, 7L)));
+    assertEquals(9L,
+        StartupTimer.percentile90(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)));
+  }
+
+  @Test
+  public void testWriteReport() throws Exception {
+    StartupTimer timer = new StartupTimer();
+    timer.record("DFS", 1200L);
+    timer.record("master \"init\"", 300L);
+    File report = new File(mTempDir.getRoot(), "timing.json");
+    timer.writeReport(report);
+
+    String json = FileUtils.readFileToString(report, Charsets.UTF_8.name());
+    assertTrue(json.contains("\"startTime\": " + timer.getStartTime()));
+    assertTrue(json.contains("{\"name\": \"DFS\", \"millis\": 1200}"));
+    assertTrue(json.contains("{\"name\": \"master \\\"init\\\"\", \"millis\": 300}"));
+  }
+
+  @Test
+  public void testTrendWarnsAboutSlowPhases() throws Exception {
+    File trendFile = new File(new File(mTempDir.getRoot(), "trends"), "module.tsv");
+    for (int i = 0; i < 10; i++) {
+      StartupTimer timer = new StartupTimer();
+      timer.record("DFS", 1000L);
+      timer.record("HBase", 2000L);
+      assertTrue(timer.updateTrend(trendFile).isEmpty());
+    }
+    assertEquals(10, FileUtils.readLines(trendFile, Charsets.UTF_8.name()).size());
+
+    StartupTimer slow = new StartupTimer();
+    slow.record("DFS", 5000L);
+    slow.record("HBase", 2000L);
+    slow.record("MapReduce", 9000L);
+    List<String> warnings = slow.updateTrend(trendFile);
+    assertEquals(1, warnings.size());
+    assertTrue(warnings.get(0).startsWith("DFS took 5000 ms"));
+    assertEquals(11, FileUtils.readLines(trendFile, Charsets.UTF_8.name()).size());
+  }
+
+  @Test
+  public void testTrendNeedsEnoughSamples() throws Exception {
+    File trendFile = mTempDir.newFile("module.tsv");
+    for (int i = 0; i < 4; i++) {
+      StartupTimer timer = new StartupTimer();
+      timer.record("DFS", 1000L);
+      timer.updateTrend(trendFile);
+    }
+    StartupTimer slow = new StartupTimer();
+    slow.record("DFS", 5000L);
+    assertTrue(slow.updateTrend(trendFile).isEmpty());
+  }
+}
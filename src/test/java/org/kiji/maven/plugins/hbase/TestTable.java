@@ -0,0 +1,113 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class TestTable {
+  @Test
+  public void testDescriptor() {
+    Table table = new Table();
+    table.setName("users");
+    table.setFamilies(Arrays.asList("info", "data"));
+    table.setDataBlockEncoding("fast_diff");
+    table.setMaxVersions(1);
+
+    HTableDescriptor descriptor = table.getDescriptor();
+    assertEquals("users", descriptor.getNameAsString());
+    assertEquals(2, descriptor.getFamilies().size());
+    HColumnDescriptor family = descriptor.getFamily(Bytes.toBytes("info"));
+    assertEquals(DataBlockEncoding.FAST_DIFF, family.getDataBlockEncoding());
+    assertEquals(1, family.getMaxVersions());
+  }
+
+  @Test
+  public void testExplicitSplitKeysAreSorted() {
+    Table table = new Table();
+    table.setName("users");
+    table.setSplitKeys(Arrays.asList("p", "\\x00g"));
+
+    byte[][] splits = table.getSplits();
+    assertEquals(2, splits.length);
+    assertArrayEquals(new byte[] {0, 'g'}, splits[0]);
+    assertArrayEquals(Bytes.toBytes("p"), splits[1]);
+  }
+
+  @Test
+  public void testSplitIntoRegions() {
+    Table table = new Table();
+    table.setName("events");
+    table.setNumRegions(16);
+    table.setStartKey("\\x00");
+    table.setEndKey("\\xFF");
+
+    byte[][] splits = table.getSplits();
+    assertEquals(15, splits.length);
+    for (int i = 1; i < splits.length; i++) {
+      assertTrue(Bytes.compareTo(splits[i - 1], splits[i]) < 0);
+    }
+  }
+
+  @Test
+  public void testSplitIntoThreeRegions() {
+    Table table = new Table();
+    table.setName("events");
+    table.setNumRegions(3);
+    table.setStartKey("a");
+    table.setEndKey("z");
+
+    byte[][] splits = table.getSplits();
+    assertEquals(2, splits.length);
+    assertArrayEquals(Bytes.toBytes("a"), splits[0]);
+    assertArrayEquals(Bytes.toBytes("z"), splits[1]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStartKeyMustSortBeforeEndKey() {
+    Table table = new Table();
+    table.setName("events");
+    table.setNumRegions(4);
+    table.setStartKey("z");
+    table.setEndKey("a");
+    table.getSplits();
+  }
+
+  @Test
+  public void testUnsplitTable() {
+    Table table = new Table();
+    table.setName("plain");
+    assertNull(table.getSplits());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTableNeedsFamilies() {
+    Table table = new Table();
+    table.setName("empty");
+    table.setFamilies(Collections.<String>emptyList());
+    table.getDescriptor();
+  }
+}
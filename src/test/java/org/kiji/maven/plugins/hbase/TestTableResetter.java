@@ -0,0 +1,64 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Collections;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Test;
+
+public class TestTableResetter {
+  @Test
+  public void testSnapshotName() {
+    assertEquals("users-reset", TableResetter.getSnapshotName("users"));
+  }
+
+  @Test
+  public void testSnapshotsFollowConfiguration() {
+    Configuration conf = new Configuration(false);
+    Log log = createNiceMock(Log.class);
+    replay(log);
+    assertFalse(new TableResetter(log, conf).isSnapshotEnabled());
+    conf.setBoolean("hbase.snapshot.enabled", true);
+    assertTrue(new TableResetter(log, conf).isSnapshotEnabled());
+  }
+
+  @Test
+  public void testNothingToDoWithoutTablesOrSnapshots() throws Exception {
+    // Neither call needs to connect to a cluster.
+    Log log = createNiceMock(Log.class);
+    replay(log);
+    TableResetter resetter = new TableResetter(log, new Configuration(false));
+    resetter.reset(Collections.<String>emptyList());
+    resetter.saveState(Collections.singletonList("users"));
+  }
+
+  @Test
+  public void testSeededStateWithoutSnapshotsWarns() throws Exception {
+    Log log = createMock(Log.class);
+    log.warn(anyObject(CharSequence.class));
+    replay(log);
+    new TableResetter(log, new Configuration(false))
+        .saveSeededState(Collections.singletonList("users"));
+    verify(log);
+  }
+}
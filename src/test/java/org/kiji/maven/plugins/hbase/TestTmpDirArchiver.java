@@ -0,0 +1,170 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.kiji.maven.plugins.hbase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestTmpDirArchiver {
+  @Rule
+  public TemporaryFolder mTempDir = new TemporaryFolder();
+
+  /** A directory like a Hadoop tmp dir. */
+  private File mSourceDir;
+
+  /** A directory name too long for a plain ustar header. */
+  private static final String LONG_DIR =
+      "userlogs/job_201301010000_0001/attempt_201301010000_0001_m_000000_0_with_a_long_suffix";
+
+  @Before
+  public void createSourceDir() throws Exception {
+    mSourceDir = mTempDir.newFolder("hadoop-tmp");
+    write("userlogs/job_1/syslog", "task log");
+    write(LONG_DIR + "/stderr", "long name");
+    write("dfs/data/current/blk_1234", "block");
+    write("dfs/data/current/blk_1234.meta", "meta");
+  }
+
+  /**
+   * Writes a file in the source directory.
+   *
+   * @param path The path of the file, relative to the source directory.
+   * @param contents The contents of the file.
+   * @throws Exception If the file cannot be written.
+   */
+  private void write(String path, String contents) throws Exception {
+    FileUtils.writeStringToFile(new File(mSourceDir, path), contents, Charsets.UTF_8.name());
+  }
+
+  /**
+   * Reads a file.
+   *
+   * @param file The file.
+   * @return The contents of the file.
+   * @throws Exception If the file cannot be read.
+   */
+  private static String read(File file) throws Exception {
+    return FileUtils.readFileToString(file, Charsets.UTF_8.name());
+  }
+
+  @Test
+  public void testCopyWithExcludes() throws Exception {
+    File target = new File(mTempDir.getRoot(), "target/hadoop-tmp");
+    TmpDirArchiver archiver = new TmpDirArchiver(new SystemStreamLog(),
+        TmpDirArchiver.Mode.COPY, null, " **/blk_*, ", 2);
+    assertEquals(target, archiver.save(mSourceDir, target));
+    assertEquals("task log", read(new File(target, "userlogs/job_1/syslog")));
+    assertEquals("long name", read(new File(target, LONG_DIR + "/stderr")));
+    assertFalse(new File(target, "dfs/data/current/blk_1234").exists());
+    assertFalse(new File(target, "dfs/data/current/blk_1234.meta").exists());
+  }
+
+  @Test
+  public void testHardLinkWithIncludes() throws Exception {
+    File target = new File(mTempDir.getRoot(), "target/hadoop-tmp");
+    TmpDirArchiver archiver = new TmpDirArchiver(new SystemStreamLog(),
+        TmpDirArchiver.Mode.parse("HardLink"), "userlogs/**", null, 2);
+    archiver.save(mSourceDir, target);
+    assertEquals("task log", read(new File(target, "userlogs/job_1/syslog")));
+    assertEquals("long name", read(new File(target, LONG_DIR + "/stderr")));
+    assertFalse(new File(target, "dfs").exists());
+
+    // A linked file is the same file.
+    write("userlogs/job_1/syslog", "more task log");
+    assertEquals("more task log", read(new File(target, "userlogs/job_1/syslog")));
+  }
+
+  @Test
+  public void testArchive() throws Exception {
+    File target = new File(mTempDir.getRoot(), "target/hadoop-tmp");
+    TmpDirArchiver archiver = new TmpDirArchiver(new SystemStreamLog(),
+        TmpDirArchiver.Mode.ARCHIVE, null, "dfs/**", 2);
+    File archive = archiver.save(mSourceDir, target);
+    assertEquals(new File(mTempDir.getRoot(), "target/hadoop-tmp.tar.gz"), archive);
+
+    Map<String, String> entries = readTar(archive);
+    assertEquals(2, entries.size());
+    assertEquals("long name", entries.get("hadoop-tmp/" + LONG_DIR + "/stderr"));
+    assertEquals("task log", entries.get("hadoop-tmp/userlogs/job_1/syslog"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMode() {
+    TmpDirArchiver.Mode.parse("zip");
+  }
+
+  @Test
+  public void testSplitPatterns() {
+    assertNull(TmpDirArchiver.splitPatterns(null));
+    assertNull(TmpDirArchiver.splitPatterns(" , "));
+    assertArrayEquals(new String[] {"a/**", "*.log"}, TmpDirArchiver.splitPatterns("a/**, *.log"));
+  }
+
+  /**
+   * Reads the files of a gzip compressed tar archive written by a TarWriter.
+   *
+   * @param archive The archive.
+   * @return The contents of the files, by name.
+   * @throws Exception If the archive cannot be read.
+   */
+  private static Map<String, String> readTar(File archive) throws Exception {
+    Map<String, String> entries = new LinkedHashMap<String, String>();
+    InputStream in = new GZIPInputStream(new FileInputStream(archive));
+    try {
+      DataInputStream tar = new DataInputStream(in);
+      String longName = null;
+      byte[] header = new byte[512];
+      while (true) {
+        tar.readFully(header);
+        if (0 == header[0]) {
+          break;
+        }
+        String name = new String(header, 0, 100, Charsets.UTF_8).replace("\u0000", "");
+        int size = Integer.parseInt(new String(header, 124, 11, Charsets.US_ASCII), 8);
+        byte[] data = new byte[(size + 511) / 512 * 512];
+        tar.readFully(data);
+        String contents = new String(data, 0, size, Charsets.UTF_8);
+        if ('L' == header[156]) {
+          longName = contents.replace("\u0000", "");
+        } else {
+          entries.put(null == longName ? name : longName, contents);
+          longName = null;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed to WibiData, Inc. under one or more contributor license
+ * agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  WibiData, Inc.
+ * licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.kiji.maven.plugins.hbase;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestWriteDurability {
+  @Test
+  public void testDurableByDefault() {
+    assertTrue(WriteDurability.isDurable(new Configuration(false)));
+  }
+
+  @Test
+  public void testDisable() {
+    Configuration conf = new Configuration(false);
+    WriteDurability.disable(conf);
+    assertFalse(WriteDurability.isDurable(conf));
+    assertEquals("false", conf.get(WriteDurability.DURABLE_PROPERTY));
+    for (Map.Entry<String, String> override
+        : WriteDurability.NON_DURABLE_OVERRIDES.entrySet()) {
+      assertEquals(override.getValue(), conf.get(override.getKey()));
+    }
+  }
+}